@@ -0,0 +1,305 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bluejeans.utils.BulkOperationUtil.BulkOperation;
+import com.bluejeans.utils.BulkOperationUtil.Weigher;
+
+/**
+ * Accumulates elements per bucket as they are added, each bucket flushed on its own once it
+ * reaches the max count or bytes, or once its oldest element lingered long enough. The flushes
+ * run in the given executor, so buckets flush concurrently.
+ *
+ * @author Dinesh Ilindra
+ * @param <E>
+ *            the entity type
+ */
+public class BatchAccumulator<E> implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(BatchAccumulator.class);
+
+    private final BulkOperation<E> flusher;
+
+    private final Weigher<E> weigher;
+
+    private final int maxCount;
+
+    private final long maxBytes;
+
+    private final long lingerMillis;
+
+    private final Executor executor;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    private final Timer lingerTimer;
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong flushFailCount = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Elements of one bucket
+     */
+    private class Bucket {
+        private List<E> elements = new ArrayList<E>();
+        private long bytes;
+        private long firstAddTime;
+
+        /**
+         * Add the element, the ones already in taken first if it does not fit the max bytes.
+         *
+         * @param e
+         *            the element
+         * @param flushes
+         *            the element lists to flush, added to
+         */
+        private synchronized void add(final E e, final List<List<E>> flushes) {
+            final long weight = weigher == null ? 0 : weigher.weigh(e);
+            if (!elements.isEmpty() && bytes + weight > maxBytes) {
+                flushes.add(take());
+            }
+            if (elements.isEmpty()) {
+                firstAddTime = System.currentTimeMillis();
+            }
+            elements.add(e);
+            bytes += weight;
+            if (elements.size() >= maxCount || bytes >= maxBytes) {
+                flushes.add(take());
+            }
+        }
+
+        /**
+         * Take the elements if lingered enough.
+         *
+         * @param now
+         *            the current time
+         * @return the elements to flush / null
+         */
+        private synchronized List<E> takeLingered(final long now) {
+            return !elements.isEmpty() && now - firstAddTime >= lingerMillis ? take() : null;
+        }
+
+        /**
+         * @return the elements taken, replaced with a new list
+         */
+        private synchronized List<E> take() {
+            if (elements.isEmpty()) {
+                return null;
+            }
+            final List<E> taken = elements;
+            elements = new ArrayList<E>(Math.min(taken.size(), maxCount));
+            bytes = 0;
+            return taken;
+        }
+
+        /**
+         * @return true if nothing waiting
+         */
+        private synchronized boolean isEmpty() {
+            return elements.isEmpty();
+        }
+    }
+
+    /**
+     * @param flusher
+     *            the operation flushing one bucket's elements
+     * @param weigher
+     *            the weigher, null to bound by count only
+     * @param maxCount
+     *            the max elements in a bucket
+     * @param maxBytes
+     *            the max bytes in a bucket
+     * @param lingerMillis
+     *            the max time an element waits in the bucket
+     * @param executor
+     *            the executor to flush in
+     */
+    public BatchAccumulator(final BulkOperation<E> flusher, final Weigher<E> weigher, final int maxCount,
+            final long maxBytes, final long lingerMillis, final Executor executor) {
+        this.flusher = flusher;
+        this.weigher = weigher;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.executor = executor;
+        lingerTimer = new Timer("batch-accumulator-linger", true);
+        final long checkInterval = Math.max(1, lingerMillis / 2);
+        lingerTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                final long now = System.currentTimeMillis();
+                final List<List<E>> flushes = new ArrayList<List<E>>();
+                for (final String bucketName : buckets.keySet()) {
+                    buckets.computeIfPresent(bucketName, (name, bucket) -> {
+                        final List<E> elements = bucket.takeLingered(now);
+                        if (elements != null) {
+                            flushes.add(elements);
+                        }
+                        return bucket.isEmpty() ? null : bucket;
+                    });
+                }
+                for (final List<E> elements : flushes) {
+                    submit(elements);
+                }
+            }
+        }, checkInterval, checkInterval);
+    }
+
+    /**
+     * Add the element to the bucket, flushing the bucket if full. A bucket left empty is removed.
+     *
+     * @param bucketName
+     *            the bucket name
+     * @param e
+     *            the element
+     * @return false if closed already
+     */
+    public boolean add(final String bucketName, final E e) {
+        // shared with the other adds, so close waits for the ones in progress before flushing
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            final List<List<E>> flushes = new ArrayList<List<E>>(2);
+            buckets.compute(bucketName, (name, bucket) -> {
+                final Bucket current = bucket == null ? new Bucket() : bucket;
+                current.add(e, flushes);
+                return current.isEmpty() ? null : current;
+            });
+            for (final List<E> elements : flushes) {
+                submit(elements);
+            }
+            return true;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void submit(final List<E> elements) {
+        if (elements != null) {
+            executor.execute(() -> flush(elements));
+        }
+    }
+
+    private void flush(final List<E> elements) {
+        try {
+            flusher.doBulk(elements);
+            flushCount.incrementAndGet();
+        } catch (final RuntimeException ex) {
+            flushFailCount.incrementAndGet();
+            logger.error("Error flushing " + elements.size() + " elements", ex);
+        }
+    }
+
+    /**
+     * Flush all the buckets now, in the calling thread.
+     */
+    public void flushAll() {
+        for (final String bucketName : buckets.keySet()) {
+            final List<List<E>> flushes = new ArrayList<List<E>>(1);
+            buckets.computeIfPresent(bucketName, (name, bucket) -> {
+                final List<E> elements = bucket.take();
+                if (elements != null) {
+                    flushes.add(elements);
+                }
+                return null;
+            });
+            for (final List<E> elements : flushes) {
+                flush(elements);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting, stop the linger timer and flush what is left.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        lingerTimer.cancel();
+        flushAll();
+    }
+
+    /**
+     * @return the no. of elements waiting in all the buckets
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (final Bucket bucket : buckets.values()) {
+            synchronized (bucket) {
+                count += bucket.elements.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the no. of buckets
+     */
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * @return the flushCount
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the flushFailCount
+     */
+    public long getFlushFailCount() {
+        return flushFailCount.get();
+    }
+
+    /**
+     * @return the maxCount
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * @return the maxBytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the lingerMillis
+     */
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+}
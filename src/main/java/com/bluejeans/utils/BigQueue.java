@@ -3,14 +3,52 @@
  */
 package com.bluejeans.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.lang.SerializationUtils;
 
+import com.bluejeans.bigqueue.BigArray;
+
 /**
  * Big queue extension
+ * <p>
+ * With compression on, the pushed records are collected into frames of up to the frame records or
+ * bytes, each frame compressed and enqueued as one entry. The frames are decoded transparently on
+ * pop, drain and peek, which always take whole frames, so they may go over the max elements by
+ * the records of the last frame. The queue size and dequeue counts are in entries, i.e. frames,
+ * the record size counts the records in them. Frames and plain records can be mixed in the same
+ * queue.
+ * <p>
+ * Each record starts with a header - a magic byte, the format version and the codec id - so it is
+ * decoded as it was written, whatever the entity type. Records written without the header, by
+ * earlier versions or with the record header turned off for them, are decoded as per the entity
+ * type, and without one by looking for the serialization stream magic.
  *
  * @author Dinesh Ilindra
  * @param <E>
@@ -18,88 +56,770 @@ import org.apache.commons.lang.SerializationUtils;
  */
 public class BigQueue<E> extends com.bluejeans.bigqueue.BigQueue {
 
+    /**
+     * The compression of the frames
+     *
+     * @author Dinesh Ilindra
+     */
+    public static enum Compression {
+        /**
+         * Records enqueued as they are, no frames
+         */
+        NONE,
+        /**
+         * Frames deflated
+         */
+        DEFLATE;
+    }
+
+    /**
+     * The frame stats
+     *
+     * @author Dinesh Ilindra
+     */
+    public static enum FrameStat {
+        /**
+         * Frames written
+         */
+        FRAMES,
+        /**
+         * Bytes of the records framed
+         */
+        RAW_BYTES,
+        /**
+         * Bytes of the frames written
+         */
+        COMPRESSED_BYTES,
+        /**
+         * Time spent compressing
+         */
+        COMPRESS_NANOS,
+        /**
+         * Frames read
+         */
+        FRAMES_READ,
+        /**
+         * Time spent decompressing
+         */
+        DECOMPRESS_NANOS;
+    }
+
+    /**
+     * The codec of a record, its id in the record header is the ordinal + 1
+     *
+     * @author Dinesh Ilindra
+     */
+    public static enum RecordCodec {
+        /**
+         * Raw bytes
+         */
+        BYTES,
+        /**
+         * UTF-8 string
+         */
+        STRING,
+        /**
+         * Java serialized object
+         */
+        SERIALIZED;
+    }
+
+    private static final int COMMIT_CHUNK = 1000;
+
+    private static final byte RECORD_MAGIC = (byte) 0xB7;
+
+    private static final byte RECORD_VERSION = 1;
+
+    private static final int RECORD_HEADER_LENGTH = 3;
+
+    private boolean recordHeader = true;
+
+    private static final byte[] FRAME_MAGIC = new byte[] { (byte) 0xBF, (byte) 0x1F };
+
+    private static final int FRAME_HEADER_LENGTH = FRAME_MAGIC.length + 1 + 4;
+
+    private Compression compression = Compression.NONE;
+
+    private int frameRecords = 64;
+
+    private int frameBytes = 64 * 1024;
+
+    private final Object frameLock = new Object();
+
+    private List<byte[]> pendingRecords = new ArrayList<byte[]>();
+
+    private int pendingBytes;
+
+    private final Deque<E> popped = new ArrayDeque<E>();
+
+    private final EnumCounter<FrameStat> frameCounter = new EnumCounter<FrameStat>(FrameStat.class);
+
     private Class<E> entityType;
 
     private E dummyElement;
 
+    private BiConsumer<byte[], Exception> undecodableHandler;
+
+    private BigArray innerArray;
+
+    private AtomicLong frontIndex;
+
+    private Object dataPageFactory;
+
+    private Field headDataPageIndexField;
+
+    private Method acquirePageMethod;
+
+    private Method releasePageMethod;
+
+    private Method pageBufferMethod;
+
+    private long preparedPageIndex = -1;
+
+    private volatile long touchSum;
+
+    private final AtomicLong recordSize = new AtomicLong();
+
+    private RandomAccessFile recordSizeFile;
+
+    private MappedByteBuffer recordSizeBuffer;
+
     public BigQueue(final String queueDir, final String queueName, final int pageSize) {
         super(queueDir, queueName, pageSize);
+        initRecordSize(queueDir, queueName);
     }
 
     public BigQueue(final String queueDir, final String queueName) {
         super(queueDir, queueName);
+        initRecordSize(queueDir, queueName);
     }
 
     public BigQueue(final String queueDir, final String queueName, final int pageSize, final Class<E> entityType) {
         super(queueDir, queueName, pageSize);
         this.entityType = entityType;
+        initRecordSize(queueDir, queueName);
     }
 
     public BigQueue(final String queueDir, final String queueName, final Class<E> entityType) {
         super(queueDir, queueName);
         this.entityType = entityType;
+        initRecordSize(queueDir, queueName);
     }
 
-    @SuppressWarnings("unchecked")
-    public void push(final E element) {
-        if (entityType == null) {
-            synchronized (this) {
-                if (entityType == null) {
-                    entityType = (Class<E>) element.getClass();
+    /**
+     * Map the record size kept in a small file with the queue, counting it from the entries once
+     * for a queue written without it.
+     *
+     * @param queueDir
+     *            the queue dir
+     * @param queueName
+     *            the queue name
+     */
+    private void initRecordSize(final String queueDir, final String queueName) {
+        try {
+            recordSizeFile = new RandomAccessFile(new File(new File(queueDir, queueName), "record_size"), "rw");
+            final boolean created = recordSizeFile.length() < 8;
+            recordSizeBuffer = recordSizeFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+            if (created) {
+                initIndexAccess();
+                long count = 0;
+                for (long index = frontIndex.get(); index < innerArray.getHeadIndex(); index++) {
+                    count += recordCount(innerArray.get(index));
                 }
+                addRecords(count);
+            } else {
+                recordSize.set(recordSizeBuffer.getLong(0));
             }
+        } catch (final IOException ioe) {
+            throw new IllegalStateException("Problem opening the record size file", ioe);
         }
-        if (entityType.equals(byte[].class)) {
-            enqueue((byte[]) element);
-        } else if (entityType.equals(String.class)) {
-            enqueue(((String) element).getBytes());
-        } else {
-            enqueue(SerializationUtils.serialize((Serializable) element));
+    }
+
+    /**
+     * Add to the record size, negative when dequeued, and write it through to the file.
+     *
+     * @param count
+     *            the no. of records
+     */
+    private void addRecords(final long count) {
+        recordSize.addAndGet(count);
+        synchronized (recordSizeBuffer) {
+            recordSizeBuffer.putLong(0, recordSize.get());
         }
     }
 
-    public E pop() {
-        return element(dequeue());
+    /**
+     * The no. of records in the queue, the records of the frames counted rather than the frames.
+     * The records pending in the frame or popped from a frame and not taken yet are not counted.
+     *
+     * @return the record size
+     */
+    public long recordSize() {
+        return Math.max(0, recordSize.get());
     }
 
-    @SuppressWarnings("unchecked")
-    public E element(final byte[] data) {
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#enqueue(byte[])
+     */
+    @Override
+    public void enqueue(final byte[] data) {
+        super.enqueue(data);
+        addRecords(recordCount(data));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#dequeue()
+     */
+    @Override
+    public byte[] dequeue() {
+        final byte[] data = super.dequeue();
         if (data != null) {
-            if (entityType == null) {
-                synchronized (this) {
-                    if (entityType == null) {
-                        try {
-                            entityType = (Class<E>) SerializationUtils.deserialize(data).getClass();
-                        } catch (final Exception ex) {
-                            try {
-                                entityType = (Class<E>) String.class;
-                            } catch (final Exception ex1) {
-                                try {
-                                    entityType = (Class<E>) byte[].class;
-                                } catch (final Exception ex2) {
-                                    // cannot find the entity type
-                                }
-                            }
-                        }
+            addRecords(-recordCount(data));
+        }
+        return data;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#dequeueMulti(int)
+     */
+    @Override
+    public List<byte[]> dequeueMulti(final int max) {
+        final List<byte[]> entries = super.dequeueMulti(max);
+        long count = 0;
+        for (final byte[] data : entries) {
+            count += recordCount(data);
+        }
+        if (count > 0) {
+            addRecords(-count);
+        }
+        return entries;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#removeAll()
+     */
+    @Override
+    public void removeAll() {
+        super.removeAll();
+        addRecords(-recordSize.get());
+    }
+
+    /**
+     * The inner array and front index are not exposed by the base queue, read them once.
+     */
+    private synchronized void initIndexAccess() {
+        if (innerArray == null) {
+            try {
+                final Field arrayField = com.bluejeans.bigqueue.BigQueue.class.getDeclaredField("innerArray");
+                arrayField.setAccessible(true);
+                final Field frontField = com.bluejeans.bigqueue.BigQueue.class.getDeclaredField("queueFrontIndex");
+                frontField.setAccessible(true);
+                frontIndex = (AtomicLong) frontField.get(this);
+                innerArray = (BigArray) arrayField.get(this);
+            } catch (final ReflectiveOperationException roe) {
+                throw new IllegalStateException("Index access not supported by this big queue", roe);
+            }
+        }
+    }
+
+    /**
+     * The data page factory and pages are package private in the base queue, look them up once.
+     */
+    private void initPageAccess() {
+        initIndexAccess();
+        try {
+            final Field factoryField = BigArray.class.getDeclaredField("dataPageFactory");
+            factoryField.setAccessible(true);
+            dataPageFactory = factoryField.get(innerArray);
+            headDataPageIndexField = BigArray.class.getDeclaredField("headDataPageIndex");
+            headDataPageIndexField.setAccessible(true);
+            acquirePageMethod = dataPageFactory.getClass().getMethod("acquirePage", long.class);
+            acquirePageMethod.setAccessible(true);
+            releasePageMethod = dataPageFactory.getClass().getMethod("releasePage", long.class);
+            releasePageMethod.setAccessible(true);
+            pageBufferMethod = acquirePageMethod.getReturnType().getMethod("getLocal", int.class);
+            pageBufferMethod.setAccessible(true);
+        } catch (final ReflectiveOperationException roe) {
+            throw new IllegalStateException("Page access not supported by this big queue", roe);
+        }
+    }
+
+    /**
+     * Create and map the data page after the head page ahead of time, so the producer finds it
+     * ready when the head page fills. When touching, a byte of every 4K of the page is read to
+     * fault it in, reads only as the producer may reach the page meanwhile.
+     *
+     * @param touch
+     *            whether to pre-touch the page
+     * @return whether a new page was prepared
+     */
+    public synchronized boolean prepareNextPage(final boolean touch) {
+        if (acquirePageMethod == null) {
+            initPageAccess();
+        }
+        try {
+            final long nextPageIndex = headDataPageIndexField.getLong(innerArray) + 1;
+            if (nextPageIndex == preparedPageIndex) {
+                return false;
+            }
+            final Object page = acquirePageMethod.invoke(dataPageFactory, nextPageIndex);
+            try {
+                if (touch) {
+                    final ByteBuffer buffer = (ByteBuffer) pageBufferMethod.invoke(page, 0);
+                    long sum = 0;
+                    for (int offset = 0; offset < buffer.limit(); offset += 4096) {
+                        sum += buffer.get(offset);
                     }
+                    touchSum = sum;
                 }
+            } finally {
+                releasePageMethod.invoke(dataPageFactory, nextPageIndex);
             }
-            if (entityType.equals(byte[].class)) {
-                return (E) data;
-            } else if (entityType.equals(String.class)) {
-                return (E) new String(data);
-            } else {
-                try {
-                    return (E) SerializationUtils.deserialize(data);
-                } catch (final Exception ex) {
-                    return dummyElement;
-                }
+            preparedPageIndex = nextPageIndex;
+            return true;
+        } catch (final ReflectiveOperationException roe) {
+            throw new IllegalStateException("Problem preparing the next data page", roe);
+        }
+    }
+
+    /**
+     * @return the index of the next element to dequeue
+     */
+    public long getFrontIndex() {
+        initIndexAccess();
+        return frontIndex.get();
+    }
+
+    /**
+     * @return the index the next element is enqueued at
+     */
+    public long getBackIndex() {
+        initIndexAccess();
+        return innerArray.getHeadIndex();
+    }
+
+    /**
+     * Read the raw bytes at the index without dequeuing, safe to call concurrently.
+     *
+     * @param index
+     *            the index between front and back
+     * @return the raw bytes
+     */
+    public byte[] get(final long index) {
+        initIndexAccess();
+        return innerArray.get(index);
+    }
+
+    /**
+     * Dequeue up to the given index, a no-op if the front is already past it.
+     *
+     * @param index
+     *            the index to be the new front
+     * @return the no. of elements dequeued
+     */
+    public int commit(final long index) {
+        final long count = index - getFrontIndex();
+        if (count <= 0) {
+            return 0;
+        }
+        int done = 0;
+        while (done < count) {
+            // in chunks, the entries are read into the heap only to be counted
+            final int dequeued = dequeueMulti((int) Math.min(COMMIT_CHUNK, count - done)).size();
+            if (dequeued == 0) {
+                break;
             }
+            done += dequeued;
+        }
+        return done;
+    }
+
+    public void push(final E element) {
+        if (compression == Compression.NONE) {
+            enqueue(data(element));
         } else {
+            addToFrame(data(element));
+        }
+    }
+
+    /**
+     * Add the record to the pending frame, enqueuing the frame if full.
+     *
+     * @param record
+     *            the raw bytes
+     */
+    private void addToFrame(final byte[] record) {
+        synchronized (frameLock) {
+            if (compression == Compression.NONE) {
+                enqueue(record);
+                return;
+            }
+            pendingRecords.add(record);
+            pendingBytes += record.length;
+            if (pendingRecords.size() >= frameRecords || pendingBytes >= frameBytes) {
+                flushFrame();
+            }
+        }
+    }
+
+    /**
+     * Compress and enqueue the pending records as a frame, called on the frame getting full, and
+     * to be called periodically by the producer so the records do not wait too long.
+     *
+     * @return the no. of records enqueued
+     */
+    public int flushFrame() {
+        synchronized (frameLock) {
+            if (pendingRecords.isEmpty()) {
+                return 0;
+            }
+            final long start = System.nanoTime();
+            final byte[] frame = encodeFrame(pendingRecords);
+            frameCounter.incrementEventCount(FrameStat.COMPRESS_NANOS, (int) (System.nanoTime() - start));
+            enqueue(frame);
+            frameCounter.incrementEventCount(FrameStat.FRAMES);
+            frameCounter.incrementEventCount(FrameStat.RAW_BYTES, pendingBytes);
+            frameCounter.incrementEventCount(FrameStat.COMPRESSED_BYTES, frame.length);
+            final int count = pendingRecords.size();
+            pendingRecords = new ArrayList<byte[]>(count);
+            pendingBytes = 0;
+            return count;
+        }
+    }
+
+    /**
+     * Encode the records as a frame - magic, compression, record count and the compressed
+     * records, each prefixed by its length.
+     *
+     * @param records
+     *            the records
+     * @return the frame
+     */
+    private byte[] encodeFrame(final List<byte[]> records) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(pendingBytes / 4 + FRAME_HEADER_LENGTH);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            out.write(FRAME_MAGIC);
+            out.write(compression.ordinal());
+            final DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(records.size());
+            final DataOutputStream body = new DataOutputStream(new DeflaterOutputStream(out, deflater));
+            for (final byte[] record : records) {
+                body.writeInt(record.length);
+                body.write(record);
+            }
+            body.close();
+        } catch (final IOException ioe) {
+            throw new IllegalStateException("Problem encoding frame", ioe);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param data
+     *            the raw bytes of an entry
+     * @return true if the entry is a frame
+     */
+    public static boolean isFrame(final byte[] data) {
+        return data != null && data.length >= FRAME_HEADER_LENGTH && data[0] == FRAME_MAGIC[0]
+                && data[1] == FRAME_MAGIC[1] && data[2] > 0 && data[2] < Compression.values().length;
+    }
+
+    /**
+     * @param data
+     *            the raw bytes of an entry
+     * @return the no. of records in the entry
+     */
+    public static int recordCount(final byte[] data) {
+        if (data == null) {
+            return 0;
+        }
+        return isFrame(data) ? ByteBuffer.wrap(data, FRAME_MAGIC.length + 1, 4).getInt() : 1;
+    }
+
+    /**
+     * Decode the records of an entry.
+     *
+     * @param data
+     *            the raw bytes of an entry
+     * @return the records, the entry itself if not a frame
+     * @throws IOException
+     *             if the frame is corrupt
+     */
+    public List<byte[]> records(final byte[] data) throws IOException {
+        if (data == null) {
+            return Collections.emptyList();
+        } else if (!isFrame(data)) {
+            return Collections.singletonList(data);
+        }
+        final long start = System.nanoTime();
+        final int count = recordCount(data);
+        final List<byte[]> records = new ArrayList<byte[]>(count);
+        final Inflater inflater = new Inflater();
+        try (DataInputStream body = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(data, FRAME_HEADER_LENGTH, data.length - FRAME_HEADER_LENGTH), inflater))) {
+            for (int index = 0; index < count; index++) {
+                final byte[] record = new byte[body.readInt()];
+                body.readFully(record);
+                records.add(record);
+            }
+        } finally {
+            inflater.end();
+        }
+        frameCounter.incrementEventCount(FrameStat.FRAMES_READ);
+        frameCounter.incrementEventCount(FrameStat.DECOMPRESS_NANOS, (int) (System.nanoTime() - start));
+        return records;
+    }
+
+    /**
+     * Decode the elements of an entry, a frame or a plain record.
+     *
+     * @param data
+     *            the raw bytes of an entry
+     * @return the elements, without the nulls
+     */
+    public List<E> elements(final byte[] data) {
+        final List<byte[]> records;
+        try {
+            records = records(data);
+        } catch (final IOException ioe) {
+            if (undecodableHandler != null) {
+                undecodableHandler.accept(data, ioe);
+            }
+            final List<E> elements = new ArrayList<E>(1);
+            if (dummyElement != null) {
+                elements.add(dummyElement);
+            }
+            return elements;
+        }
+        final List<E> elements = new ArrayList<E>(records.size());
+        for (final byte[] record : records) {
+            final E el = element(record);
+            if (el != null) {
+                elements.add(el);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Peek whole entries from the front until they have the max elements.
+     *
+     * @param maxElements
+     *            the max no. of elements, gone over by the last frame if needed
+     * @return the elements of each entry peeked, to dequeue as many entries
+     */
+    public List<List<E>> peekEntries(final int maxElements) {
+        final List<byte[]> entries = peekRecords(maxElements);
+        final List<List<E>> result = new ArrayList<List<E>>(entries.size());
+        for (final byte[] data : entries) {
+            result.add(elements(data));
+        }
+        return result;
+    }
+
+    /**
+     * Peek whole entries from the front until they have the max records, reading no entry past
+     * them.
+     *
+     * @param maxElements
+     *            the max no. of records, gone over by the last frame if needed
+     * @return the raw bytes of the entries
+     */
+    protected List<byte[]> peekRecords(final int maxElements) {
+        initIndexAccess();
+        final List<byte[]> entries = new ArrayList<byte[]>();
+        final long back = innerArray.getHeadIndex();
+        int records = 0;
+        for (long index = frontIndex.get(); index < back && records < maxElements; index++) {
+            final byte[] data = innerArray.get(index);
+            entries.add(data);
+            records += recordCount(data);
+        }
+        return entries;
+    }
+
+    /**
+     * Encode the element, with the record header unless turned off.
+     *
+     * @param element
+     *            the element
+     * @return the raw bytes
+     */
+    protected byte[] data(final E element) {
+        if (!recordHeader) {
+            return headerlessData(element);
+        }
+        final RecordCodec codec = element instanceof byte[] ? RecordCodec.BYTES
+                : element instanceof String ? RecordCodec.STRING : RecordCodec.SERIALIZED;
+        if (codec == RecordCodec.SERIALIZED) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+            writeRecordHeader(out, codec);
+            SerializationUtils.serialize((Serializable) element, out);
+            return out.toByteArray();
+        }
+        final byte[] body = codec == RecordCodec.BYTES ? (byte[]) element
+                : ((String) element).getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + RECORD_HEADER_LENGTH);
+        writeRecordHeader(out, codec);
+        out.write(body, 0, body.length);
+        return out.toByteArray();
+    }
+
+    private static void writeRecordHeader(final ByteArrayOutputStream out, final RecordCodec codec) {
+        out.write(RECORD_MAGIC);
+        out.write(RECORD_VERSION);
+        out.write(codec.ordinal() + 1);
+    }
+
+    /**
+     * Encode the element as per the entity type, or its own type if not set, as before the record
+     * header.
+     *
+     * @param element
+     *            the element
+     * @return the raw bytes
+     */
+    private byte[] headerlessData(final E element) {
+        final Class<?> type = entityType == null ? element.getClass() : entityType;
+        if (type.equals(byte[].class)) {
+            return (byte[]) element;
+        } else if (type.equals(String.class)) {
+            return ((String) element).getBytes();
+        } else {
+            return SerializationUtils.serialize((Serializable) element);
+        }
+    }
+
+    /**
+     * @param data
+     *            the raw bytes of a record
+     * @return the codec in the record header, null if headerless
+     */
+    public static RecordCodec recordCodec(final byte[] data) {
+        if (data == null || data.length < RECORD_HEADER_LENGTH || data[0] != RECORD_MAGIC
+                || data[1] != RECORD_VERSION || data[2] < 1 || data[2] > RecordCodec.values().length) {
             return null;
         }
+        return RecordCodec.values()[data[2] - 1];
+    }
+
+    /**
+     * Pop an element, the rest of a frame is kept in memory for the next pops.
+     *
+     * @return the element
+     */
+    public E pop() {
+        synchronized (popped) {
+            if (!popped.isEmpty()) {
+                return popped.poll();
+            }
+            final byte[] data = dequeue();
+            if (!isFrame(data)) {
+                return element(data);
+            }
+            popped.addAll(elements(data));
+            return popped.poll();
+        }
+    }
+
+    /**
+     * Decode a record, by its header, or as per the entity type if headerless.
+     *
+     * @param data
+     *            the raw bytes of a record
+     * @return the element, the dummy element if undecodable
+     */
+    public E element(final byte[] data) {
+        return element(data, true);
+    }
+
+    /**
+     * Decode a record, by its header, or as per the entity type if headerless.
+     *
+     * @param data
+     *            the raw bytes of a record
+     * @param handled
+     *            whether to pass it to the undecodable handler if undecodable
+     * @return the element, the dummy element if undecodable
+     */
+    @SuppressWarnings("unchecked")
+    public E element(final byte[] data, final boolean handled) {
+        if (data == null) {
+            return null;
+        }
+        final RecordCodec codec = recordCodec(data);
+        if (codec == null) {
+            return headerlessElement(data, handled);
+        }
+        switch (codec) {
+        case BYTES:
+            return (E) Arrays.copyOfRange(data, RECORD_HEADER_LENGTH, data.length);
+        case STRING:
+            return (E) new String(data, RECORD_HEADER_LENGTH, data.length - RECORD_HEADER_LENGTH,
+                    StandardCharsets.UTF_8);
+        default:
+            return deserialize(data, new ByteArrayInputStream(data, RECORD_HEADER_LENGTH,
+                    data.length - RECORD_HEADER_LENGTH), handled);
+        }
+    }
+
+    /**
+     * Decode a record written without the header. Without an entity type, a serialized object is
+     * told by the serialization stream magic, anything else is taken as a string.
+     *
+     * @param data
+     *            the raw bytes of a record
+     * @param handled
+     *            whether to pass it to the undecodable handler if undecodable
+     * @return the element, the dummy element if undecodable
+     */
+    @SuppressWarnings("unchecked")
+    private E headerlessElement(final byte[] data, final boolean handled) {
+        final Class<E> type = entityType;
+        if (type == null) {
+            final boolean serialized = data.length > 1 && data[0] == (byte) 0xAC && data[1] == (byte) 0xED;
+            return serialized ? deserialize(data, new ByteArrayInputStream(data), handled) : (E) new String(data);
+        } else if (type.equals(byte[].class)) {
+            return (E) data;
+        } else if (type.equals(String.class)) {
+            return (E) new String(data);
+        } else {
+            return deserialize(data, new ByteArrayInputStream(data), handled);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E deserialize(final byte[] data, final ByteArrayInputStream in, final boolean handled) {
+        try {
+            return (E) SerializationUtils.deserialize(in);
+        } catch (final Exception ex) {
+            if (handled && undecodableHandler != null) {
+                undecodableHandler.accept(data, ex);
+            }
+            return dummyElement;
+        }
     }
 
+    /**
+     * Drain whole entries until the max elements are drained.
+     *
+     * @param c
+     *            the collection to drain to
+     * @param maxElements
+     *            the max no. of elements, gone over by the last frame if needed
+     * @return the no. of entries dequeued
+     */
     public int drainTo(final Collection<? super E> c, final int maxElements) {
         if (c == null) {
             throw new NullPointerException();
@@ -107,16 +827,30 @@ public class BigQueue<E> extends com.bluejeans.bigqueue.BigQueue {
         if (c == this) {
             throw new IllegalArgumentException();
         }
-        final List<byte[]> elements = dequeueMulti(maxElements);
-        for (final byte[] data : elements) {
-            final E el = element(data);
-            if (el != null) {
-                c.add(el);
+        int records = 0;
+        int dequeued = 0;
+        // an entry at a time, a frame can have any no. of records
+        while (records < maxElements) {
+            final byte[] data = dequeue();
+            if (data == null) {
+                break;
             }
+            dequeued++;
+            records += recordCount(data);
+            c.addAll(elements(data));
         }
-        return elements.size();
+        return dequeued;
     }
 
+    /**
+     * Peek whole entries until the max elements are peeked.
+     *
+     * @param c
+     *            the collection to peek to
+     * @param maxElements
+     *            the max no. of elements, gone over by the last frame if needed
+     * @return the no. of entries peeked, to dequeue as many after
+     */
     public int peekTo(final Collection<? super E> c, final int maxElements) {
         if (c == null) {
             throw new NullPointerException();
@@ -124,14 +858,124 @@ public class BigQueue<E> extends com.bluejeans.bigqueue.BigQueue {
         if (c == this) {
             throw new IllegalArgumentException();
         }
-        final List<byte[]> elements = peekMulti(maxElements);
-        for (final byte[] data : elements) {
-            final E el = element(data);
-            if (el != null) {
-                c.add(el);
-            }
+        final List<List<E>> entries = peekEntries(maxElements);
+        for (final List<E> elements : entries) {
+            c.addAll(elements);
+        }
+        return entries.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#flush()
+     */
+    @Override
+    public void flush() {
+        flushFrame();
+        super.flush();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#close()
+     */
+    @Override
+    public void close() throws IOException {
+        flushFrame();
+        super.close();
+        synchronized (recordSizeBuffer) {
+            recordSizeBuffer.force();
         }
-        return elements.size();
+        recordSizeFile.close();
+    }
+
+    /**
+     * @param stat
+     *            the stat
+     * @return the value of the frame stat
+     */
+    public long getFrameStat(final FrameStat stat) {
+        return frameCounter.getValue(stat.name());
+    }
+
+    /**
+     * @return the compressed bytes percent of the raw bytes framed, 100 if nothing framed
+     */
+    public long getCompressionPercent() {
+        final long raw = getFrameStat(FrameStat.RAW_BYTES);
+        return raw == 0 ? 100 : getFrameStat(FrameStat.COMPRESSED_BYTES) * 100 / raw;
+    }
+
+    /**
+     * @return the frameCounter
+     */
+    public EnumCounter<FrameStat> getFrameCounter() {
+        return frameCounter;
+    }
+
+    /**
+     * @return the compression
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression
+     *            the compression of the frames, NONE to enqueue records as they are
+     */
+    public void setCompression(final Compression compression) {
+        synchronized (frameLock) {
+            flushFrame();
+            this.compression = compression;
+        }
+    }
+
+    /**
+     * @return the recordHeader
+     */
+    public boolean isRecordHeader() {
+        return recordHeader;
+    }
+
+    /**
+     * @param recordHeader
+     *            false to write the records without the header, for readers of the older format
+     */
+    public void setRecordHeader(final boolean recordHeader) {
+        this.recordHeader = recordHeader;
+    }
+
+    /**
+     * @return the frameRecords
+     */
+    public int getFrameRecords() {
+        return frameRecords;
+    }
+
+    /**
+     * @param frameRecords
+     *            the max records in a frame
+     */
+    public void setFrameRecords(final int frameRecords) {
+        this.frameRecords = frameRecords;
+    }
+
+    /**
+     * @return the frameBytes
+     */
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    /**
+     * @param frameBytes
+     *            the max raw bytes in a frame
+     */
+    public void setFrameBytes(final int frameBytes) {
+        this.frameBytes = frameBytes;
     }
 
     /**
@@ -149,6 +993,22 @@ public class BigQueue<E> extends com.bluejeans.bigqueue.BigQueue {
         this.entityType = entityType;
     }
 
+    /**
+     * @return the undecodableHandler
+     */
+    public BiConsumer<byte[], Exception> getUndecodableHandler() {
+        return undecodableHandler;
+    }
+
+    /**
+     * @param undecodableHandler
+     *            gets the raw bytes that could not be decoded, before the dummy element is
+     *            returned in place
+     */
+    public void setUndecodableHandler(final BiConsumer<byte[], Exception> undecodableHandler) {
+        this.undecodableHandler = undecodableHandler;
+    }
+
     /**
      * @return the dummyElement
      */
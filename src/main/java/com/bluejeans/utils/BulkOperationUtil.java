@@ -2,11 +2,23 @@ package com.bluejeans.utils;
 
 import static com.google.common.collect.Lists.newLinkedList;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -16,6 +28,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.bluejeans.bigqueue.BigArray;
+import com.bluejeans.utils.BigQueue.Compression;
+import com.bluejeans.utils.BigQueue.FrameStat;
+import com.bluejeans.utils.MetricRegistry.LabeledMetric;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Bulk operation utils for queuing elements and performing bulk operation on them at once, interval
@@ -43,6 +59,147 @@ public class BulkOperationUtil<E> {
          * item added to queue
          */
         QUEUE_ADD,
+
+        /**
+         * item moved to the dead letter queue
+         */
+        DEAD_LETTER,
+
+        /**
+         * undecodable bytes moved to the dead letter queue
+         */
+        DEAD_LETTER_UNDECODABLE,
+
+        /**
+         * item replayed from the dead letter queue
+         */
+        DEAD_LETTER_REPLAY,
+    }
+
+    /**
+     * An element in the dead letter queue with the failure details, the raw bytes if it could not
+     * be decoded.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class DeadLetter implements Serializable {
+
+        private static final long serialVersionUID = 4671232587937061554L;
+
+        private final Serializable element;
+        private final byte[] data;
+        private final String queueName;
+        private final String reason;
+        private final long failedAt;
+
+        /**
+         * @param element
+         *            the element, null if undecodable
+         * @param data
+         *            the raw bytes, null if decoded
+         * @param queueName
+         *            the queue name
+         * @param reason
+         *            the failure reason
+         */
+        public DeadLetter(final Serializable element, final byte[] data, final String queueName,
+                final String reason) {
+            this.element = element;
+            this.data = data;
+            this.queueName = queueName;
+            this.reason = reason;
+            failedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the element
+         */
+        public Serializable getElement() {
+            return element;
+        }
+
+        /**
+         * @return the data
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return the queueName
+         */
+        public String getQueueName() {
+            return queueName;
+        }
+
+        /**
+         * @return the reason
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * @return the failedAt
+         */
+        public long getFailedAt() {
+            return failedAt;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "DeadLetter [queueName=" + queueName + ", failedAt=" + failedAt + ", reason=" + reason
+                    + (element == null ? ", bytes=" + data.length : ", element=" + element) + "]";
+        }
+    }
+
+    /**
+     * Thrown by the bulk operation when only some of the elements failed, or when the failure is
+     * permanent. A permanent failure is bisected to isolate the offending elements, which then go to
+     * the dead letter queue, and only the transiently failed elements are retried.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class BulkFailureException extends RuntimeException {
+
+        private static final long serialVersionUID = -2365384409623165315L;
+
+        private final Collection<?> failed;
+
+        private final boolean permanent;
+
+        /**
+         * @param message
+         *            the message
+         * @param failed
+         *            the failed elements, null if all
+         * @param permanent
+         *            true if retrying the same elements would fail again
+         */
+        public BulkFailureException(final String message, final Collection<?> failed, final boolean permanent) {
+            super(message);
+            this.failed = failed;
+            this.permanent = permanent;
+        }
+
+        /**
+         * @return the failed elements, null if all
+         */
+        public Collection<?> getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the permanent
+         */
+        public boolean isPermanent() {
+            return permanent;
+        }
     }
 
     private static Logger logger = LoggerFactory.getLogger(BulkOperationUtil.class);
@@ -51,6 +208,8 @@ public class BulkOperationUtil<E> {
 
     private BigQueue<E> bigQueue;
 
+    private BigQueue<DeadLetter> deadLetterQueue;
+
     private boolean fileBased;
 
     private boolean peekEnabled;
@@ -65,6 +224,10 @@ public class BulkOperationUtil<E> {
 
     private final Timer bigQueueTimer = new Timer();
 
+    private final int pageSize;
+
+    private Timer pagePrepareTimer;
+
     private final long bulkPollInterval;
 
     private final BulkOperation<E> bulkOperation;
@@ -75,6 +238,30 @@ public class BulkOperationUtil<E> {
 
     private int minBatchSize = 100;
 
+    private Weigher<E> weigher;
+
+    private long maxBatchBytes = Long.MAX_VALUE;
+
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    private final Object drainLock = new Object();
+
+    private int catchUpConsumers = 1;
+
+    private long catchUpThreshold = 100000;
+
+    private int catchUpRetryCount = 3;
+
+    private ThreadPoolExecutor catchUpExecutor;
+
+    private final Map<Long, long[]> caughtUpRanges = new HashMap<Long, long[]>();
+
+    private final Map<Long, Integer> catchUpFailures = new HashMap<Long, Integer>();
+
+    private QueueCursor cursor;
+
+    private final Map<Long, Integer> cursorRedeliveries = new ConcurrentHashMap<Long, Integer>();
+
     private final int bulkExecutorSize;
 
     private final int bulkExecutorQueueCapacity;
@@ -92,6 +279,16 @@ public class BulkOperationUtil<E> {
 
     private final EnumCounter<BulkStatus> bulkStatusCounter = new EnumCounter<BulkStatus>(BulkStatus.class);
 
+    private final String metricQueueName;
+
+    private static final AtomicLong memoryQueueCount = new AtomicLong();
+
+    private String metricLabel;
+
+    private MetricRegistry metricRegistry;
+
+    private LabeledMetric statusMetric, queueSizeMetric, deadLetterSizeMetric, compressionMetric;
+
     private boolean stopped = false;
 
     private boolean parallel = false;
@@ -106,8 +303,9 @@ public class BulkOperationUtil<E> {
 
     private BulkOperationUtil(final int bulkPollIntervalSecs, final int capacity, final String queueDir,
             final String queueName, final long bigQueueTimerInterval, final BulkOperation<E> bulkOperation,
-            final int batchSize, final int bulkExecutorSize, final int bulkExecutorQueueCapacity) {
+            final int batchSize, final int bulkExecutorSize, final int bulkExecutorQueueCapacity, final int pageSize) {
         this.bulkPollInterval = bulkPollIntervalSecs * 1000;
+        this.pageSize = pageSize;
         this.queue = new LinkedBlockingQueue<E>(capacity);
         this.bulkOperation = bulkOperation;
         this.batchSize = batchSize;
@@ -121,12 +319,26 @@ public class BulkOperationUtil<E> {
         this.queueDir = queueDir;
         this.queueName = queueName;
         this.bigQueueTimerInterval = bigQueueTimerInterval;
+        metricQueueName = queueName == null ? "memory" : queueName;
+        metricLabel = queueName == null ? "memory-" + memoryQueueCount.incrementAndGet() : queueName;
+        setMetricRegistry(MetricRegistry.getInstance());
         if (queueDir != null) {
             try {
-                bigQueue = new BigQueue<E>(this.queueDir, this.queueName, BigArray.MINIMUM_DATA_PAGE_SIZE);
+                final String[] queueDirs = this.queueDir.split(",");
+                if (queueDirs.length > 1) {
+                    bigQueue = new ShardedBigQueue<E>(queueDirs, this.queueName, pageSize);
+                } else {
+                    bigQueue = new BigQueue<E>(this.queueDir, this.queueName, pageSize);
+                }
+                deadLetterQueue = new BigQueue<DeadLetter>(queueDirs[0], this.queueName + "-dead",
+                        BigArray.MINIMUM_DATA_PAGE_SIZE, DeadLetter.class);
+                bigQueue.setUndecodableHandler(this::deadLetterBytes);
                 bigQueueTimer.scheduleAtFixedRate(new TimerTask() {
                     @Override
                     public void run() {
+                        if (cursor != null) {
+                            cursor.commitFront();
+                        }
                         bigQueue.gc();
                     }
                 }, 0, bigQueueTimerInterval);
@@ -144,7 +356,7 @@ public class BulkOperationUtil<E> {
      * @param capacity
      *            the queue capacity
      * @param queueDir
-     *            the queue directory
+     *            the queue directory, comma separated dirs to shard the queue across
      * @param queueName
      *            the queue name
      * @param bigQueueTimerInterval
@@ -166,9 +378,46 @@ public class BulkOperationUtil<E> {
     public static <E> BulkOperationUtil<E> create(final int bulkPollInterval, final int capacity, final String queueDir,
             final String queueName, final long bigQueueTimerInterval, final BulkOperation<E> bulkOperation,
             final int batchSize, final int bulkExecutorSize, final int bulkExecutorQueueCapacity, final boolean start) {
+        return create(bulkPollInterval, capacity, queueDir, queueName, bigQueueTimerInterval, bulkOperation, batchSize,
+                bulkExecutorSize, bulkExecutorQueueCapacity, BigArray.MINIMUM_DATA_PAGE_SIZE, start);
+    }
+
+    /**
+     * Create based on parameters
+     *
+     * @param bulkPollInterval
+     *            the poll interval
+     * @param capacity
+     *            the queue capacity
+     * @param queueDir
+     *            the queue directory, comma separated dirs to shard the queue across
+     * @param queueName
+     *            the queue name
+     * @param bigQueueTimerInterval
+     *            the bigQueueTimerInterval
+     * @param bulkOperation
+     *            the bulk operation itself
+     * @param batchSize
+     *            the drain batch size
+     * @param bulkExecutorSize
+     *            the bulk executor size
+     * @param bulkExecutorQueueCapacity
+     *            the bulkExecutorQueueCapacity
+     * @param pageSize
+     *            the big queue data page size, keep it the same for an existing queue
+     * @param <E>
+     *            the entity type
+     * @param start
+     *            start on create?
+     * @return the created utility
+     */
+    public static <E> BulkOperationUtil<E> create(final int bulkPollInterval, final int capacity, final String queueDir,
+            final String queueName, final long bigQueueTimerInterval, final BulkOperation<E> bulkOperation,
+            final int batchSize, final int bulkExecutorSize, final int bulkExecutorQueueCapacity, final int pageSize,
+            final boolean start) {
         final BulkOperationUtil<E> bulkOperationUtil = new BulkOperationUtil<E>(bulkPollInterval, capacity, queueDir,
                 queueName, bigQueueTimerInterval, bulkOperation, batchSize, bulkExecutorSize,
-                bulkExecutorQueueCapacity);
+                bulkExecutorQueueCapacity, pageSize);
         if (start) {
             bulkOperationUtil.doer.start();
         }
@@ -183,7 +432,7 @@ public class BulkOperationUtil<E> {
      * @param capacity
      *            the queue capacity
      * @param queueDir
-     *            the queue directory
+     *            the queue directory, comma separated dirs to shard the queue across
      * @param queueName
      *            the queue name
      * @param bigQueueTimerInterval
@@ -269,6 +518,221 @@ public class BulkOperationUtil<E> {
         void doBulk(Collection<E> c);
     }
 
+    /**
+     * Weighs the elements to bound the batches by total bytes
+     *
+     * @author Dinesh Ilindra
+     * @param <E>
+     *            the entity type
+     */
+    public interface Weigher<E> {
+
+        /**
+         * The weight of the element in bytes
+         *
+         * @param e
+         *            the element
+         * @return the bytes
+         */
+        long weigh(E e);
+    }
+
+    /**
+     * One batch taken from the queues
+     */
+    private class Batch {
+        private final Collection<E> elements = newLinkedList();
+        private long bytes;
+        private int peeked;
+        private long[] cursorRange;
+        private final Map<E, List<Long>> indexes = new HashMap<E, List<Long>>();
+
+        /**
+         * Add the element if it fits the byte budget, the first one always fits.
+         *
+         * @param e
+         *            the element
+         * @return the weight if added, -1 if not
+         */
+        private long offer(final E e) {
+            final long weight = weigher.weigh(e);
+            if (!elements.isEmpty() && bytes + weight > maxBatchBytes) {
+                return -1;
+            }
+            elements.add(e);
+            bytes += weight;
+            return weight;
+        }
+
+        /**
+         * Add the elements if they all fit the byte budget, the first ones always fit.
+         *
+         * @param entry
+         *            the elements
+         * @return the weight if added, -1 if not
+         */
+        private long offerAll(final List<E> entry) {
+            long weight = 0;
+            for (final E e : entry) {
+                weight += weigher.weigh(e);
+            }
+            if (!elements.isEmpty() && bytes + weight > maxBatchBytes) {
+                return -1;
+            }
+            elements.addAll(entry);
+            bytes += weight;
+            return weight;
+        }
+
+        /**
+         * @return true if no more can be added
+         */
+        private boolean isFull() {
+            return elements.size() >= batchSize || bytes >= maxBatchBytes;
+        }
+
+        /**
+         * Take from the memory queue.
+         */
+        private void takeFromQueue() {
+            if (weigher == null) {
+                queue.drainTo(elements, batchSize - elements.size());
+                return;
+            }
+            E e;
+            while (!isFull() && (e = queue.peek()) != null) {
+                final long weight = offer(e);
+                if (weight < 0) {
+                    break;
+                }
+                queue.poll();
+                queuedBytes.addAndGet(-weight);
+            }
+        }
+
+        /**
+         * Take from the big queue, dequeuing them unless peek enabled.
+         */
+        private void takeFromBigQueue() {
+            if (cursor != null) {
+                takeFromCursor();
+                return;
+            }
+            if (weigher == null) {
+                if (peekEnabled) {
+                    peeked = bigQueue.peekTo(elements, batchSize - elements.size());
+                } else {
+                    bigQueue.drainTo(elements, batchSize - elements.size());
+                }
+                return;
+            }
+            int taken = 0;
+            for (final List<E> entry : bigQueue.peekEntries(batchSize - elements.size())) {
+                // a frame is taken whole or not at all
+                if (isFull() || offerAll(entry) < 0) {
+                    break;
+                }
+                taken++;
+            }
+            if (peekEnabled) {
+                peeked = taken;
+            } else {
+                bigQueue.dequeueMulti(taken);
+            }
+        }
+
+        /**
+         * Claim a range from the cursor, releasing the tail not fitting in the batch.
+         */
+        private void takeFromCursor() {
+            cursorRange = cursor.claim(batchSize - elements.size());
+            if (cursorRange == null) {
+                return;
+            }
+            long index = cursorRange[0];
+            for (; index < cursorRange[1]; index++) {
+                final List<E> entry = bigQueue.elements(bigQueue.get(index));
+                // nothing to operate on for the undecodable ones, dead lettered already
+                entry.removeIf(e -> e == dummyElement);
+                if (weigher == null) {
+                    elements.addAll(entry);
+                } else if (isFull() || offerAll(entry) < 0) {
+                    break;
+                }
+                for (final E e : entry) {
+                    indexes.computeIfAbsent(e, k -> new ArrayList<Long>(1)).add(index);
+                }
+            }
+            if (index < cursorRange[1]) {
+                cursor.release(index, cursorRange[1]);
+                cursorRange[1] = index;
+            }
+        }
+
+        /**
+         * Complete the claimed range, acknowledging all but the failed elements. Failed elements are
+         * matched by equality, so all the indexes of an equal element are released to be safe. An
+         * index redelivered more than the bulk retry count times has its failed elements moved to
+         * the dead letter queue and is acknowledged.
+         *
+         * @param failed
+         *            the failed elements
+         * @return the failed elements not from the cursor
+         */
+        private Collection<E> completeCursorRange(final Collection<E> failed) {
+            final Map<Long, List<E>> failedByIndex = new HashMap<Long, List<E>>();
+            final List<E> others = new ArrayList<E>();
+            for (final E e : failed) {
+                final List<Long> elementIndexes = indexes.get(e);
+                if (elementIndexes == null) {
+                    others.add(e);
+                } else {
+                    for (final Long index : elementIndexes) {
+                        failedByIndex.computeIfAbsent(index, k -> new ArrayList<E>(1)).add(e);
+                    }
+                }
+            }
+            final Set<Long> failedIndexes = new HashSet<Long>();
+            for (final Map.Entry<Long, List<E>> entry : failedByIndex.entrySet()) {
+                if (cursorRedeliveries.merge(entry.getKey(), 1, Integer::sum) <= bulkRetryCount) {
+                    failedIndexes.add(entry.getKey());
+                    continue;
+                }
+                final RuntimeException cause = new RuntimeException("redeliveries exhausted");
+                for (final E e : entry.getValue()) {
+                    deadLetter(e, cause);
+                }
+            }
+            cursorRedeliveries.keySet().removeIf(
+                    index -> index >= cursorRange[0] && index < cursorRange[1] && !failedIndexes.contains(index));
+            cursor.complete(cursorRange[0], cursorRange[1], failedIndexes);
+            return others;
+        }
+
+        /**
+         * Fill from the queues in the configured order.
+         */
+        private void fill() {
+            if (bigQueue == null) {
+                takeFromQueue();
+            } else if (fileBased) {
+                if (queue.size() > 0) {
+                    takeFromQueue();
+                }
+                if (bigQueue.size() > 0 && !isFull()) {
+                    takeFromBigQueue();
+                }
+            } else {
+                if (bigQueue.size() > 0) {
+                    takeFromBigQueue();
+                }
+                if (queue.size() > 0 && !isFull()) {
+                    takeFromQueue();
+                }
+            }
+        }
+    }
+
     /**
      * The facilitator for the bulkiness
      *
@@ -299,13 +763,19 @@ public class BulkOperationUtil<E> {
                         logger.warn("DO NOT KILL, WILL STOP AFTER PROCESSING " + queue.size() + " MESSAGES");
                     }
                 }
-                if (parallel) {
-                    bulkExecutor.execute(bulkRunnable);
-                } else {
-                    doBulk();
-                }
                 try {
-                    if (getQueueSize() < minBatchSize && !stopped) {
+                    if (isCatchUpNeeded()) {
+                        // let the in flight bulk runs finish before reading the big queue by index
+                        while (bulkExecutor.getActiveCount() > 0 || !bulkExecutor.getQueue().isEmpty()) {
+                            sleep(10);
+                        }
+                        catchUp();
+                    } else if (parallel) {
+                        bulkExecutor.execute(bulkRunnable);
+                    } else {
+                        doBulk();
+                    }
+                    if (getQueueSize() < minBatchSize && queuedBytes.get() < maxBatchBytes && !stopped) {
                         sleep(bulkPollInterval);
                     }
                 } catch (final InterruptedException e) {
@@ -316,98 +786,395 @@ public class BulkOperationUtil<E> {
         }
     };
 
-    private boolean bulkInternal(final Collection<E> coll) {
-        boolean success = false;
-        if (bulkRetryEnabled) {
-            int retryCount = 0;
-            do {
-                try {
-                    bulkOperation.doBulk(coll);
-                    success = true;
-                } catch (final NullPointerException npe) {
-                    success = true;
-                    bulkStatusCounter.incrementEventCount(BulkStatus.INTERNAL_ERROR);
-                    logger.error("Internal Error", npe);
-                } catch (final RuntimeException ex) {
-                    bulkStatusCounter.incrementEventCount(BulkStatus.DO_BULK_ERROR);
-                    logger.error("Error in bulk operation {}", ex);
-                }
-                retryCount++;
-            } while (!success && retryCount <= bulkRetryCount);
+    private void countStatus(final BulkStatus status) {
+        bulkStatusCounter.incrementEventCount(status);
+        statusMetric.increment(metricLabel, status.name());
+    }
+
+    /**
+     * Run the bulk operation with retries.
+     *
+     * @param coll
+     *            the elements
+     * @return the elements still failing after the retries
+     */
+    private Collection<E> bulkInternal(final Collection<E> coll) {
+        Collection<E> pending = coll;
+        int retryCount = 0;
+        while (true) {
+            pending = attempt(pending);
+            if (pending.isEmpty()) {
+                return pending;
+            }
+            retryCount++;
+            if (!bulkRetryEnabled || retryCount > bulkRetryCount) {
+                return pending;
+            }
+        }
+    }
+
+    /**
+     * Attempt the bulk operation once, bisecting on permanent failure.
+     *
+     * @param coll
+     *            the elements
+     * @return the elements failed transiently, to be retried
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<E> attempt(final Collection<E> coll) {
+        try {
+            bulkOperation.doBulk(coll);
+            return Collections.emptyList();
+        } catch (final NullPointerException npe) {
+            countStatus(BulkStatus.INTERNAL_ERROR);
+            logger.error("Internal Error", npe);
+            return Collections.emptyList();
+        } catch (final BulkFailureException bfe) {
+            countStatus(BulkStatus.DO_BULK_ERROR);
+            final Collection<E> failed = bfe.getFailed() == null ? coll : (Collection<E>) bfe.getFailed();
+            if (!bfe.isPermanent()) {
+                logger.error("Error in bulk operation for {} of {} elements", failed.size(), coll.size());
+                return failed;
+            }
+            if (failed.size() == 1) {
+                deadLetter(failed.iterator().next(), bfe);
+                return Collections.emptyList();
+            }
+            final List<E> failedList = new ArrayList<E>(failed);
+            final Collection<E> retry = newLinkedList();
+            retry.addAll(attempt(failedList.subList(0, failedList.size() / 2)));
+            retry.addAll(attempt(failedList.subList(failedList.size() / 2, failedList.size())));
+            return retry;
+        } catch (final RuntimeException ex) {
+            countStatus(BulkStatus.DO_BULK_ERROR);
+            logger.error("Error in bulk operation {}", ex);
+            return coll;
+        }
+    }
+
+    /**
+     * Move the element to the dead letter queue, only logged if there is none.
+     *
+     * @param e
+     *            the element
+     * @param cause
+     *            the failure
+     */
+    private void deadLetter(final E e, final Exception cause) {
+        countStatus(BulkStatus.DEAD_LETTER);
+        if (deadLetterQueue != null) {
+            deadLetterQueue.push(new DeadLetter(e instanceof Serializable ? (Serializable) e : null,
+                    e instanceof Serializable ? null : String.valueOf(e).getBytes(), metricQueueName,
+                    String.valueOf(cause)));
+            logger.warn("Moved to dead letter queue - " + e, cause);
         } else {
-            try {
-                bulkOperation.doBulk(coll);
-                success = true;
-            } catch (final RuntimeException ex) {
-                bulkStatusCounter.incrementEventCount(BulkStatus.DO_BULK_ERROR);
-                logger.error("Error in bulk operation {}", ex);
+            logger.error("Dropped as failed permanently - " + e, cause);
+        }
+    }
+
+    /**
+     * Move the undecodable bytes to the dead letter queue, only logged if there is none.
+     *
+     * @param data
+     *            the raw bytes
+     * @param cause
+     *            the failure
+     */
+    private void deadLetterBytes(final byte[] data, final Exception cause) {
+        countStatus(BulkStatus.DEAD_LETTER_UNDECODABLE);
+        if (deadLetterQueue != null) {
+            deadLetterQueue.push(new DeadLetter(null, data, metricQueueName, String.valueOf(cause)));
+            logger.warn("Moved " + data.length + " undecodable bytes to dead letter queue", cause);
+        } else {
+            logger.error("Dropped " + data.length + " undecodable bytes", cause);
+        }
+    }
+
+    /**
+     * Re-inject the dead letters into the queue, in batches with a pause in between. The ones which
+     * still can not be decoded are put back at the end of the dead letter queue, and the replay
+     * stops, putting back the ones left, once the queue does not take any more.
+     *
+     * @param maxCount
+     *            the max no. of dead letters to replay
+     * @param replayBatchSize
+     *            the no. of dead letters per batch
+     * @param pauseMillis
+     *            the pause between batches
+     * @return the no. replayed
+     * @throws InterruptedException
+     *             if interrupted during the pause
+     */
+    @SuppressWarnings("unchecked")
+    public int replayDeadLetters(final int maxCount, final int replayBatchSize, final long pauseMillis)
+            throws InterruptedException {
+        if (deadLetterQueue == null) {
+            return 0;
+        }
+        final long total = Math.min(maxCount, deadLetterQueue.size());
+        int replayed = 0;
+        for (long done = 0; done < total;) {
+            final List<DeadLetter> deadLetters = new ArrayList<DeadLetter>();
+            deadLetterQueue.drainTo(deadLetters, (int) Math.min(replayBatchSize, total - done));
+            if (deadLetters.isEmpty()) {
+                break;
+            }
+            done += deadLetters.size();
+            boolean full = false;
+            for (final DeadLetter deadLetter : deadLetters) {
+                E e = full ? null : (E) deadLetter.getElement();
+                if (e == null && !full && bigQueue != null) {
+                    // still undecodable, pushed back below rather than dead lettered again
+                    final E decoded = bigQueue.element(deadLetter.getData(), false);
+                    e = decoded == dummyElement ? null : decoded;
+                }
+                if (e == null) {
+                    deadLetterQueue.push(deadLetter);
+                } else if (add(e)) {
+                    countStatus(BulkStatus.DEAD_LETTER_REPLAY);
+                    replayed++;
+                } else {
+                    deadLetterQueue.push(deadLetter);
+                    full = true;
+                }
+            }
+            if (full) {
+                break;
+            }
+            if (done < total) {
+                Thread.sleep(pauseMillis);
             }
         }
-        return success;
+        return replayed;
     }
 
     /**
      * Do the bulk operation.
      */
     public void doBulk() {
-        final Collection<E> coll = newLinkedList();
-        if (bigQueue == null) {
-            queue.drainTo(coll, batchSize);
-            if (!coll.isEmpty()) {
-                bulkInternal(coll);
+        if (bigQueue != null && bigQueue.getCompression() != Compression.NONE) {
+            bigQueue.flushFrame();
+            for (final FrameStat stat : FrameStat.values()) {
+                compressionMetric.update(bigQueue.getFrameStat(stat), metricLabel, stat.name());
             }
-        } else if (peekEnabled) {
-            int peeked = 0;
-            if (fileBased) {
-                if (queue.size() > 0) {
-                    queue.drainTo(coll, batchSize);
-                }
-                if (bigQueue.size() > 0) {
-                    peeked = bigQueue.peekTo(coll, batchSize - coll.size());
-                }
-            } else {
-                if (bigQueue.size() > 0) {
-                    peeked = bigQueue.peekTo(coll, batchSize);
+            compressionMetric.update(bigQueue.getCompressionPercent(), metricLabel, "PERCENT");
+        }
+        queueSizeMetric.update(getQueueSize(), metricLabel);
+        final Batch batch = new Batch();
+        if (weigher == null && catchUpConsumers <= 1) {
+            batch.fill();
+        } else {
+            synchronized (drainLock) {
+                batch.fill();
+            }
+        }
+        if (deadLetterQueue != null) {
+            deadLetterSizeMetric.update(deadLetterQueue.size(), metricLabel);
+        }
+        if (batch.cursorRange != null && batch.elements.isEmpty()) {
+            batch.completeCursorRange(batch.elements);
+        }
+        if (!batch.elements.isEmpty()) {
+            Collection<E> failed = bulkInternal(batch.elements);
+            if (batch.cursorRange != null) {
+                failed = batch.completeCursorRange(failed);
+            }
+            if (failed.isEmpty()) {
+                if (batch.peeked > 0) {
+                    bigQueue.dequeueMulti(batch.peeked);
                 }
-                if (queue.size() > 0) {
-                    queue.drainTo(coll, batchSize - coll.size());
+            } else if (batch.peeked == 0) {
+                // drained already, park them instead of dropping
+                final RuntimeException cause = new RuntimeException("retries exhausted");
+                for (final E e : failed) {
+                    deadLetter(e, cause);
                 }
             }
-            if (!coll.isEmpty()) {
-                if (bulkInternal(coll)) {
-                    bigQueue.dequeueMulti(peeked);
+        }
+    }
+
+    /**
+     * @return true if catch up consumers are set and the big queue backlog is over the threshold,
+     *         until stopped
+     */
+    public boolean isCatchUpNeeded() {
+        return catchUpConsumers > 1 && !stopped && cursor == null && bigQueue != null
+                && !(bigQueue instanceof ShardedBigQueue) && bigQueue.recordSize() >= catchUpThreshold;
+    }
+
+    /**
+     * Drain the big queue backlog with the catch up consumers until it is below the threshold. Each
+     * round reads a window from the front by index, split into ranges of batchSize records which the
+     * consumers decode and operate on independently. The front is moved only past the leading ranges that
+     * were done, so a crash or failure re-sends rather than skips. The ranges done beyond a failed
+     * one are remembered and skipped by the next rounds, and a range failing more than the catch up
+     * retry count rounds is moved to the dead letter queue.
+     *
+     * @return the no. of records committed
+     */
+    public long catchUp() {
+        long committed = 0;
+        synchronized (drainLock) {
+            while (isCatchUpNeeded()) {
+                final long round = catchUpRound();
+                if (round == 0) {
+                    break;
                 }
+                committed += round;
             }
-        } else {
-            if (fileBased) {
-                if (queue.size() > 0) {
-                    queue.drainTo(coll, batchSize);
-                }
-                if (bigQueue.size() > 0) {
-                    bigQueue.drainTo(coll, batchSize - coll.size());
-                }
-            } else {
-                if (bigQueue.size() > 0) {
-                    bigQueue.drainTo(coll, batchSize);
+        }
+        logger.info("Caught up {} elements of {}", committed, metricQueueName);
+        return committed;
+    }
+
+    /**
+     * One window of the catch up. The entries are read here and the ranges cut by their records, the
+     * consumers only decode and operate on them.
+     *
+     * @return the no. of records committed
+     */
+    private long catchUpRound() {
+        final long front = bigQueue.getFrontIndex();
+        final long back = bigQueue.getBackIndex();
+        final int maxRanges = catchUpConsumers * 4;
+        final List<long[]> bounds = new ArrayList<long[]>();
+        final List<Future<Boolean>> ranges = new ArrayList<Future<Boolean>>();
+        int submitted = 0;
+        for (long start = front; start < back && submitted < maxRanges;) {
+            final long from = start;
+            final long[] done = caughtUpRanges.get(from);
+            if (done != null) {
+                bounds.add(new long[] { from, done[0], done[1] });
+                ranges.add(null);
+                start = done[0];
+                continue;
+            }
+            final List<byte[]> entries = new ArrayList<byte[]>();
+            long records = 0;
+            for (; start < back && records < batchSize; start++) {
+                final byte[] data = bigQueue.get(start);
+                records += BigQueue.recordCount(data);
+                entries.add(data);
+            }
+            bounds.add(new long[] { from, start, records });
+            ranges.add(catchUpExecutor().submit(() -> consumeRange(entries)));
+            submitted++;
+        }
+        boolean contiguous = true;
+        long committedTo = front;
+        long committedRecords = 0;
+        for (int index = 0; index < ranges.size(); index++) {
+            final long[] range = bounds.get(index);
+            boolean done = ranges.get(index) == null;
+            if (!done) {
+                try {
+                    done = ranges.get(index).get();
+                } catch (final ExecutionException ee) {
+                    done = failRange(range[0], range[1], ee.getCause());
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
                 }
-                if (queue.size() > 0) {
-                    queue.drainTo(coll, batchSize - coll.size());
+            }
+            if (done) {
+                caughtUpRanges.put(range[0], new long[] { range[1], range[2] });
+            }
+            contiguous &= done;
+            if (contiguous) {
+                committedTo = range[1];
+                committedRecords += range[2];
+            }
+        }
+        bigQueue.commit(committedTo);
+        final long committed = committedTo;
+        caughtUpRanges.keySet().removeIf(from -> from < committed);
+        catchUpFailures.keySet().removeIf(from -> from < committed);
+        return committedRecords;
+    }
+
+    /**
+     * Count the failure of the catch up range, moving its elements to the dead letter queue once
+     * failed more than the catch up retry count.
+     *
+     * @param from
+     *            the from index, inclusive
+     * @param to
+     *            the to index, exclusive
+     * @param cause
+     *            the failure
+     * @return true if given up on the range
+     */
+    private boolean failRange(final long from, final long to, final Throwable cause) {
+        countStatus(BulkStatus.INTERNAL_ERROR);
+        logger.error("Error in catch up range " + from + " - " + to, cause);
+        final int failures = catchUpFailures.merge(from, 1, Integer::sum);
+        if (failures <= catchUpRetryCount) {
+            return false;
+        }
+        final Exception deadCause = cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+        for (long index = from; index < to; index++) {
+            final byte[] data = bigQueue.get(index);
+            try {
+                for (final E e : bigQueue.elements(data)) {
+                    if (e != dummyElement) {
+                        deadLetter(e, deadCause);
+                    }
                 }
+            } catch (final RuntimeException re) {
+                deadLetterBytes(data, deadCause);
             }
-            if (!coll.isEmpty()) {
-                bulkInternal(coll);
+        }
+        return true;
+    }
+
+    /**
+     * Decode and operate on the elements of the entries of a range, the ones still failing after
+     * the retries are moved to the dead letter queue as doBulk does.
+     *
+     * @param entries
+     *            the raw entries of the range
+     * @return true if done
+     */
+    private boolean consumeRange(final List<byte[]> entries) {
+        final Collection<E> coll = newLinkedList();
+        for (final byte[] data : entries) {
+            coll.addAll(bigQueue.elements(data));
+        }
+        coll.removeIf(e -> e == dummyElement);
+        if (!coll.isEmpty()) {
+            final Collection<E> failed = bulkInternal(coll);
+            if (!failed.isEmpty()) {
+                final RuntimeException cause = new RuntimeException("retries exhausted");
+                for (final E e : failed) {
+                    deadLetter(e, cause);
+                }
             }
         }
+        return true;
     }
 
     /**
-     * Get the queue size
+     * @return the catch up executor, created on first use
+     */
+    private synchronized ThreadPoolExecutor catchUpExecutor() {
+        if (catchUpExecutor == null) {
+            catchUpExecutor = new ThreadPoolExecutor(catchUpConsumers, catchUpConsumers, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("bulk-catch-up-" + metricQueueName + "-%d").build());
+            catchUpExecutor.allowCoreThreadTimeOut(true);
+        }
+        return catchUpExecutor;
+    }
+
+    /**
+     * Get the queue size, in records for the big queue whether framed or not
      *
      * @return the queue size
      */
     public long getQueueSize() {
-        if (fileBased && bigQueue != null) {
-            return bigQueue.size();
+        if (fileBased && cursor != null) {
+            return cursor.getUnclaimed();
+        } else if (fileBased && bigQueue != null) {
+            return bigQueue.recordSize();
         } else {
             return queue.size();
         }
@@ -418,11 +1185,13 @@ public class BulkOperationUtil<E> {
      *
      * @param e
      *            the element to add
+     * @return false if the queue did not take it
      */
-    public void add(final E e) {
+    public boolean add(final E e) {
         if (fileBased && bigQueue != null) {
             bigQueue.push(e);
-            bulkStatusCounter.incrementEventCount(BulkStatus.QUEUE_ADD);
+            countStatus(BulkStatus.QUEUE_ADD);
+            return true;
         } else {
             boolean inserted = false;
             if (waitEnabled) {
@@ -436,11 +1205,15 @@ public class BulkOperationUtil<E> {
                 inserted = queue.offer(e);
             }
             if (inserted) {
-                bulkStatusCounter.incrementEventCount(BulkStatus.QUEUE_ADD);
+                if (weigher != null) {
+                    queuedBytes.addAndGet(weigher.weigh(e));
+                }
+                countStatus(BulkStatus.QUEUE_ADD);
             } else {
                 queueAddFailCount.incrementAndGet();
                 logger.error("Failed to insert into queue", e);
             }
+            return inserted;
         }
     }
 
@@ -458,6 +1231,16 @@ public class BulkOperationUtil<E> {
         stopped = true;
         if (bigQueue != null) {
             bigQueueTimer.cancel();
+            if (pagePrepareTimer != null) {
+                pagePrepareTimer.cancel();
+            }
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (final IOException ioe) {
+                    logger.warn("Problem closing queue cursor", ioe);
+                }
+            }
             bigQueue.gc();
             try {
                 bigQueue.close();
@@ -465,6 +1248,13 @@ public class BulkOperationUtil<E> {
                 logger.warn("Problem closing big queue", ioe);
             }
         }
+        if (deadLetterQueue != null) {
+            try {
+                deadLetterQueue.close();
+            } catch (final IOException ioe) {
+                logger.warn("Problem closing dead letter queue", ioe);
+            }
+        }
     }
 
     /**
@@ -481,6 +1271,21 @@ public class BulkOperationUtil<E> {
         return bigQueue;
     }
 
+    /**
+     * @return the deadLetterQueue
+     */
+    public BigQueue<DeadLetter> getDeadLetterQueue() {
+        return deadLetterQueue;
+    }
+
+    /**
+     * @param deadLetterQueue
+     *            the deadLetterQueue to set
+     */
+    public void setDeadLetterQueue(final BigQueue<DeadLetter> deadLetterQueue) {
+        this.deadLetterQueue = deadLetterQueue;
+    }
+
     /**
      * @return the fileBased
      */
@@ -662,6 +1467,156 @@ public class BulkOperationUtil<E> {
         this.minBatchSize = minBatchSize;
     }
 
+    /**
+     * @return the weigher
+     */
+    public Weigher<E> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * Bound the batches by total bytes as per the weigher too, set before adding elements.
+     *
+     * @param weigher
+     *            the weigher to set
+     * @param maxBatchBytes
+     *            the max bytes of a batch
+     */
+    public void weighWith(final Weigher<E> weigher, final long maxBatchBytes) {
+        this.weigher = weigher;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the maxBatchBytes
+     */
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * @param maxBatchBytes
+     *            the maxBatchBytes to set
+     */
+    public void setMaxBatchBytes(final long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * @return the bytes in the memory queue as per the weigher
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Prepare the next big queue data page in the background, so the producers do not wait on
+     * creating and mapping it when the head page fills.
+     *
+     * @param touch
+     *            whether to pre-touch the page too
+     * @param intervalMillis
+     *            how often to check for the next page
+     */
+    public synchronized void preparePages(final boolean touch, final long intervalMillis) {
+        if (bigQueue == null || pagePrepareTimer != null) {
+            return;
+        }
+        pagePrepareTimer = new Timer("bulk-page-prepare", true);
+        pagePrepareTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    bigQueue.prepareNextPage(touch);
+                } catch (final RuntimeException rex) {
+                    logger.warn("Problem preparing big queue page, stopping", rex);
+                    cancel();
+                }
+            }
+        }, 0, intervalMillis);
+    }
+
+    /**
+     * @return the pageSize
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Consume the big queue through a cursor, instead of peek or drain. The batches claim disjoint
+     * index ranges, so many can be in flight at once, and each element is acknowledged on its own.
+     * The committed index is kept in the queue dir and the queue front follows it on the big queue
+     * timer. Call before start, the catch up mode is not used with it.
+     *
+     * @throws IOException
+     *             if problem with the cursor file
+     */
+    public void enableCursor() throws IOException {
+        if (bigQueue == null) {
+            throw new IllegalStateException("No big queue to consume with cursor");
+        } else if (bigQueue instanceof ShardedBigQueue) {
+            throw new IllegalStateException("Sharded big queue cannot be consumed with cursor");
+        }
+        if (cursor == null) {
+            cursor = new QueueCursor(bigQueue, new File(new File(queueDir, queueName), "cursor"));
+        }
+    }
+
+    /**
+     * @return the cursor
+     */
+    public QueueCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the catchUpConsumers
+     */
+    public int getCatchUpConsumers() {
+        return catchUpConsumers;
+    }
+
+    /**
+     * @param catchUpConsumers
+     *            the no. of consumers draining the big queue backlog in parallel, 1 to disable,
+     *            set before start
+     */
+    public void setCatchUpConsumers(final int catchUpConsumers) {
+        this.catchUpConsumers = catchUpConsumers;
+    }
+
+    /**
+     * @return the catchUpThreshold
+     */
+    public long getCatchUpThreshold() {
+        return catchUpThreshold;
+    }
+
+    /**
+     * @param catchUpThreshold
+     *            the big queue backlog records above which the catch up consumers drain it
+     */
+    public void setCatchUpThreshold(final long catchUpThreshold) {
+        this.catchUpThreshold = catchUpThreshold;
+    }
+
+    /**
+     * @return the catchUpRetryCount
+     */
+    public int getCatchUpRetryCount() {
+        return catchUpRetryCount;
+    }
+
+    /**
+     * @param catchUpRetryCount
+     *            the no. of rounds a failing catch up range is retried before its elements are
+     *            moved to the dead letter queue
+     */
+    public void setCatchUpRetryCount(final int catchUpRetryCount) {
+        this.catchUpRetryCount = catchUpRetryCount;
+    }
+
     /**
      * @return the bulkRetryEnabled
      */
@@ -686,7 +1641,7 @@ public class BulkOperationUtil<E> {
 
     /**
      * @param bulkRetryCount
-     *            the bulkRetryCount to set
+     *            the bulkRetryCount to set, also the max redeliveries of a cursor index
      */
     public void setBulkRetryCount(final int bulkRetryCount) {
         this.bulkRetryCount = bulkRetryCount;
@@ -699,6 +1654,44 @@ public class BulkOperationUtil<E> {
         return bulkStatusCounter;
     }
 
+    /**
+     * @return the metricLabel
+     */
+    public String getMetricLabel() {
+        return metricLabel;
+    }
+
+    /**
+     * @param metricLabel
+     *            the queueName label of the metrics, unique per instance, defaults to the queue name
+     *            or memory-N for the memory only ones
+     */
+    public void setMetricLabel(final String metricLabel) {
+        this.metricLabel = metricLabel;
+    }
+
+    /**
+     * @return the metricRegistry
+     */
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * Counts the statuses per queue name and status, and the queue and dead letter queue sizes per
+     * queue name, in the given registry.
+     *
+     * @param metricRegistry
+     *            the metricRegistry to set
+     */
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        statusMetric = metricRegistry.counter("bulk.status", "queueName", "status");
+        queueSizeMetric = metricRegistry.gauge("bulk.queue.size", "queueName");
+        deadLetterSizeMetric = metricRegistry.gauge("bulk.deadletter.size", "queueName");
+        compressionMetric = metricRegistry.gauge("bulk.compression", "queueName", "stat");
+    }
+
     /**
      * @return the entityType
      */
@@ -714,6 +1707,22 @@ public class BulkOperationUtil<E> {
         this.entityType = entityType;
     }
 
+    /**
+     * Compress the big queue records in frames, the frame gets enqueued when full or on the next
+     * bulk run, so at most a poll interval later.
+     *
+     * @param compression
+     *            the compression
+     * @param frameRecords
+     *            the max records in a frame
+     */
+    public void compressionIs(final Compression compression, final int frameRecords) {
+        if (bigQueue != null) {
+            bigQueue.setFrameRecords(frameRecords);
+            bigQueue.setCompression(compression);
+        }
+    }
+
     public void entityTypeIs(final Class<E> entityType) {
         this.entityType = entityType;
         if (bigQueue != null) {
@@ -0,0 +1,391 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+import org.apache.commons.lang.ClassUtils;
+
+/**
+ * Invoker exposed as a dynamic MBean, with every public method of the target as an MBean operation.
+ * The method handles and the string argument converters are resolved once per class into a
+ * dispatch table, so each invocation is a table lookup and a direct call.
+ *
+ * @author Dinesh Ilindra
+ */
+public class DynamicInvoker implements DynamicMBean {
+
+    private static final Map<Class<?>, DispatchTable> dispatchTables = new ConcurrentHashMap<>();
+
+    private static final MethodHandle IDENTITY = MethodHandles.identity(Object.class)
+            .asType(MethodType.methodType(Object.class, String.class));
+
+    /**
+     * An invocable method with its argument converters.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class Operation {
+
+        private final Method method;
+        private final Class<?>[] paramTypes;
+        private final MethodHandle handle;
+        private final MethodHandle[] converters;
+
+        /**
+         * @param method
+         *            the method
+         * @throws IllegalAccessException
+         *             if not accessible
+         */
+        public Operation(final Method method) throws IllegalAccessException {
+            this.method = method;
+            paramTypes = method.getParameterTypes();
+            final int arity = paramTypes.length;
+            MethodHandle direct = MethodHandles.lookup().unreflect(method);
+            if (Modifier.isStatic(method.getModifiers())) {
+                direct = MethodHandles.dropArguments(direct.asType(MethodType.genericMethodType(arity)), 0,
+                        Object.class);
+            }
+            handle = direct.asType(MethodType.genericMethodType(arity + 1)).asSpreader(Object[].class, arity);
+            converters = new MethodHandle[arity];
+            for (int index = 0; index < arity; index++) {
+                converters[index] = converter(paramTypes[index]);
+            }
+        }
+
+        /**
+         * The converter from string, valueOf(String) or the string constructor.
+         *
+         * @param type
+         *            the type
+         * @return the converter handle / null if none
+         */
+        private static MethodHandle converter(final Class<?> type) {
+            final Class<?> wrapper = type.isPrimitive() ? ClassUtils.primitiveToWrapper(type) : type;
+            if (wrapper == String.class || wrapper == Object.class) {
+                return IDENTITY;
+            }
+            final MethodType converterType = MethodType.methodType(Object.class, String.class);
+            try {
+                return MethodHandles.publicLookup()
+                        .findStatic(wrapper, "valueOf", MethodType.methodType(wrapper, String.class))
+                        .asType(converterType);
+            } catch (final ReflectiveOperationException roe) {
+                try {
+                    return MethodHandles.publicLookup()
+                            .findConstructor(wrapper, MethodType.methodType(void.class, String.class))
+                            .asType(converterType);
+                } catch (final ReflectiveOperationException roe1) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Invoke with the args as they are.
+         *
+         * @param target
+         *            the target
+         * @param args
+         *            the args
+         * @return the result
+         * @throws Exception
+         *             any problem
+         */
+        public Object invoke(final Object target, final Object[] args) throws Exception {
+            final Object[] invokeArgs = args == null ? new Object[0] : args;
+            try {
+                return handle.invokeExact(target, invokeArgs);
+            } catch (final Exception | Error ex) {
+                throw ex;
+            } catch (final Throwable th) {
+                throw new IllegalStateException(th);
+            }
+        }
+
+        /**
+         * Invoke with the string args converted to the parameter types, any other arg passed as it
+         * is.
+         *
+         * @param target
+         *            the target
+         * @param args
+         *            the args
+         * @return the result
+         * @throws Exception
+         *             any problem
+         */
+        public Object invokeConverted(final Object target, final Object... args) throws Exception {
+            final int arity = paramTypes.length;
+            final Object[] invokeArgs = new Object[arity];
+            for (int index = 0; index < arity; index++) {
+                final Object arg = args[index];
+                if (arg instanceof String && converters[index] != null) {
+                    try {
+                        invokeArgs[index] = converters[index].invokeExact((String) arg);
+                    } catch (final Exception | Error ex) {
+                        throw ex;
+                    } catch (final Throwable th) {
+                        throw new IllegalStateException(th);
+                    }
+                } else {
+                    invokeArgs[index] = arg;
+                }
+            }
+            return invoke(target, invokeArgs);
+        }
+
+        /**
+         * @return the method
+         */
+        public Method getMethod() {
+            return method;
+        }
+    }
+
+    /**
+     * The operations of a class by signature and by name with arity.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class DispatchTable {
+
+        private final Map<String, Operation> bySignature = new HashMap<>();
+        private final Map<String, Operation> byArity = new HashMap<>();
+        private final MBeanInfo mbeanInfo;
+
+        /**
+         * @param clazz
+         *            the class
+         */
+        public DispatchTable(final Class<?> clazz) {
+            final List<MBeanOperationInfo> operations = new ArrayList<>();
+            for (final Method method : MetaUtil.allMethodsOf(clazz)) {
+                final Operation operation;
+                try {
+                    operation = new Operation(method);
+                } catch (final IllegalAccessException iae) {
+                    continue;
+                }
+                byArity.putIfAbsent(method.getName() + "/" + method.getParameterTypes().length, operation);
+                final Class<?> declaring = method.getDeclaringClass();
+                if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())
+                        && declaring != Object.class && declaring != DynamicInvoker.class
+                        && bySignature.putIfAbsent(signature(method.getName(), method.getParameterTypes()),
+                                operation) == null) {
+                    operations.add(new MBeanOperationInfo(method.getName(), method));
+                }
+            }
+            mbeanInfo = new MBeanInfo(clazz.getName(), "Operations of " + clazz.getSimpleName(), null, null,
+                    operations.toArray(new MBeanOperationInfo[operations.size()]), null);
+        }
+
+        /**
+         * @param clazz
+         *            the class
+         * @return the cached dispatch table of the class
+         */
+        public static DispatchTable of(final Class<?> clazz) {
+            DispatchTable table = dispatchTables.get(clazz);
+            if (table == null) {
+                table = dispatchTables.computeIfAbsent(clazz, DispatchTable::new);
+            }
+            return table;
+        }
+
+        private static String signature(final String name, final Class<?>[] types) {
+            final String[] typeNames = new String[types.length];
+            for (int index = 0; index < types.length; index++) {
+                typeNames[index] = types[index].getName();
+            }
+            return signature(name, typeNames);
+        }
+
+        private static String signature(final String name, final String[] typeNames) {
+            return name + Arrays.toString(typeNames == null ? new String[0] : typeNames);
+        }
+
+        /**
+         * @param name
+         *            the name
+         * @param signature
+         *            the parameter type names
+         * @return the public operation / null
+         */
+        public Operation find(final String name, final String[] signature) {
+            return bySignature.get(signature(name, signature));
+        }
+
+        /**
+         * @param name
+         *            the name
+         * @param arity
+         *            the no. of parameters
+         * @return the first method by the name and arity / null
+         */
+        public Operation find(final String name, final int arity) {
+            return byArity.get(name + "/" + arity);
+        }
+
+        /**
+         * @return the mbeanInfo
+         */
+        public MBeanInfo getMbeanInfo() {
+            return mbeanInfo;
+        }
+    }
+
+    private final Object target;
+
+    private final DispatchTable dispatchTable;
+
+    /**
+     * Expose the methods of this, registers this as MBean.
+     */
+    public DynamicInvoker() {
+        this(null);
+    }
+
+    /**
+     * Expose the methods of the target, registers this as MBean.
+     *
+     * @param target
+     *            the target, this if null
+     */
+    public DynamicInvoker(final Object target) {
+        this.target = target == null ? this : target;
+        dispatchTable = DispatchTable.of(this.target.getClass());
+        try {
+            MetaUtil.registerAsMBean(this);
+        } catch (final Exception jme) {
+            // already registered
+        }
+    }
+
+    /**
+     * Run the first method by the name and no. of args, with the args converted from string.
+     *
+     * @param name
+     *            the name
+     * @param args
+     *            the arguments
+     * @return the result
+     * @throws Exception
+     *             any problem
+     */
+    public Object runThis(final String name, final String... args) throws Exception {
+        final int arity = args == null ? 0 : args.length;
+        final Operation operation = dispatchTable.find(name, arity);
+        if (operation == null) {
+            throw new NoSuchMethodException(name + "/" + arity);
+        }
+        return operation.invokeConverted(target, (Object[]) args);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[],
+     * java.lang.String[])
+     */
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature)
+            throws MBeanException, ReflectionException {
+        final Operation operation = dispatchTable.find(actionName, signature);
+        if (operation == null) {
+            throw new ReflectionException(
+                    new NoSuchMethodException(actionName + Arrays.toString(signature)));
+        }
+        try {
+            return operation.invokeConverted(target, params == null ? new Object[0] : params);
+        } catch (final Exception ex) {
+            throw new MBeanException(ex);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.management.DynamicMBean#getMBeanInfo()
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return dispatchTable.getMbeanInfo();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+     */
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+     */
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+     */
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        return new AttributeList();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+     */
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * @return the target
+     */
+    public Object getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the dispatchTable
+     */
+    public DispatchTable getDispatchTable() {
+        return dispatchTable;
+    }
+
+}
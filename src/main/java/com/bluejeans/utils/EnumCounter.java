@@ -3,6 +3,8 @@
  */
 package com.bluejeans.utils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -130,10 +132,14 @@ public class EnumCounter<E extends Enum<E>> {
 
     }
 
+    private final Class<E> keyType;
+
     private final EventCountMap eventCounts, secEventCounts;
 
     private long _lut = System.currentTimeMillis();
 
+    private volatile MappedCounterFile counterFile;
+
     /**
      * initializes all the counts.
      *
@@ -142,6 +148,7 @@ public class EnumCounter<E extends Enum<E>> {
      */
     @SuppressWarnings("unchecked")
     public EnumCounter(final Class<E> keyType) {
+        this.keyType = keyType;
         eventCounts = new EventCountMap(keyType);
         secEventCounts = new EventCountMap(keyType);
         try {
@@ -154,6 +161,47 @@ public class EnumCounter<E extends Enum<E>> {
         }
     }
 
+    /**
+     * initializes all the counts, backed by the given counter file.
+     *
+     * @param keyType
+     *            the key type
+     * @param file
+     *            the counter file
+     * @throws IOException
+     *             if problem mapping the file
+     */
+    public EnumCounter(final Class<E> keyType, final File file) throws IOException {
+        this(keyType);
+        mapTo(file);
+    }
+
+    /**
+     * Back the counts with a memory mapped counter file, slot per enum ordinal. The counts already
+     * in the file are restored, and every increment is applied to the file as well from then on.
+     *
+     * @param file
+     *            the counter file
+     * @throws IOException
+     *             if problem mapping the file
+     */
+    public synchronized void mapTo(final File file) throws IOException {
+        final E[] types = keyType.getEnumConstants();
+        final String[] names = new String[types.length];
+        for (final E type : types) {
+            names[type.ordinal()] = type.name();
+        }
+        final MappedCounterFile mapped = new MappedCounterFile(file, keyType.getName(), names);
+        for (final E type : types) {
+            eventCounts.get(type).set(mapped.get(type.ordinal(), MappedCounterFile.PRIMARY));
+            secEventCounts.get(type).set(mapped.get(type.ordinal(), MappedCounterFile.SECONDARY));
+        }
+        if (counterFile != null) {
+            counterFile.close();
+        }
+        counterFile = mapped;
+    }
+
     /**
      * Resets all the counts to zeros.
      */
@@ -164,6 +212,13 @@ public class EnumCounter<E extends Enum<E>> {
         for (final Object key : secEventCounts.keySet()) {
             secEventCounts.get(key).set(0);
         }
+        final MappedCounterFile mapped = counterFile;
+        if (mapped != null) {
+            for (final E type : keyType.getEnumConstants()) {
+                mapped.set(type.ordinal(), MappedCounterFile.PRIMARY, 0);
+                mapped.set(type.ordinal(), MappedCounterFile.SECONDARY, 0);
+            }
+        }
     }
 
     /**
@@ -173,6 +228,19 @@ public class EnumCounter<E extends Enum<E>> {
         for (final Object key : secEventCounts.keySet()) {
             secEventCounts.get(key).set(0);
         }
+        final MappedCounterFile mapped = counterFile;
+        if (mapped != null) {
+            for (final E type : keyType.getEnumConstants()) {
+                mapped.set(type.ordinal(), MappedCounterFile.SECONDARY, 0);
+            }
+        }
+    }
+
+    /**
+     * @return the counterFile / null if not mapped
+     */
+    public MappedCounterFile getCounterFile() {
+        return counterFile;
     }
 
     /**
@@ -222,6 +290,12 @@ public class EnumCounter<E extends Enum<E>> {
         eventCounts.get(event).addAndGet(count);
         secEventCounts.get(event).addAndGet(count);
         _lut = System.currentTimeMillis();
+        final MappedCounterFile mapped = counterFile;
+        if (mapped != null) {
+            mapped.add(event.ordinal(), MappedCounterFile.PRIMARY, count);
+            mapped.add(event.ordinal(), MappedCounterFile.SECONDARY, count);
+            mapped.setLastUpdated(_lut);
+        }
     }
 
     /**
@@ -6,9 +6,9 @@ package com.bluejeans.utils;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
 
-import org.apache.commons.lang.ClassUtils;
+import com.bluejeans.utils.DynamicInvoker.DispatchTable;
+import com.bluejeans.utils.DynamicInvoker.Operation;
 
 /**
  * Invoker MBean
@@ -39,10 +39,20 @@ public interface InvokerMXBean {
          * Registers this as MBean.
          */
         public Invoker() {
-            try {
-                MetaUtil.registerAsMBean(this);
-            } catch (final Exception jme) {
-                //jme.printStackTrace();
+            this(true);
+        }
+
+        /**
+         * @param register
+         *            registers this as MBean if true
+         */
+        public Invoker(final boolean register) {
+            if (register) {
+                try {
+                    MetaUtil.registerAsMBean(this);
+                } catch (final Exception jme) {
+                    //jme.printStackTrace();
+                }
             }
         }
 
@@ -58,24 +68,12 @@ public interface InvokerMXBean {
          *             any problem
          */
         public Object runThis(final String name, final String... args) throws Exception {
-            int len = 0;
-            if (args != null) {
-                len = args.length;
-            }
-            final Object[] invokeArgs = new Object[len];
-            final Method method = MetaUtil.findFirstMethod(this.getClass(), name, len);
-            for (int index = 0; index < len; index++) {
-                Class<?> paramType = method.getParameterTypes()[index];
-                try {
-                    if (paramType.isPrimitive()) {
-                        paramType = ClassUtils.primitiveToWrapper(paramType);
-                    }
-                    invokeArgs[index] = paramType.getMethod("valueOf", String.class).invoke(null, args[index]);
-                } catch (final NoSuchMethodException nsme) {
-                    invokeArgs[index] = paramType.getConstructor(String.class).newInstance(args[index]);
-                }
+            final int len = args == null ? 0 : args.length;
+            final Operation operation = DispatchTable.of(getClass()).find(name, len);
+            if (operation == null) {
+                throw new NoSuchMethodException(name + "/" + len);
             }
-            return method.invoke(this, invokeArgs);
+            return operation.invokeConverted(this, (Object[]) args);
         }
 
         /*
@@ -88,13 +86,13 @@ public interface InvokerMXBean {
             final StringBuilder val = new StringBuilder();
             try {
                 final Object result = runThis(name, args);
-                if (result.getClass().isArray()) {
+                if (result != null && result.getClass().isArray()) {
                     for (int index = 0; index < Array.getLength(result); index++) {
                         val.append(Array.get(result, index));
                         val.append("\n");
                     }
                 } else {
-                    val.append(runThis(name, args));
+                    val.append(result);
                 }
             } catch (final Exception ex) {
                 final StringWriter sw = new StringWriter();
@@ -0,0 +1,234 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes any result as JSON straight to a stream, element by element, so that large results need
+ * no more memory than the generator buffer. The depth, the elements per array / object and the
+ * total bytes are limited, anything beyond is left out while still writing valid JSON.
+ *
+ * @author Dinesh Ilindra
+ */
+public class JsonResultWriter {
+
+    /**
+     * The marker written in place of whatever is left out
+     */
+    public static final String TRUNCATED = "...";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private int maxDepth = 16;
+
+    private int maxElements = 10000;
+
+    private long maxBytes = 64 * 1024 * 1024;
+
+    /**
+     * Counts the bytes written through.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * The state of one write.
+     */
+    private class Writing {
+
+        private final JsonGenerator generator;
+        private final CountingOutputStream counter;
+        private boolean truncated;
+
+        Writing(final OutputStream out) throws IOException {
+            counter = new CountingOutputStream(out);
+            generator = jsonFactory.createGenerator(counter);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        /**
+         * @return true if the bytes limit is crossed, the count lags by the generator buffer
+         */
+        private boolean full() {
+            if (counter.count > maxBytes) {
+                truncated = true;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean more(final int written) throws IOException {
+            if (full()) {
+                return false;
+            }
+            if (written >= maxElements) {
+                truncated = true;
+                generator.writeString(TRUNCATED);
+                return false;
+            }
+            return true;
+        }
+
+        private void write(final Object obj, final int depth) throws IOException {
+            if (obj == null) {
+                generator.writeNull();
+            } else if (obj instanceof Boolean) {
+                generator.writeBoolean((Boolean) obj);
+            } else if (obj instanceof Integer || obj instanceof Long || obj instanceof Short
+                    || obj instanceof Byte) {
+                generator.writeNumber(((Number) obj).longValue());
+            } else if (obj instanceof Double || obj instanceof Float) {
+                final double value = ((Number) obj).doubleValue();
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    generator.writeString(obj.toString());
+                } else {
+                    generator.writeNumber(value);
+                }
+            } else if (obj instanceof BigDecimal) {
+                generator.writeNumber((BigDecimal) obj);
+            } else if (obj instanceof BigInteger) {
+                generator.writeNumber((BigInteger) obj);
+            } else if (obj instanceof CharSequence || obj instanceof Character || obj instanceof Enum<?>
+                    || obj instanceof Number) {
+                generator.writeString(obj.toString());
+            } else if (depth >= maxDepth) {
+                truncated = true;
+                generator.writeString(TRUNCATED);
+            } else if (obj.getClass().isArray()) {
+                generator.writeStartArray();
+                final int len = Array.getLength(obj);
+                for (int index = 0; index < len && more(index); index++) {
+                    write(Array.get(obj, index), depth + 1);
+                }
+                generator.writeEndArray();
+            } else if (obj instanceof Iterator<?> || obj instanceof Iterable<?>) {
+                final Iterator<?> iter = obj instanceof Iterator<?> ? (Iterator<?>) obj
+                        : ((Iterable<?>) obj).iterator();
+                generator.writeStartArray();
+                for (int index = 0; iter.hasNext() && more(index); index++) {
+                    write(iter.next(), depth + 1);
+                }
+                generator.writeEndArray();
+            } else if (obj instanceof Map<?, ?>) {
+                generator.writeStartObject();
+                int index = 0;
+                for (final Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                    if (full()) {
+                        break;
+                    }
+                    if (index++ >= maxElements) {
+                        truncated = true;
+                        generator.writeStringField(TRUNCATED, TRUNCATED);
+                        break;
+                    }
+                    generator.writeFieldName(String.valueOf(entry.getKey()));
+                    write(entry.getValue(), depth + 1);
+                }
+                generator.writeEndObject();
+            } else if (obj instanceof Entry<?, ?>) {
+                final Entry<?, ?> entry = (Entry<?, ?>) obj;
+                generator.writeStartObject();
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                write(entry.getValue(), depth + 1);
+                generator.writeEndObject();
+            } else {
+                generator.writeString(obj.toString());
+            }
+        }
+    }
+
+    /**
+     * Write the object as JSON.
+     *
+     * @param out
+     *            the output stream, left open
+     * @param obj
+     *            the object
+     * @return true if written fully, false if any limit was hit
+     * @throws IOException
+     *             if problem writing
+     */
+    public boolean write(final OutputStream out, final Object obj) throws IOException {
+        final Writing writing = new Writing(out);
+        writing.write(obj, 0);
+        writing.generator.close();
+        return !writing.truncated;
+    }
+
+    /**
+     * @return the maxDepth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth
+     *            the maxDepth to set
+     */
+    public void setMaxDepth(final int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return the maxElements
+     */
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    /**
+     * @param maxElements
+     *            the maxElements to set
+     */
+    public void setMaxElements(final int maxElements) {
+        this.maxElements = maxElements;
+    }
+
+    /**
+     * @return the maxBytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param maxBytes
+     *            the maxBytes to set
+     */
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+}
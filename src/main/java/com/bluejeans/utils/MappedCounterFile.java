@@ -0,0 +1,350 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.helpers.ISO8601DateFormat;
+
+import sun.misc.Unsafe;
+
+/**
+ * Counters kept in a memory mapped file, so that they survive restarts and can be read by other
+ * processes without going through the JVM. The file is laid out as a 64 byte header, the counter
+ * names and then one 64 byte slot per counter in name order, each holding the primary and secondary
+ * counts, all in the native byte order. The counts are updated atomically off heap.
+ *
+ * @author Dinesh Ilindra
+ */
+public class MappedCounterFile implements Closeable {
+
+    /**
+     * The file magic
+     */
+    public static final int MAGIC = 0x45434e54;
+
+    /**
+     * The layout version
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The header size
+     */
+    public static final int HEADER_BYTES = 64;
+
+    /**
+     * The slot size, a cache line so that the counters do not share one
+     */
+    public static final int SLOT_BYTES = 64;
+
+    /**
+     * The primary count column
+     */
+    public static final int PRIMARY = 0;
+
+    /**
+     * The secondary count column
+     */
+    public static final int SECONDARY = 1;
+
+    private static final int LAST_UPDATED_OFFSET = 16;
+
+    private static final int DATA_OFFSET_OFFSET = 24;
+
+    private static final Unsafe UNSAFE;
+
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            final Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            UNSAFE = (Unsafe) unsafeField.get(null);
+            ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (final ReflectiveOperationException roe) {
+            throw new ExceptionInInitializerError(roe);
+        }
+    }
+
+    private final File file;
+    private final String type;
+    private final String[] names;
+    private final MappedByteBuffer buffer;
+    private final boolean readOnly;
+    private final int dataOffset;
+    private final long dataAddress;
+
+    /**
+     * Map the file for the given counters, creating it if missing. The counts of an existing file
+     * are kept, carried over by name if the counters have changed since.
+     *
+     * @param file
+     *            the file
+     * @param type
+     *            the counter type, usually the enum class name
+     * @param names
+     *            the counter names in slot order
+     * @throws IOException
+     *             if problem mapping
+     */
+    public MappedCounterFile(final File file, final String type, final String[] names) throws IOException {
+        this.file = file;
+        this.type = type;
+        this.names = names.clone();
+        readOnly = false;
+        Map<String, long[]> carried = null;
+        if (file.length() > 0) {
+            try (MappedCounterFile existing = new MappedCounterFile(file)) {
+                if (!existing.type.equals(type) || !Arrays.equals(existing.names, names)) {
+                    carried = existing.toMap();
+                }
+            } catch (final IOException ioe) {
+                carried = new HashMap<>();
+            }
+        }
+        final byte[] layout = layout(type, names);
+        dataOffset = align(HEADER_BYTES + layout.length);
+        final int size = dataOffset + names.length * SLOT_BYTES;
+        if (carried != null && !file.delete()) {
+            throw new IOException("Unable to replace " + file);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final boolean fresh = raf.length() == 0;
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.nativeOrder());
+            if (fresh) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, names.length);
+                buffer.putInt(12, SLOT_BYTES);
+                buffer.putInt(DATA_OFFSET_OFFSET, dataOffset);
+                for (int index = 0; index < layout.length; index++) {
+                    buffer.put(HEADER_BYTES + index, layout[index]);
+                }
+            }
+        }
+        dataAddress = UNSAFE.getLong(buffer, ADDRESS_OFFSET) + dataOffset;
+        if (carried != null) {
+            for (int slot = 0; slot < names.length; slot++) {
+                final long[] values = carried.get(names[slot]);
+                if (values != null) {
+                    set(slot, PRIMARY, values[PRIMARY]);
+                    set(slot, SECONDARY, values[SECONDARY]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Map an existing file read only, as done by the readers.
+     *
+     * @param file
+     *            the file
+     * @throws IOException
+     *             if problem mapping or not a counter file
+     */
+    public MappedCounterFile(final File file) throws IOException {
+        this.file = file;
+        readOnly = true;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.nativeOrder());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a counter file - " + file);
+        }
+        final int count = buffer.getInt(8);
+        dataOffset = buffer.getInt(DATA_OFFSET_OFFSET);
+        final ByteBuffer layout = buffer.duplicate();
+        layout.position(HEADER_BYTES);
+        type = readString(layout);
+        names = new String[count];
+        for (int slot = 0; slot < count; slot++) {
+            names[slot] = readString(layout);
+        }
+        dataAddress = 0;
+    }
+
+    private static byte[] layout(final String type, final String[] names) {
+        final ByteBuffer layout = ByteBuffer.allocate(1 << 16);
+        writeString(layout, type);
+        for (final String name : names) {
+            writeString(layout, name);
+        }
+        return Arrays.copyOf(layout.array(), layout.position());
+    }
+
+    private static void writeString(final ByteBuffer layout, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        layout.putShort((short) bytes.length);
+        layout.put(bytes);
+    }
+
+    private static String readString(final ByteBuffer layout) {
+        final byte[] bytes = new byte[layout.getShort()];
+        layout.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int align(final int offset) {
+        return (offset + SLOT_BYTES - 1) / SLOT_BYTES * SLOT_BYTES;
+    }
+
+    private int offset(final int slot, final int column) {
+        return dataOffset + slot * SLOT_BYTES + column * 8;
+    }
+
+    /**
+     * @param slot
+     *            the slot
+     * @param column
+     *            the column
+     * @return the count
+     */
+    public long get(final int slot, final int column) {
+        if (readOnly) {
+            return buffer.getLong(offset(slot, column));
+        }
+        return UNSAFE.getLongVolatile(null, dataAddress + slot * SLOT_BYTES + column * 8);
+    }
+
+    /**
+     * Add atomically to the count.
+     *
+     * @param slot
+     *            the slot
+     * @param column
+     *            the column
+     * @param delta
+     *            the delta
+     * @return the updated count
+     */
+    public long add(final int slot, final int column, final long delta) {
+        return UNSAFE.getAndAddLong(null, dataAddress + slot * SLOT_BYTES + column * 8, delta) + delta;
+    }
+
+    /**
+     * @param slot
+     *            the slot
+     * @param column
+     *            the column
+     * @param value
+     *            the count
+     */
+    public void set(final int slot, final int column, final long value) {
+        UNSAFE.putLongVolatile(null, dataAddress + slot * SLOT_BYTES + column * 8, value);
+    }
+
+    /**
+     * @return the last updated time
+     */
+    public long getLastUpdated() {
+        return buffer.getLong(LAST_UPDATED_OFFSET);
+    }
+
+    /**
+     * @param lastUpdated
+     *            the last updated time
+     */
+    public void setLastUpdated(final long lastUpdated) {
+        buffer.putLong(LAST_UPDATED_OFFSET, lastUpdated);
+    }
+
+    /**
+     * @return the counts by name
+     */
+    public Map<String, long[]> toMap() {
+        final Map<String, long[]> map = new HashMap<>();
+        for (int slot = 0; slot < names.length; slot++) {
+            map.put(names[slot], new long[] { get(slot, PRIMARY), get(slot, SECONDARY) });
+        }
+        return map;
+    }
+
+    /**
+     * Flush the counts to the file, the mapping itself stays till collected.
+     */
+    @Override
+    public void close() {
+        if (!readOnly) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the names
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(type).append(" @ ")
+                .append(ISO8601DateFormat.getDateTimeInstance().format(new Date(getLastUpdated())));
+        for (int slot = 0; slot < names.length; slot++) {
+            builder.append(System.lineSeparator()).append(names[slot]).append('=').append(get(slot, PRIMARY))
+                    .append(", ").append(get(slot, SECONDARY));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Print the counters of the given file, repeatedly if an interval in millis is given.
+     *
+     * @param args
+     *            the file and optional interval
+     * @throws Exception
+     *             if problem
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: MappedCounterFile <file> [intervalMillis]");
+            return;
+        }
+        try (MappedCounterFile counterFile = new MappedCounterFile(new File(args[0]))) {
+            final long interval = args.length > 1 ? Long.parseLong(args[1]) : 0;
+            do {
+                System.out.println(counterFile);
+                Thread.sleep(interval);
+            } while (interval > 0);
+        }
+    }
+
+}
@@ -27,9 +27,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
@@ -54,6 +57,7 @@ import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.owasp.encoder.esapi.ESAPIEncoder;
 
+import com.bluejeans.utils.URIInvoker.Evaluation;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -67,6 +71,7 @@ import com.strobel.decompiler.PlainTextOutput;
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtMethod;
+import javassist.LoaderClassPath;
 
 /**
  * Meta utility.
@@ -80,6 +85,8 @@ public class MetaUtil {
      */
     public static final Map<String, Object> META_MAP = new HashMap<>();
 
+    private static URIInvoker sharedInvoker;
+
     /**
      * The simple return type list
      */
@@ -636,7 +643,34 @@ public class MetaUtil {
      */
     public static Object runNestedMethod(final Object target, final String nestedMethod)
             throws ReflectiveOperationException, ScriptException {
-        return new URIInvoker(target).invokeNestedMethod(target, nestedMethod);
+        return nestedInvoker(target, nestedMethod).invokeNestedMethod(target, nestedMethod);
+    }
+
+    /**
+     * The invoker for the nested method, the shared one unless there is a script (any of the
+     * <code>$</code> forms) which may refer the target by name.
+     *
+     * @param target
+     *            the target object
+     * @param nestedMethod
+     *            the nested method(s)
+     * @return the invoker
+     */
+    private static URIInvoker nestedInvoker(final Object target, final String nestedMethod) {
+        return !nestedMethod.contains("$") ? sharedInvoker()
+                : new URIInvoker(createMap("target", target), true);
+    }
+
+    /**
+     * The lightweight invoker shared by the nested method helpers, it holds no targets of its own.
+     *
+     * @return the shared invoker
+     */
+    public static synchronized URIInvoker sharedInvoker() {
+        if (sharedInvoker == null) {
+            sharedInvoker = new URIInvoker(new HashMap<String, Object>(), true);
+        }
+        return sharedInvoker;
     }
 
     /**
@@ -648,13 +682,42 @@ public class MetaUtil {
      *            the nested methods separated by ;;
      */
     public static Map<String, Object> runNestedMethodsSilently(final Object target, final String nestedMethods) {
-        final Map<String, Object> returnValues = new HashMap<String, Object>();
-        final URIInvoker invoker = new URIInvoker(target);
-        for (final String method : nestedMethods.split(";;")) {
+        return runNestedMethodsSilently(target, nestedMethods, false, URIInvoker.DEFAULT_EXPRESSION_TIMEOUT);
+    }
+
+    /**
+     * Run the nested methods silently on the target object, a failed or timed out one has null
+     * value.
+     *
+     * @param target
+     *            the target object
+     * @param nestedMethods
+     *            the nested methods separated by ;;
+     * @param concurrent
+     *            true to run them concurrently
+     * @param timeoutMillis
+     *            the max time to wait for each method in millis
+     * @return the values in the order of methods
+     */
+    public static Map<String, Object> runNestedMethodsSilently(final Object target, final String nestedMethods,
+            final boolean concurrent, final long timeoutMillis) {
+        final Map<String, Object> returnValues = new LinkedHashMap<String, Object>();
+        final String[] methods = nestedMethods.split(";;");
+        final List<Evaluation> evaluations = nestedInvoker(target, nestedMethods).evaluateAll(target, methods, false,
+                concurrent);
+        for (final Evaluation evaluation : evaluations) {
             try {
-                returnValues.put(method, invoker.invokeNestedMethod(target, method));
-            } catch (ReflectiveOperationException | ScriptException | RuntimeException e) {
-                returnValues.put(method, null);
+                returnValues.put(evaluation.getExpression(), evaluation.await(timeoutMillis));
+            } catch (ExecutionException | TimeoutException e) {
+                returnValues.put(evaluation.getExpression(), null);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                returnValues.put(evaluation.getExpression(), null);
+            }
+        }
+        for (final Evaluation evaluation : evaluations) {
+            if (!evaluation.isDone()) {
+                evaluation.cancel(true);
             }
         }
         return returnValues;
@@ -1205,15 +1268,17 @@ public class MetaUtil {
     }
 
     /**
-     * Logic transformer
+     * One logic edit on the methods of a class, with its outcome once applied.
      *
      * @author Dinesh Ilindra
      */
-    public static class LogicTransformer implements ClassFileTransformer {
+    public static class LogicEdit {
 
         private final String fqcn, methodName;
         private final int argLength;
         private final String mode, logic;
+        private int appliedCount;
+        private String error;
 
         /**
          * @param fqcn
@@ -1223,13 +1288,12 @@ public class MetaUtil {
          * @param argLength
          *            the arg length
          * @param mode
-         *            the mode
+         *            the mode - prepend, append or the line no.
          * @param logic
          *            the logic
          */
-        public LogicTransformer(final String fqcn, final String methodName, final int argLength, final String mode,
+        public LogicEdit(final String fqcn, final String methodName, final int argLength, final String mode,
                 final String logic) {
-            super();
             this.fqcn = fqcn;
             this.methodName = methodName;
             this.argLength = argLength;
@@ -1237,6 +1301,167 @@ public class MetaUtil {
             this.logic = logic;
         }
 
+        /**
+         * Apply the logic to the matching methods of the class, any failure is recorded as the error.
+         *
+         * @param ctClass
+         *            the class
+         */
+        public void apply(final CtClass ctClass) {
+            try {
+                for (final CtMethod method : ctClass.getDeclaredMethods()) {
+                    if (method.getName().equals(methodName) && method.getParameterTypes().length == argLength) {
+                        if ("prepend".equalsIgnoreCase(mode)) {
+                            method.insertBefore(logic);
+                        } else if ("append".equalsIgnoreCase(mode)) {
+                            method.insertAfter(logic);
+                        } else {
+                            method.insertAt(Integer.parseInt(mode), logic);
+                        }
+                        appliedCount++;
+                    }
+                }
+                if (appliedCount == 0) {
+                    error = "no matching method";
+                }
+            } catch (final Exception ex) {
+                error = ex.toString();
+            }
+        }
+
+        /**
+         * @return true if applied to at least one method without error
+         */
+        public boolean isSuccess() {
+            return error == null && appliedCount > 0;
+        }
+
+        /**
+         * @return the fqcn
+         */
+        public String getFqcn() {
+            return fqcn;
+        }
+
+        /**
+         * @return the methodName
+         */
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /**
+         * @return the argLength
+         */
+        public int getArgLength() {
+            return argLength;
+        }
+
+        /**
+         * @return the mode
+         */
+        public String getMode() {
+            return mode;
+        }
+
+        /**
+         * @return the logic
+         */
+        public String getLogic() {
+            return logic;
+        }
+
+        /**
+         * @return the no. of methods the logic got applied to
+         */
+        public int getAppliedCount() {
+            return appliedCount;
+        }
+
+        /**
+         * @return the error / null
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @param error
+         *            the error to set
+         */
+        public void setError(final String error) {
+            this.error = error;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return fqcn + "." + methodName + "/" + argLength + " " + mode + " : "
+                    + (isSuccess() ? "applied to " + appliedCount : "failed - " + error);
+        }
+    }
+
+    /**
+     * Logic transformer
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class LogicTransformer implements ClassFileTransformer {
+
+        private final Map<String, List<LogicEdit>> classEdits = new HashMap<>();
+        private final Map<ClassLoader, ClassPool> classPools = new HashMap<>();
+
+        /**
+         * @param fqcn
+         *            the class name
+         * @param methodName
+         *            the method name
+         * @param argLength
+         *            the arg length
+         * @param mode
+         *            the mode
+         * @param logic
+         *            the logic
+         */
+        public LogicTransformer(final String fqcn, final String methodName, final int argLength, final String mode,
+                final String logic) {
+            this(Arrays.asList(new LogicEdit(fqcn, methodName, argLength, mode, logic)));
+        }
+
+        /**
+         * @param edits
+         *            the edits, applied per class in the given order
+         */
+        public LogicTransformer(final List<LogicEdit> edits) {
+            for (final LogicEdit edit : edits) {
+                classEdits.computeIfAbsent(edit.getFqcn().replace('.', '/'), k -> new ArrayList<>()).add(edit);
+            }
+        }
+
+        /**
+         * A class pool per loader for the lifetime of this transformer, instead of the ever growing
+         * default one.
+         *
+         * @param loader
+         *            the loader
+         * @return the class pool
+         */
+        private synchronized ClassPool classPool(final ClassLoader loader) {
+            ClassPool classPool = classPools.get(loader);
+            if (classPool == null) {
+                classPool = new ClassPool(true);
+                if (loader != null) {
+                    classPool.appendClassPath(new LoaderClassPath(loader));
+                }
+                classPools.put(loader, classPool);
+            }
+            return classPool;
+        }
+
         /*
          * (non-Javadoc)
          *
@@ -1247,30 +1472,24 @@ public class MetaUtil {
         public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
                 final ProtectionDomain protectionDomain, final byte[] classfileBuffer)
                 throws IllegalClassFormatException {
-            byte[] byteCode = classfileBuffer;
-            if (className.equals(fqcn.replace('.', '/'))) {
-                try {
-                    final ClassPool classPool = ClassPool.getDefault();
-                    final CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(classfileBuffer));
-                    final CtMethod[] methods = ctClass.getDeclaredMethods();
-                    for (final CtMethod method : methods) {
-                        if (method.getName().equals(methodName) && method.getParameterTypes().length == argLength) {
-                            if ("prepend".equalsIgnoreCase(mode)) {
-                                method.insertBefore(logic);
-                            } else if ("append".equalsIgnoreCase(mode)) {
-                                method.insertAfter(logic);
-                            } else {
-                                method.insertAt(Integer.parseInt(mode), logic);
-                            }
-                        }
-                    }
-                    byteCode = ctClass.toBytecode();
-                    ctClass.detach();
-                } catch (final Exception ex) {
-                    // do nothing
+            final List<LogicEdit> edits = classEdits.get(className);
+            if (edits == null) {
+                return null;
+            }
+            try {
+                final CtClass ctClass = classPool(loader).makeClass(new ByteArrayInputStream(classfileBuffer));
+                for (final LogicEdit edit : edits) {
+                    edit.apply(ctClass);
+                }
+                final byte[] byteCode = ctClass.toBytecode();
+                ctClass.detach();
+                return byteCode;
+            } catch (final Exception ex) {
+                for (final LogicEdit edit : edits) {
+                    edit.setError(ex.toString());
                 }
+                return null;
             }
-            return byteCode;
         }
     }
 
@@ -1287,10 +1506,11 @@ public class MetaUtil {
      *            the modes
      * @param logic
      *            the logics
+     * @return the edits with their outcome
      * @throws Exception
      *             if problem
      */
-    public static void addLogic(final Instrumentation instr, final String fqcn, final String methodName,
+    public static List<LogicEdit> addLogic(final Instrumentation instr, final String fqcn, final String methodName,
             final String argLength, final String mode, final String logic) throws Exception {
         boolean methodMulti = false;
         if (methodName.contains(",")) {
@@ -1300,19 +1520,61 @@ public class MetaUtil {
         final String[] argLengthInfo = argLength.split(",");
         final String[] modeInfo = mode.split(",");
         final String[] logicInfo = logic.split(",,");
-        final List<ClassFileTransformer> transformers = new ArrayList<>();
+        final List<LogicEdit> edits = new ArrayList<>();
         for (int index = 0; index < logicInfo.length; index++) {
-            final ClassFileTransformer transformer = new LogicTransformer(fqcn,
-                    methodMulti ? methodInfo[index] : methodName,
+            edits.add(new LogicEdit(fqcn, methodMulti ? methodInfo[index] : methodName,
                     Integer.parseInt(methodMulti ? argLengthInfo[index] : argLength), modeInfo[index],
-                    logicInfo[index]);
-            instr.addTransformer(transformer, true);
-            transformers.add(transformer);
+                    logicInfo[index]));
         }
-        instr.retransformClasses(Class.forName(fqcn));
-        for (final ClassFileTransformer transformer : transformers) {
+        return addLogic(instr, edits);
+    }
+
+    /**
+     * Apply all the edits with a single transformer and a single retransform of all the affected
+     * classes, so that the classes are parsed and compiled once each whatever the no. of edits.
+     *
+     * @param instr
+     *            the instrumentation
+     * @param edits
+     *            the edits
+     * @return the edits with their outcome
+     * @throws Exception
+     *             if problem retransforming
+     */
+    public static List<LogicEdit> addLogic(final Instrumentation instr, final List<LogicEdit> edits)
+            throws Exception {
+        final Map<String, List<Class<?>>> classMap = new HashMap<>();
+        for (final LogicEdit edit : edits) {
+            classMap.put(edit.getFqcn(), new ArrayList<>());
+        }
+        for (final Class<?> clazz : instr.getAllLoadedClasses()) {
+            final List<Class<?>> classList = classMap.get(clazz.getName());
+            if (classList != null) {
+                classList.add(clazz);
+            }
+        }
+        final List<Class<?>> classes = new ArrayList<>();
+        for (final Map.Entry<String, List<Class<?>>> entry : classMap.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                entry.getValue().add(Class.forName(entry.getKey()));
+            }
+            classes.addAll(entry.getValue());
+        }
+        final ClassFileTransformer transformer = new LogicTransformer(edits);
+        instr.addTransformer(transformer, true);
+        try {
+            instr.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+        } catch (final Exception | LinkageError ex) {
+            for (final LogicEdit edit : edits) {
+                if (edit.isSuccess()) {
+                    edit.setError("retransform failed - " + ex);
+                }
+            }
+            throw ex;
+        } finally {
             instr.removeTransformer(transformer);
         }
+        return edits;
     }
 
     /**
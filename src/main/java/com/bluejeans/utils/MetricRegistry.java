@@ -0,0 +1,515 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of counters and gauges with labels, for the dimensions an enum can not hold like topic
+ * or queue name. Each metric keeps its series in an open addressing table of label tuples to long
+ * slots, so that updating an existing series allocates nothing. The no. of series per metric is
+ * capped, the updates for any new series beyond the cap go to a single overflow series.
+ *
+ * @author Dinesh Ilindra
+ */
+public class MetricRegistry implements MetricRegistryMXBean {
+
+    /**
+     * The label value of the overflow series
+     */
+    public static final String OVERFLOW_LABEL = "_overflow";
+
+    private static MetricRegistry instance;
+
+    /**
+     * The metric type
+     *
+     * @author Dinesh Ilindra
+     */
+    public static enum MetricType {
+
+        /**
+         * added to
+         */
+        COUNTER,
+
+        /**
+         * set to
+         */
+        GAUGE,
+    }
+
+    /**
+     * A metric with its series by label values.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class LabeledMetric {
+
+        private final String name;
+        private final MetricType type;
+        private final String[] labelNames;
+        private final int maxSeries;
+        private final AtomicReferenceArray<String[]> series;
+        private final AtomicLongArray values;
+        private final AtomicIntegerArray index;
+        private final int mask;
+        private final LongAdder overflowCount = new LongAdder();
+        private int size;
+        private volatile boolean full;
+
+        /**
+         * @param name
+         *            the name
+         * @param type
+         *            the type
+         * @param maxSeries
+         *            the max no. of series
+         * @param labelNames
+         *            the label names
+         */
+        public LabeledMetric(final String name, final MetricType type, final int maxSeries,
+                final String... labelNames) {
+            this.name = name;
+            this.type = type;
+            this.labelNames = labelNames.clone();
+            this.maxSeries = maxSeries;
+            series = new AtomicReferenceArray<>(maxSeries + 1);
+            values = new AtomicLongArray(maxSeries + 1);
+            final String[] overflow = new String[labelNames.length];
+            Arrays.fill(overflow, OVERFLOW_LABEL);
+            series.set(maxSeries, overflow);
+            int capacity = 2;
+            while (capacity < maxSeries * 2) {
+                capacity <<= 1;
+            }
+            index = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+            index.set(hash(overflow) & mask, maxSeries + 1);
+        }
+
+        private static int hash(final String[] labels) {
+            int hash = 1;
+            for (final String label : labels) {
+                hash = hash(hash, label);
+            }
+            return spread(hash);
+        }
+
+        private static int hash(final int hash, final String label) {
+            return 31 * hash + (label == null ? 0 : label.hashCode());
+        }
+
+        private static int spread(final int hash) {
+            return hash ^ hash >>> 16;
+        }
+
+        private boolean matches(final String[] key, final int arity, final String l1, final String l2,
+                final String l3, final String[] labels) {
+            if (labels != null) {
+                return Arrays.equals(key, labels);
+            }
+            return Objects.equals(key[0], l1) && (arity < 2 || Objects.equals(key[1], l2))
+                    && (arity < 3 || Objects.equals(key[2], l3));
+        }
+
+        /**
+         * Find the slot of the label values, either l1 to l3 as per arity or the labels array.
+         */
+        private int slot(final int arity, final String l1, final String l2, final String l3, final String[] labels) {
+            return slot(arity, l1, l2, l3, labels, true);
+        }
+
+        /**
+         * Find the slot of the label values, creating it if asked, -1 if not found.
+         */
+        private int slot(final int arity, final String l1, final String l2, final String l3, final String[] labels,
+                final boolean create) {
+            if (arity != labelNames.length) {
+                throw new IllegalArgumentException(name + " expects labels " + Arrays.toString(labelNames));
+            }
+            int hash;
+            if (labels != null) {
+                hash = hash(labels);
+            } else {
+                hash = hash(1, l1);
+                hash = arity > 1 ? hash(hash, l2) : hash;
+                hash = spread(arity > 2 ? hash(hash, l3) : hash);
+            }
+            for (int pos = hash & mask;; pos = pos + 1 & mask) {
+                final int entry = index.get(pos);
+                if (entry == 0) {
+                    return !create ? -1 : full ? overflow() : insert(hash, arity, l1, l2, l3, labels);
+                }
+                if (matches(series.get(entry - 1), arity, l1, l2, l3, labels)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private synchronized int insert(final int hash, final int arity, final String l1, final String l2,
+                final String l3, final String[] labels) {
+            int pos = hash & mask;
+            for (int entry = index.get(pos); entry != 0; entry = index.get(pos)) {
+                if (matches(series.get(entry - 1), arity, l1, l2, l3, labels)) {
+                    return entry - 1;
+                }
+                pos = pos + 1 & mask;
+            }
+            if (size == maxSeries) {
+                full = true;
+                return overflow();
+            }
+            final String[] key = labels != null ? labels.clone()
+                    : arity == 1 ? new String[] { l1 }
+                            : arity == 2 ? new String[] { l1, l2 } : new String[] { l1, l2, l3 };
+            for (int label = 0; label < key.length; label++) {
+                key[label] = key[label] == null ? null : key[label].intern();
+            }
+            series.set(size, key);
+            index.set(pos, size + 1);
+            return size++;
+        }
+
+        private int overflow() {
+            overflowCount.increment();
+            return maxSeries;
+        }
+
+        private void update(final int slot, final long value) {
+            if (type == MetricType.COUNTER) {
+                values.addAndGet(slot, value);
+            } else {
+                values.set(slot, value);
+            }
+        }
+
+        /**
+         * Add to the counter / set the gauge.
+         *
+         * @param value
+         *            the delta / value
+         * @param l1
+         *            the label value
+         */
+        public void update(final long value, final String l1) {
+            update(slot(1, l1, null, null, null), value);
+        }
+
+        /**
+         * Add to the counter / set the gauge.
+         *
+         * @param value
+         *            the delta / value
+         * @param l1
+         *            the first label value
+         * @param l2
+         *            the second label value
+         */
+        public void update(final long value, final String l1, final String l2) {
+            update(slot(2, l1, l2, null, null), value);
+        }
+
+        /**
+         * Add to the counter / set the gauge.
+         *
+         * @param value
+         *            the delta / value
+         * @param l1
+         *            the first label value
+         * @param l2
+         *            the second label value
+         * @param l3
+         *            the third label value
+         */
+        public void update(final long value, final String l1, final String l2, final String l3) {
+            update(slot(3, l1, l2, l3, null), value);
+        }
+
+        /**
+         * Add to the counter / set the gauge.
+         *
+         * @param value
+         *            the delta / value
+         * @param labels
+         *            the label values
+         */
+        public void update(final long value, final String... labels) {
+            update(slot(labels.length, null, null, null, labels), value);
+        }
+
+        /**
+         * Increment the counter.
+         *
+         * @param l1
+         *            the label value
+         */
+        public void increment(final String l1) {
+            update(1, l1);
+        }
+
+        /**
+         * Increment the counter.
+         *
+         * @param l1
+         *            the first label value
+         * @param l2
+         *            the second label value
+         */
+        public void increment(final String l1, final String l2) {
+            update(1, l1, l2);
+        }
+
+        /**
+         * @param labels
+         *            the label values
+         * @return the value of the series, 0 if not present
+         */
+        public long get(final String... labels) {
+            final int slot = slot(labels.length, null, null, null, labels, false);
+            return slot < 0 ? 0 : values.get(slot);
+        }
+
+        /**
+         * @return the series as name{label=value,...} to value
+         */
+        public Map<String, Long> series() {
+            final Map<String, Long> map = new ConcurrentHashMap<>();
+            final int count;
+            synchronized (this) {
+                count = size;
+            }
+            for (int slot = 0; slot < count; slot++) {
+                map.put(seriesName(series.get(slot)), values.get(slot));
+            }
+            if (overflowCount.sum() > 0) {
+                map.put(seriesName(series.get(maxSeries)), values.get(maxSeries));
+            }
+            return map;
+        }
+
+        private String seriesName(final String[] key) {
+            final StringBuilder builder = new StringBuilder(name).append('{');
+            for (int label = 0; label < labelNames.length; label++) {
+                builder.append(label == 0 ? "" : ",").append(labelNames[label]).append('=').append(key[label]);
+            }
+            return builder.append('}').toString();
+        }
+
+        /**
+         * Reset all the values.
+         */
+        public void reset() {
+            for (int slot = 0; slot <= maxSeries; slot++) {
+                values.set(slot, 0);
+            }
+        }
+
+        /**
+         * @return the no. of series excluding the overflow
+         */
+        public synchronized int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the overflow count
+         */
+        public long getOverflowCount() {
+            return overflowCount.sum();
+        }
+
+        /**
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the type
+         */
+        public MetricType getType() {
+            return type;
+        }
+
+        /**
+         * @return the labelNames
+         */
+        public String[] getLabelNames() {
+            return labelNames.clone();
+        }
+
+        /**
+         * @return the maxSeries
+         */
+        public int getMaxSeries() {
+            return maxSeries;
+        }
+    }
+
+    private final Map<String, LabeledMetric> metrics = new ConcurrentHashMap<>();
+
+    private int maxSeries = 1000;
+
+    /**
+     * @return the shared registry, registered as MBean
+     */
+    public static synchronized MetricRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricRegistry();
+            try {
+                MetaUtil.registerAsMBean(instance);
+            } catch (final Exception jme) {
+                // already registered
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Get or create the metric.
+     *
+     * @param name
+     *            the name
+     * @param type
+     *            the type
+     * @param labelNames
+     *            the label names
+     * @return the metric
+     */
+    public LabeledMetric metric(final String name, final MetricType type, final String... labelNames) {
+        LabeledMetric metric = metrics.get(name);
+        if (metric == null) {
+            metric = metrics.computeIfAbsent(name, k -> new LabeledMetric(name, type, maxSeries, labelNames));
+        }
+        if (metric.type != type || !Arrays.equals(metric.labelNames, labelNames)) {
+            throw new IllegalArgumentException("Metric " + name + " already exists as " + metric.type + " with labels "
+                    + Arrays.toString(metric.labelNames));
+        }
+        return metric;
+    }
+
+    /**
+     * Get or create the counter.
+     *
+     * @param name
+     *            the name
+     * @param labelNames
+     *            the label names
+     * @return the counter
+     */
+    public LabeledMetric counter(final String name, final String... labelNames) {
+        return metric(name, MetricType.COUNTER, labelNames);
+    }
+
+    /**
+     * Get or create the gauge.
+     *
+     * @param name
+     *            the name
+     * @param labelNames
+     *            the label names
+     * @return the gauge
+     */
+    public LabeledMetric gauge(final String name, final String... labelNames) {
+        return metric(name, MetricType.GAUGE, labelNames);
+    }
+
+    /**
+     * @param name
+     *            the name
+     * @return the metric / null
+     */
+    public LabeledMetric getMetric(final String name) {
+        return metrics.get(name);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.MetricRegistryMXBean#getSeries()
+     */
+    @Override
+    public String[] getSeries() {
+        final List<String> list = new ArrayList<>();
+        for (final LabeledMetric metric : metrics.values()) {
+            for (final Map.Entry<String, Long> entry : metric.series().entrySet()) {
+                list.add(entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        list.sort(null);
+        return list.toArray(new String[list.size()]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.MetricRegistryMXBean#getSeriesCount()
+     */
+    @Override
+    public int getSeriesCount() {
+        int count = 0;
+        for (final LabeledMetric metric : metrics.values()) {
+            count += metric.getSize();
+        }
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.MetricRegistryMXBean#getOverflowCount()
+     */
+    @Override
+    public long getOverflowCount() {
+        long count = 0;
+        for (final LabeledMetric metric : metrics.values()) {
+            count += metric.getOverflowCount();
+        }
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.MetricRegistryMXBean#getMaxSeries()
+     */
+    @Override
+    public int getMaxSeries() {
+        return maxSeries;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.MetricRegistryMXBean#setMaxSeries(int)
+     */
+    @Override
+    public void setMaxSeries(final int maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.MetricRegistryMXBean#reset()
+     */
+    @Override
+    public void reset() {
+        for (final LabeledMetric metric : metrics.values()) {
+            metric.reset();
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+/**
+ * Metric registry MBean
+ *
+ * @author Dinesh Ilindra
+ */
+public interface MetricRegistryMXBean {
+
+    /**
+     * @return all the series as name{label=value,...}=value
+     */
+    String[] getSeries();
+
+    /**
+     * @return the total no. of series across the metrics
+     */
+    int getSeriesCount();
+
+    /**
+     * @return the no. of updates that went to the overflow series
+     */
+    long getOverflowCount();
+
+    /**
+     * @return the max series per metric for the metrics created from now on
+     */
+    int getMaxSeries();
+
+    /**
+     * @param maxSeries
+     *            the max series per metric for the metrics created from now on
+     */
+    void setMaxSeries(int maxSeries);
+
+    /**
+     * Reset all the values, the series are retained.
+     */
+    void reset();
+
+}
@@ -0,0 +1,776 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads the Linux /proc statistics of this process, memory, network and disks by parsing the
+ * files directly into preallocated arrays, instead of forking a process per sample. The files
+ * are kept open and re-read from the start into one reusable buffer.
+ *
+ * @author Dinesh Ilindra
+ */
+public class ProcStats {
+
+    /**
+     * Fields of /proc/self/stat
+     */
+    public static enum ProcessStat {
+
+        /**
+         * user mode cpu in clock ticks
+         */
+        USER_TICKS(14),
+
+        /**
+         * kernel mode cpu in clock ticks
+         */
+        SYSTEM_TICKS(15),
+
+        /**
+         * no. of threads
+         */
+        THREADS(20),
+
+        /**
+         * virtual memory size in bytes
+         */
+        VIRTUAL_BYTES(23),
+
+        /**
+         * resident set size in pages
+         */
+        RESIDENT_PAGES(24);
+
+        private final int field;
+
+        private ProcessStat(final int field) {
+            this.field = field;
+        }
+    }
+
+    /**
+     * Fields of /proc/self/io
+     */
+    public static enum IoStat {
+
+        /**
+         * chars read
+         */
+        RCHAR("rchar"),
+
+        /**
+         * chars written
+         */
+        WCHAR("wchar"),
+
+        /**
+         * read syscalls
+         */
+        SYSCR("syscr"),
+
+        /**
+         * write syscalls
+         */
+        SYSCW("syscw"),
+
+        /**
+         * bytes read from storage
+         */
+        READ_BYTES("read_bytes"),
+
+        /**
+         * bytes written to storage
+         */
+        WRITE_BYTES("write_bytes"),
+
+        /**
+         * bytes whose write was cancelled
+         */
+        CANCELLED_WRITE_BYTES("cancelled_write_bytes");
+
+        private final byte[] key;
+
+        private IoStat(final String key) {
+            this.key = key.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Fields of /proc/meminfo, in kB
+     */
+    public static enum MemStat {
+
+        /**
+         * total memory
+         */
+        MEM_TOTAL("MemTotal"),
+
+        /**
+         * free memory
+         */
+        MEM_FREE("MemFree"),
+
+        /**
+         * available memory
+         */
+        MEM_AVAILABLE("MemAvailable"),
+
+        /**
+         * buffers
+         */
+        BUFFERS("Buffers"),
+
+        /**
+         * page cache
+         */
+        CACHED("Cached"),
+
+        /**
+         * total swap
+         */
+        SWAP_TOTAL("SwapTotal"),
+
+        /**
+         * free swap
+         */
+        SWAP_FREE("SwapFree");
+
+        private final byte[] key;
+
+        private MemStat(final String key) {
+            this.key = key.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Columns of /proc/net/dev
+     */
+    public static enum NetStat {
+
+        /**
+         * received bytes
+         */
+        RX_BYTES,
+
+        /**
+         * received packets
+         */
+        RX_PACKETS,
+
+        /**
+         * receive errors
+         */
+        RX_ERRORS,
+
+        /**
+         * receive drops
+         */
+        RX_DROPPED,
+
+        /**
+         * transmitted bytes
+         */
+        TX_BYTES,
+
+        /**
+         * transmitted packets
+         */
+        TX_PACKETS,
+
+        /**
+         * transmit errors
+         */
+        TX_ERRORS,
+
+        /**
+         * transmit drops
+         */
+        TX_DROPPED;
+
+        private static final int[] COLUMNS = { 0, 1, 2, 3, 8, 9, 10, 11 };
+    }
+
+    /**
+     * Columns of /proc/diskstats
+     */
+    public static enum DiskStat {
+
+        /**
+         * reads completed
+         */
+        READS,
+
+        /**
+         * reads merged
+         */
+        READS_MERGED,
+
+        /**
+         * sectors read
+         */
+        SECTORS_READ,
+
+        /**
+         * millis spent reading
+         */
+        READ_MILLIS,
+
+        /**
+         * writes completed
+         */
+        WRITES,
+
+        /**
+         * writes merged
+         */
+        WRITES_MERGED,
+
+        /**
+         * sectors written
+         */
+        SECTORS_WRITTEN,
+
+        /**
+         * millis spent writing
+         */
+        WRITE_MILLIS,
+
+        /**
+         * I/Os currently in progress
+         */
+        IOS_IN_PROGRESS,
+
+        /**
+         * millis spent doing I/Os
+         */
+        IO_MILLIS,
+
+        /**
+         * weighted millis spent doing I/Os
+         */
+        WEIGHTED_IO_MILLIS,
+    }
+
+    /**
+     * Named rows of long columns, the rows are added when first seen and kept afterwards.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class Table {
+
+        private final String[] names;
+        private final long[] values;
+        private final boolean[] present;
+        private final int columns;
+        private int size;
+
+        /**
+         * @param maxRows
+         *            the max rows
+         * @param columns
+         *            the columns per row
+         */
+        public Table(final int maxRows, final int columns) {
+            names = new String[maxRows];
+            values = new long[maxRows * columns];
+            present = new boolean[maxRows];
+            this.columns = columns;
+        }
+
+        /**
+         * Find the row for the name in the buffer, adding it when not found.
+         *
+         * @return the row / -1 if full
+         */
+        int row(final byte[] buffer, final int from, final int to) {
+            for (int row = 0; row < size; row++) {
+                if (matches(names[row], buffer, from, to)) {
+                    present[row] = true;
+                    return row;
+                }
+            }
+            if (size == names.length) {
+                return -1;
+            }
+            names[size] = new String(buffer, from, to - from, StandardCharsets.US_ASCII);
+            present[size] = true;
+            return size++;
+        }
+
+        void set(final int row, final int column, final long value) {
+            values[row * columns + column] = value;
+        }
+
+        void clearPresent() {
+            Arrays.fill(present, false);
+        }
+
+        private static boolean matches(final String name, final byte[] buffer, final int from, final int to) {
+            if (name.length() != to - from) {
+                return false;
+            }
+            for (int index = 0; index < name.length(); index++) {
+                if (name.charAt(index) != buffer[from + index]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the no. of rows
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param row
+         *            the row
+         * @return the row name
+         */
+        public String getName(final int row) {
+            return names[row];
+        }
+
+        /**
+         * @param row
+         *            the row
+         * @return true if the row was present in the latest read
+         */
+        public boolean isPresent(final int row) {
+            return present[row];
+        }
+
+        /**
+         * @param row
+         *            the row
+         * @param column
+         *            the column
+         * @return the value
+         */
+        public long get(final int row, final Enum<?> column) {
+            return values[row * columns + column.ordinal()];
+        }
+
+        /**
+         * @param name
+         *            the row name
+         * @param column
+         *            the column
+         * @return the value / -1 if no such row
+         */
+        public long get(final String name, final Enum<?> column) {
+            for (int row = 0; row < size; row++) {
+                if (names[row].equals(name)) {
+                    return get(row, column);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Sum of the column over the present rows except the excluded one.
+         *
+         * @param column
+         *            the column
+         * @param exclude
+         *            the row name to exclude, may be null
+         * @return the total
+         */
+        public long total(final Enum<?> column, final String exclude) {
+            long total = 0;
+            for (int row = 0; row < size; row++) {
+                if (present[row] && !names[row].equals(exclude)) {
+                    total += get(row, column);
+                }
+            }
+            return total;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("{");
+            for (int row = 0; row < size; row++) {
+                if (row > 0) {
+                    builder.append(',');
+                }
+                builder.append('"').append(names[row]).append("\":");
+                builder.append(Arrays.toString(Arrays.copyOfRange(values, row * columns, (row + 1) * columns)));
+            }
+            return builder.append('}').toString();
+        }
+    }
+
+    private static final int MAX_ROWS = 128;
+
+    private static ProcStats instance;
+
+    private final RandomAccessFile[] files = new RandomAccessFile[5];
+    private final File[] paths;
+
+    private byte[] buffer = new byte[16 * 1024];
+    private int limit;
+    private int pos;
+
+    private final long[] processStats = new long[ProcessStat.values().length];
+    private final long[] ioStats = new long[IoStat.values().length];
+    private final long[] memStats = new long[MemStat.values().length];
+    private final Table netStats = new Table(MAX_ROWS, NetStat.values().length);
+    private final Table diskStats = new Table(MAX_ROWS, DiskStat.values().length);
+
+    private final byte[][] ioKeys = new byte[IoStat.values().length][];
+    private final byte[][] memKeys = new byte[MemStat.values().length][];
+
+    private volatile long readCount;
+
+    private final Runnable sampleListener = () -> read();
+
+    /**
+     * Reads from /proc
+     */
+    public ProcStats() {
+        this("/proc");
+    }
+
+    /**
+     * Reads from the given proc root, e.g. a directory of fixture files.
+     *
+     * @param procRoot
+     *            the proc root
+     */
+    public ProcStats(final String procRoot) {
+        paths = new File[] { new File(procRoot, "self/stat"), new File(procRoot, "self/io"),
+                new File(procRoot, "meminfo"), new File(procRoot, "net/dev"), new File(procRoot, "diskstats") };
+        for (final IoStat stat : IoStat.values()) {
+            ioKeys[stat.ordinal()] = stat.key;
+        }
+        for (final MemStat stat : MemStat.values()) {
+            memKeys[stat.ordinal()] = stat.key;
+        }
+    }
+
+    /**
+     * The process wide reader of /proc.
+     *
+     * @return the reader
+     */
+    public static synchronized ProcStats getInstance() {
+        if (instance == null) {
+            instance = new ProcStats();
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if the proc files are present
+     */
+    public boolean isAvailable() {
+        return paths[2].canRead();
+    }
+
+    /**
+     * Read on every sample of the given sampler.
+     *
+     * @param sampler
+     *            the sampler
+     */
+    public void attach(final SystemSampler sampler) {
+        sampler.addSampleListener(sampleListener);
+    }
+
+    /**
+     * Stop reading on the samples of the given sampler.
+     *
+     * @param sampler
+     *            the sampler
+     */
+    public void detach(final SystemSampler sampler) {
+        sampler.removeSampleListener(sampleListener);
+    }
+
+    /**
+     * Read all the files, the missing ones are skipped.
+     */
+    public synchronized void read() {
+        if (load(0)) {
+            parseProcessStat();
+        }
+        if (load(1)) {
+            parseKeyValues(ioKeys, ioStats);
+        }
+        if (load(2)) {
+            parseKeyValues(memKeys, memStats);
+        }
+        if (load(3)) {
+            parseNetDev();
+        }
+        if (load(4)) {
+            parseDiskStats();
+        }
+        readCount++;
+    }
+
+    /**
+     * Close the open files.
+     */
+    public synchronized void close() {
+        for (int index = 0; index < files.length; index++) {
+            IOUtils.closeQuietly(files[index]);
+            files[index] = null;
+        }
+    }
+
+    /**
+     * Load the whole file into the buffer.
+     */
+    private boolean load(final int index) {
+        try {
+            if (files[index] == null) {
+                if (!paths[index].canRead()) {
+                    return false;
+                }
+                files[index] = new RandomAccessFile(paths[index], "r");
+            }
+            final RandomAccessFile file = files[index];
+            file.seek(0);
+            limit = 0;
+            int count;
+            while ((count = file.read(buffer, limit, buffer.length - limit)) > 0) {
+                limit += count;
+                if (limit == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            pos = 0;
+            return true;
+        } catch (final IOException ioe) {
+            IOUtils.closeQuietly(files[index]);
+            files[index] = null;
+            return false;
+        }
+    }
+
+    private void parseProcessStat() {
+        int commEnd = limit - 1;
+        while (commEnd >= 0 && buffer[commEnd] != ')') {
+            commEnd--;
+        }
+        pos = commEnd + 1;
+        // the fields after comm start from the 3rd
+        int field = 3;
+        for (final ProcessStat stat : ProcessStat.values()) {
+            while (field < stat.field) {
+                skipToken();
+                field++;
+            }
+            processStats[stat.ordinal()] = parseLong();
+            field++;
+        }
+    }
+
+    private void parseKeyValues(final byte[][] keys, final long[] stats) {
+        while (pos < limit) {
+            final int keyStart = pos;
+            while (pos < limit && buffer[pos] != ':' && buffer[pos] != '\n') {
+                pos++;
+            }
+            final int keyEnd = pos;
+            if (pos < limit && buffer[pos] == ':') {
+                pos++;
+                for (int index = 0; index < keys.length; index++) {
+                    if (matches(keys[index], keyStart, keyEnd)) {
+                        stats[index] = parseLong();
+                        break;
+                    }
+                }
+            }
+            nextLine();
+        }
+    }
+
+    private void parseNetDev() {
+        netStats.clearPresent();
+        // two header lines
+        nextLine();
+        nextLine();
+        while (pos < limit) {
+            skipSpaces();
+            final int nameStart = pos;
+            while (pos < limit && buffer[pos] != ':' && buffer[pos] != '\n') {
+                pos++;
+            }
+            if (pos < limit && buffer[pos] == ':') {
+                final int row = netStats.row(buffer, nameStart, pos);
+                pos++;
+                int column = 0;
+                for (final NetStat stat : NetStat.values()) {
+                    while (column < NetStat.COLUMNS[stat.ordinal()]) {
+                        skipToken();
+                        column++;
+                    }
+                    final long value = parseLong();
+                    column++;
+                    if (row >= 0) {
+                        netStats.set(row, stat.ordinal(), value);
+                    }
+                }
+            }
+            nextLine();
+        }
+    }
+
+    private void parseDiskStats() {
+        diskStats.clearPresent();
+        while (pos < limit) {
+            // major and minor numbers
+            skipToken();
+            skipToken();
+            skipSpaces();
+            final int nameStart = pos;
+            while (pos < limit && buffer[pos] > ' ') {
+                pos++;
+            }
+            if (pos > nameStart) {
+                final int row = diskStats.row(buffer, nameStart, pos);
+                for (final DiskStat stat : DiskStat.values()) {
+                    final long value = parseLong();
+                    if (row >= 0) {
+                        diskStats.set(row, stat.ordinal(), value);
+                    }
+                }
+            }
+            nextLine();
+        }
+    }
+
+    private boolean matches(final byte[] key, final int from, final int to) {
+        if (key.length != to - from) {
+            return false;
+        }
+        for (int index = 0; index < key.length; index++) {
+            if (key[index] != buffer[from + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipSpaces() {
+        while (pos < limit && (buffer[pos] == ' ' || buffer[pos] == '\t')) {
+            pos++;
+        }
+    }
+
+    private void skipToken() {
+        skipSpaces();
+        while (pos < limit && buffer[pos] > ' ') {
+            pos++;
+        }
+    }
+
+    private void nextLine() {
+        while (pos < limit && buffer[pos] != '\n') {
+            pos++;
+        }
+        pos++;
+    }
+
+    private long parseLong() {
+        skipSpaces();
+        boolean negative = false;
+        if (pos < limit && buffer[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        while (pos < limit && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            value = value * 10 + buffer[pos++] - '0';
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @param stat
+     *            the stat
+     * @return the value from /proc/self/stat
+     */
+    public long get(final ProcessStat stat) {
+        return processStats[stat.ordinal()];
+    }
+
+    /**
+     * @param stat
+     *            the stat
+     * @return the value from /proc/self/io
+     */
+    public long get(final IoStat stat) {
+        return ioStats[stat.ordinal()];
+    }
+
+    /**
+     * @param stat
+     *            the stat
+     * @return the value in kB from /proc/meminfo
+     */
+    public long get(final MemStat stat) {
+        return memStats[stat.ordinal()];
+    }
+
+    /**
+     * @return the per interface stats from /proc/net/dev
+     */
+    public Table getNetStats() {
+        return netStats;
+    }
+
+    /**
+     * @return the per device stats from /proc/diskstats
+     */
+    public Table getDiskStats() {
+        return diskStats;
+    }
+
+    /**
+     * @return the no. of reads done
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (final ProcessStat stat : ProcessStat.values()) {
+            builder.append('"').append(stat).append("\":").append(get(stat)).append(',');
+        }
+        for (final IoStat stat : IoStat.values()) {
+            builder.append('"').append(stat).append("\":").append(get(stat)).append(',');
+        }
+        for (final MemStat stat : MemStat.values()) {
+            builder.append('"').append(stat).append("\":").append(get(stat)).append(',');
+        }
+        builder.append("\"net\":").append(netStats).append(",\"disk\":").append(diskStats);
+        return builder.append('}').toString();
+    }
+
+}
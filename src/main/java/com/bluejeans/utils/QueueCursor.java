@@ -0,0 +1,231 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Cursor over a big queue, handing out index ranges to any no. of consumers and committing them as
+ * they are acknowledged, in any order. The committed index is the end of the contiguous run of
+ * acknowledged ranges from the front, kept in a small mapped file so each commit costs one write.
+ * The queue front itself is moved up to it only on {@link #commitFront()}, and on open the front
+ * is moved to the committed index saved last. The claims are bounded by records, so a frame
+ * counts as the records in it.
+ *
+ * @author Dinesh Ilindra
+ */
+public class QueueCursor implements Closeable {
+
+    private final BigQueue<?> queue;
+
+    private final RandomAccessFile file;
+
+    private final MappedByteBuffer buffer;
+
+    private long committed;
+
+    private long readIndex;
+
+    private final TreeMap<Long, Long> acked = new TreeMap<Long, Long>();
+
+    private final TreeMap<Long, Long> released = new TreeMap<Long, Long>();
+
+    private final TreeMap<Long, Integer> indexRecords = new TreeMap<Long, Integer>();
+
+    private long claimedRecords;
+
+    /**
+     * @param queue
+     *            the big queue
+     * @param cursorFile
+     *            the file to keep the committed index in
+     * @throws IOException
+     *             if problem with the file
+     */
+    public QueueCursor(final BigQueue<?> queue, final File cursorFile) throws IOException {
+        this.queue = queue;
+        file = new RandomAccessFile(cursorFile, "rw");
+        final boolean created = file.length() < 8;
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        committed = Math.max(created ? 0 : buffer.getLong(0), queue.getFrontIndex());
+        readIndex = committed;
+        commitFront();
+    }
+
+    /**
+     * Claim indexes until they have the given no. of records, the released ones first.
+     *
+     * @param max
+     *            the max no. of records, gone over by the last frame if needed
+     * @return the from (inclusive) and to (exclusive) indexes, null if nothing to claim
+     */
+    public synchronized long[] claim(final int max) {
+        final Map.Entry<Long, Long> first = released.pollFirstEntry();
+        if (first != null) {
+            long to = first.getKey();
+            for (int records = 0; to < first.getValue() && records < max; to++) {
+                records += records(to);
+            }
+            if (to < first.getValue()) {
+                released.put(to, first.getValue());
+            }
+            return new long[] { first.getKey(), to };
+        }
+        final long back = queue.getBackIndex();
+        long to = readIndex;
+        for (int records = 0; to < back && records < max; to++) {
+            records += records(to);
+        }
+        if (to <= readIndex) {
+            return null;
+        }
+        final long[] range = new long[] { readIndex, to };
+        readIndex = to;
+        return range;
+    }
+
+    /**
+     * The records at the index being claimed, read from the queue the first time.
+     *
+     * @param index
+     *            the index
+     * @return the no. of records
+     */
+    private int records(final long index) {
+        Integer count = indexRecords.get(index);
+        if (count == null) {
+            count = BigQueue.recordCount(queue.get(index));
+            indexRecords.put(index, count);
+        }
+        claimedRecords += count;
+        return count;
+    }
+
+    /**
+     * Acknowledge the range as done, committing if it continues the committed run.
+     *
+     * @param from
+     *            the from index, inclusive
+     * @param to
+     *            the to index, exclusive
+     */
+    public synchronized void ack(final long from, final long to) {
+        if (to <= from) {
+            return;
+        }
+        acked.put(from, to);
+        Long next;
+        final long before = committed;
+        while ((next = acked.remove(committed)) != null) {
+            committed = next;
+        }
+        if (committed != before) {
+            buffer.putLong(0, committed);
+        }
+    }
+
+    /**
+     * Release the range to be claimed again.
+     *
+     * @param from
+     *            the from index, inclusive
+     * @param to
+     *            the to index, exclusive
+     */
+    public synchronized void release(final long from, final long to) {
+        if (to > from) {
+            released.put(from, to);
+            for (final int count : indexRecords.subMap(from, to).values()) {
+                claimedRecords -= count;
+            }
+        }
+    }
+
+    /**
+     * Complete a claimed range, acknowledging all but the failed indexes which are released.
+     *
+     * @param from
+     *            the from index, inclusive
+     * @param to
+     *            the to index, exclusive
+     * @param failedIndexes
+     *            the failed indexes
+     */
+    public synchronized void complete(final long from, final long to, final Set<Long> failedIndexes) {
+        long start = from;
+        for (final long failed : new TreeSet<Long>(failedIndexes)) {
+            if (failed < from || failed >= to) {
+                continue;
+            }
+            ack(start, failed);
+            release(failed, failed + 1);
+            start = failed + 1;
+        }
+        ack(start, to);
+    }
+
+    /**
+     * Move the queue front up to the committed index.
+     *
+     * @return the no. of elements dequeued
+     */
+    public int commitFront() {
+        final long upTo;
+        synchronized (this) {
+            upTo = committed;
+        }
+        final int dequeued = queue.commit(upTo);
+        synchronized (this) {
+            final Map<Long, Integer> done = indexRecords.headMap(upTo);
+            for (final int count : done.values()) {
+                claimedRecords -= count;
+            }
+            done.clear();
+        }
+        return dequeued;
+    }
+
+    /**
+     * @return the no. of records not claimed yet, including the released ones
+     */
+    public synchronized long getUnclaimed() {
+        return Math.max(0, queue.recordSize() - claimedRecords);
+    }
+
+    /**
+     * @return the committed
+     */
+    public synchronized long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return the readIndex
+     */
+    public synchronized long getReadIndex() {
+        return readIndex;
+    }
+
+    /**
+     * Force the committed index to disk, move the front and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            buffer.force();
+        }
+        commitFront();
+        file.close();
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * Bounded LRU cache of compiled scripts by script text, for engines that can compile. Each thread
+ * evaluates with its own engine scope bindings, over the shared engine bindings as global scope.
+ *
+ * @author Dinesh Ilindra
+ */
+public class ScriptCache implements ScriptCacheMXBean {
+
+    private final Map<String, CompiledScript> compiledScripts = new LinkedHashMap<String, CompiledScript>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 7453420512361526743L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CompiledScript> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private volatile ScriptEngine engine;
+
+    private volatile ThreadLocal<ScriptContext> threadContext;
+
+    private volatile int maxSize;
+
+    /**
+     * @param engine
+     *            the engine
+     * @param maxSize
+     *            the max no. of compiled scripts
+     */
+    public ScriptCache(final ScriptEngine engine, final int maxSize) {
+        this.maxSize = maxSize;
+        setEngine(engine);
+    }
+
+    /**
+     * Switch to the given engine, dropping the compiled scripts.
+     *
+     * @param engine
+     *            the engine
+     */
+    public void setEngine(final ScriptEngine engine) {
+        clear();
+        this.engine = engine;
+        threadContext = ThreadLocal.withInitial(() -> {
+            final ScriptContext context = new SimpleScriptContext();
+            context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+            context.setBindings(engine.getBindings(ScriptContext.ENGINE_SCOPE), ScriptContext.GLOBAL_SCOPE);
+            return context;
+        });
+    }
+
+    /**
+     * Evaluate the script, compiling it only if not cached.
+     *
+     * @param script
+     *            the script
+     * @return the result
+     * @throws ScriptException
+     *             if problem compiling or evaluating
+     */
+    public Object eval(final String script) throws ScriptException {
+        final ScriptEngine current = engine;
+        final ScriptContext context = threadContext.get();
+        if (!(current instanceof Compilable) || maxSize <= 0) {
+            misses.increment();
+            return current.eval(script, context);
+        }
+        CompiledScript compiled;
+        synchronized (compiledScripts) {
+            compiled = compiledScripts.get(script);
+        }
+        if (compiled == null) {
+            misses.increment();
+            compiled = ((Compilable) current).compile(script);
+            synchronized (compiledScripts) {
+                compiledScripts.put(script, compiled);
+            }
+        } else {
+            hits.increment();
+        }
+        return compiled.eval(context);
+    }
+
+    /**
+     * @return the engine
+     */
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#getHits()
+     */
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#getMisses()
+     */
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#getHitRatio()
+     */
+    @Override
+    public double getHitRatio() {
+        final long hitCount = hits.sum();
+        final long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#getSize()
+     */
+    @Override
+    public int getSize() {
+        synchronized (compiledScripts) {
+            return compiledScripts.size();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#getMaxSize()
+     */
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#setMaxSize(int)
+     */
+    @Override
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+        synchronized (compiledScripts) {
+            while (compiledScripts.size() > Math.max(0, maxSize)) {
+                compiledScripts.remove(compiledScripts.keySet().iterator().next());
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.ScriptCacheMXBean#clear()
+     */
+    @Override
+    public void clear() {
+        synchronized (compiledScripts) {
+            compiledScripts.clear();
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+/**
+ * Script cache MBean
+ *
+ * @author Dinesh Ilindra
+ */
+public interface ScriptCacheMXBean {
+
+    /**
+     * @return the no. of evaluations that found the script compiled
+     */
+    long getHits();
+
+    /**
+     * @return the no. of evaluations that had to compile the script
+     */
+    long getMisses();
+
+    /**
+     * @return the hits by total evaluations
+     */
+    double getHitRatio();
+
+    /**
+     * @return the no. of compiled scripts cached
+     */
+    int getSize();
+
+    /**
+     * @return the max no. of compiled scripts cached
+     */
+    int getMaxSize();
+
+    /**
+     * @param maxSize
+     *            the max no. of compiled scripts cached
+     */
+    void setMaxSize(int maxSize);
+
+    /**
+     * Drop all the compiled scripts.
+     */
+    void clear();
+
+}
@@ -0,0 +1,622 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.bluejeans.bigqueue.ItemIterator;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Big queue striping the elements across many shard queues, each with its own page files, locks
+ * and possibly its own disk. Elements go to the shards by round robin, or by the hash of their key
+ * when a key is given or a key function is set, so elements of a key keep their order. The whole
+ * queue consumption starts at a different shard on each call, so concurrent consumers mostly work
+ * on different shards, and a consumer per shard can use the shard specific methods.
+ * <p>
+ * Shard 0 is at the first dir with the queue name, so a plain big queue can be sharded later
+ * without losing what is in it. Shard i is at dir i modulo the no. of dirs, with the queue name
+ * suffixed by "-i". This queue itself is at the first dir with the queue name suffixed by
+ * "-shards" and is kept empty. There is no global index across the shards, so the index based
+ * methods are not supported. With compression, the round robin elements are framed here and the
+ * keyed ones in their shard, to keep the order of a key.
+ *
+ * @author Dinesh Ilindra
+ * @param <E>
+ *            the entity type
+ */
+public class ShardedBigQueue<E> extends BigQueue<E> {
+
+    private final List<BigQueue<E>> shards = new ArrayList<BigQueue<E>>();
+
+    private final int shardCount;
+
+    private final AtomicInteger writeShard = new AtomicInteger();
+
+    private final AtomicInteger readShard = new AtomicInteger();
+
+    private final ThreadLocal<Deque<Integer>> lastPeek = new ThreadLocal<Deque<Integer>>();
+
+    private Function<E, Object> keyFunction;
+
+    /**
+     * @param queueDirs
+     *            the dirs to spread the shards on
+     * @param queueName
+     *            the queue name
+     * @param shardCount
+     *            the no. of shards
+     * @param pageSize
+     *            the page size
+     * @param entityType
+     *            the entity type, null to find out from the elements
+     */
+    public ShardedBigQueue(final String[] queueDirs, final String queueName, final int shardCount,
+            final int pageSize, final Class<E> entityType) {
+        super(queueDirs[0], queueName + "-shards", pageSize, entityType);
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1 - " + shardCount);
+        }
+        this.shardCount = shardCount;
+        for (int shard = 0; shard < shardCount; shard++) {
+            shards.add(new BigQueue<E>(queueDirs[shard % queueDirs.length],
+                    shard == 0 ? queueName : queueName + "-" + shard, pageSize, entityType));
+        }
+    }
+
+    /**
+     * One shard per dir.
+     *
+     * @param queueDirs
+     *            the dirs to spread the shards on
+     * @param queueName
+     *            the queue name
+     * @param pageSize
+     *            the page size
+     */
+    public ShardedBigQueue(final String[] queueDirs, final String queueName, final int pageSize) {
+        this(queueDirs, queueName, queueDirs.length, pageSize, null);
+    }
+
+    private int shardOf(final Object key) {
+        return Math.floorMod(key.hashCode(), shardCount);
+    }
+
+    private void enqueue(final int shard, final byte[] data) {
+        shards.get(shard).enqueue(data);
+    }
+
+    private List<byte[]> dequeueMulti(final int shard, final int max, final boolean peek) {
+        return peek ? shards.get(shard).peekMulti(max) : shards.get(shard).dequeueMulti(max);
+    }
+
+    /**
+     * Take from the shards in turn starting at the given one.
+     *
+     * @param start
+     *            the shard to start at
+     * @param max
+     *            the max no. in all
+     * @param peek
+     *            whether to only peek
+     * @param taken
+     *            to record the shard of each taken, null to not record
+     * @return the raw bytes
+     */
+    private List<byte[]> takeMulti(final int start, final int max, final boolean peek, final Deque<Integer> taken) {
+        final List<byte[]> result = new ArrayList<byte[]>();
+        for (int step = 0; step < shardCount && result.size() < max; step++) {
+            final int shard = (start + step) % shardCount;
+            final List<byte[]> shardResult = dequeueMulti(shard, max - result.size(), peek);
+            result.addAll(shardResult);
+            if (taken != null) {
+                for (int index = 0; index < shardResult.size(); index++) {
+                    taken.add(shard);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Enqueue to the shard of the key.
+     *
+     * @param key
+     *            the key
+     * @param data
+     *            the raw bytes
+     */
+    public void enqueue(final Object key, final byte[] data) {
+        enqueue(shardOf(key), data);
+    }
+
+    /**
+     * Push to the shard of the key.
+     *
+     * @param key
+     *            the key
+     * @param element
+     *            the element
+     */
+    public void push(final Object key, final E element) {
+        shards.get(shardOf(key)).push(element);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#push(java.lang.Object)
+     */
+    @Override
+    public void push(final E element) {
+        if (keyFunction == null) {
+            super.push(element);
+        } else {
+            push(keyFunction.apply(element), element);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#enqueue(byte[])
+     */
+    @Override
+    public void enqueue(final byte[] data) {
+        enqueue(Math.floorMod(writeShard.getAndIncrement(), shardCount), data);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#dequeue()
+     */
+    @Override
+    public byte[] dequeue() {
+        final List<byte[]> result = dequeueMulti(1);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Dequeue from the shards in turn, starting at the next shard. If the calling thread peeked
+     * last, the first ones peeked are dequeued first, each from the shard it was peeked from.
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#dequeueMulti(int)
+     */
+    @Override
+    public List<byte[]> dequeueMulti(final int max) {
+        final int start = Math.floorMod(readShard.getAndIncrement(), shardCount);
+        final Deque<Integer> peeked = lastPeek.get();
+        if (peeked == null) {
+            return takeMulti(start, max, false, null);
+        }
+        final List<byte[]> result = new ArrayList<byte[]>();
+        while (result.size() < max && !peeked.isEmpty()) {
+            final int shard = peeked.peek();
+            int count = 0;
+            while (count < max - result.size() && !peeked.isEmpty() && peeked.peek() == shard) {
+                peeked.poll();
+                count++;
+            }
+            final List<byte[]> shardResult = dequeueMulti(shard, count, false);
+            result.addAll(shardResult);
+            if (shardResult.size() < count) {
+                // dequeued by another consumer meanwhile, the peek is stale
+                peeked.clear();
+            }
+        }
+        if (peeked.isEmpty()) {
+            lastPeek.remove();
+        }
+        if (result.size() < max) {
+            result.addAll(takeMulti(start, max - result.size(), false, null));
+        }
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#peek()
+     */
+    @Override
+    public byte[] peek() {
+        final List<byte[]> result = peekMulti(1);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Peek from the shards in turn, starting at the shard the next dequeue starts at. The shard of
+     * each peeked is remembered for the next dequeues in this thread.
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#peekMulti(int)
+     */
+    @Override
+    public List<byte[]> peekMulti(final int max) {
+        final Deque<Integer> taken = new ArrayDeque<Integer>();
+        final List<byte[]> result = takeMulti(Math.floorMod(readShard.get(), shardCount), max, true, taken);
+        lastPeek.set(taken);
+        return result;
+    }
+
+    /**
+     * Peek from the shards in turn like {@link #peekMulti(int)}, until the entries have the max
+     * records.
+     *
+     * @see com.bluejeans.utils.BigQueue#peekRecords(int)
+     */
+    @Override
+    protected List<byte[]> peekRecords(final int maxElements) {
+        final Deque<Integer> taken = new ArrayDeque<Integer>();
+        final List<byte[]> result = new ArrayList<byte[]>();
+        final int start = Math.floorMod(readShard.get(), shardCount);
+        int records = 0;
+        for (int step = 0; step < shardCount && records < maxElements; step++) {
+            final int shard = (start + step) % shardCount;
+            for (final byte[] data : shards.get(shard).peekRecords(maxElements - records)) {
+                result.add(data);
+                taken.add(shard);
+                records += recordCount(data);
+            }
+        }
+        lastPeek.set(taken);
+        return result;
+    }
+
+    /**
+     * Dequeue from the given shard only, for a consumer per shard.
+     *
+     * @param shard
+     *            the shard
+     * @param max
+     *            the max no. of elements
+     * @return the raw bytes
+     */
+    public List<byte[]> dequeueShard(final int shard, final int max) {
+        return dequeueMulti(shard, max, false);
+    }
+
+    /**
+     * Drain whole entries from the given shard only, for a consumer per shard.
+     *
+     * @param shard
+     *            the shard
+     * @param c
+     *            the collection to drain to
+     * @param maxElements
+     *            the max no. of elements, gone over by the last frame if needed
+     * @return the no. of records dequeued
+     */
+    public int drainShardTo(final int shard, final Collection<? super E> c, final int maxElements) {
+        int records = 0;
+        while (records < maxElements) {
+            final byte[] data = shards.get(shard).dequeue();
+            if (data == null) {
+                break;
+            }
+            records += recordCount(data);
+            c.addAll(elements(data));
+        }
+        return records;
+    }
+
+    /**
+     * @param shard
+     *            the shard
+     * @return the size of the shard
+     */
+    public long shardSize(final int shard) {
+        return shards.get(shard).size();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#size()
+     */
+    @Override
+    public long size() {
+        long size = 0;
+        for (final BigQueue<E> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#recordSize()
+     */
+    @Override
+    public long recordSize() {
+        long size = 0;
+        for (final BigQueue<E> shard : shards) {
+            size += shard.recordSize();
+        }
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#isEmpty()
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#removeAll()
+     */
+    @Override
+    public void removeAll() {
+        for (final BigQueue<E> shard : shards) {
+            shard.removeAll();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#applyForEach(com.bluejeans.bigqueue.ItemIterator)
+     */
+    @Override
+    public void applyForEach(final ItemIterator iterator) {
+        for (final BigQueue<E> shard : shards) {
+            shard.applyForEach(iterator);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#gc()
+     */
+    @Override
+    public void gc() {
+        for (final BigQueue<E> shard : shards) {
+            shard.gc();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#flush()
+     */
+    @Override
+    public void flush() {
+        flushFrame();
+        for (final BigQueue<E> shard : shards) {
+            shard.flush();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#prepareNextPage(boolean)
+     */
+    @Override
+    public boolean prepareNextPage(final boolean touch) {
+        boolean prepared = false;
+        for (final BigQueue<E> shard : shards) {
+            prepared |= shard.prepareNextPage(touch);
+        }
+        return prepared;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#close()
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        for (final BigQueue<E> shard : shards) {
+            shard.close();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#dequeueAsync()
+     */
+    @Override
+    public ListenableFuture<byte[]> dequeueAsync() {
+        throw new UnsupportedOperationException("Async dequeue is not supported across shards");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.bigqueue.BigQueue#peekAsync()
+     */
+    @Override
+    public ListenableFuture<byte[]> peekAsync() {
+        throw new UnsupportedOperationException("Async peek is not supported across shards");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#getFrontIndex()
+     */
+    @Override
+    public long getFrontIndex() {
+        throw new UnsupportedOperationException("No global index across shards");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#getBackIndex()
+     */
+    @Override
+    public long getBackIndex() {
+        throw new UnsupportedOperationException("No global index across shards");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#get(long)
+     */
+    @Override
+    public byte[] get(final long index) {
+        throw new UnsupportedOperationException("No global index across shards");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#commit(long)
+     */
+    @Override
+    public int commit(final long index) {
+        throw new UnsupportedOperationException("No global index across shards");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#setEntityType(java.lang.Class)
+     */
+    @Override
+    public void setEntityType(final Class<E> entityType) {
+        super.setEntityType(entityType);
+        for (final BigQueue<E> shard : shards) {
+            shard.setEntityType(entityType);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#flushFrame()
+     */
+    @Override
+    public int flushFrame() {
+        int count = super.flushFrame();
+        for (final BigQueue<E> shard : shards) {
+            count += shard.flushFrame();
+        }
+        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#getFrameStat(com.bluejeans.utils.BigQueue.FrameStat)
+     */
+    @Override
+    public long getFrameStat(final FrameStat stat) {
+        long value = super.getFrameStat(stat);
+        for (final BigQueue<E> shard : shards) {
+            value += shard.getFrameStat(stat);
+        }
+        return value;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#setCompression(com.bluejeans.utils.BigQueue.Compression)
+     */
+    @Override
+    public void setCompression(final Compression compression) {
+        super.setCompression(compression);
+        for (final BigQueue<E> shard : shards) {
+            shard.setCompression(compression);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#setRecordHeader(boolean)
+     */
+    @Override
+    public void setRecordHeader(final boolean recordHeader) {
+        super.setRecordHeader(recordHeader);
+        for (final BigQueue<E> shard : shards) {
+            shard.setRecordHeader(recordHeader);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#setFrameRecords(int)
+     */
+    @Override
+    public void setFrameRecords(final int frameRecords) {
+        super.setFrameRecords(frameRecords);
+        for (final BigQueue<E> shard : shards) {
+            shard.setFrameRecords(frameRecords);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#setFrameBytes(int)
+     */
+    @Override
+    public void setFrameBytes(final int frameBytes) {
+        super.setFrameBytes(frameBytes);
+        for (final BigQueue<E> shard : shards) {
+            shard.setFrameBytes(frameBytes);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.BigQueue#setDummyElement(java.lang.Object)
+     */
+    @Override
+    public void setDummyElement(final E dummyElement) {
+        super.setDummyElement(dummyElement);
+        for (final BigQueue<E> shard : shards) {
+            shard.setDummyElement(dummyElement);
+        }
+    }
+
+    /**
+     * @return the shardCount
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @return the keyFunction
+     */
+    public Function<E, Object> getKeyFunction() {
+        return keyFunction;
+    }
+
+    /**
+     * @param keyFunction
+     *            gives the key to pick the shard of an element by, null for round robin
+     */
+    public void setKeyFunction(final Function<E, Object> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+}
@@ -18,23 +18,252 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.ClassUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * The tester class for testing all the Get and Set methods in the classes in
  * the given package / for the list of specified objects.
  *
+ * The invocations are run on a bounded pool of daemon threads, each one
+ * guarded by a timeout, and the outcome of every run is collected in a
+ * {@link Report}.
+ *
  * @author Dinesh Ilindra
  */
 public class SuperTester {
 
+    /**
+     * Invocation status
+     */
+    public static enum Status {
+
+        /**
+         * invocation returned normally
+         */
+        PASSED,
+
+        /**
+         * invocation threw an exception
+         */
+        FAILED,
+
+        /**
+         * invocation did not complete within the timeout
+         */
+        TIMED_OUT,
+    }
+
+    /**
+     * The result of one method invocation.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class Result {
+
+        private final Method method;
+        private final Status status;
+        private final long durationNanos;
+        private final Throwable error;
+
+        /**
+         * @param method
+         *            the method
+         * @param status
+         *            the status
+         * @param durationNanos
+         *            the duration in nanos
+         * @param error
+         *            the error if any
+         */
+        public Result(final Method method, final Status status, final long durationNanos, final Throwable error) {
+            this.method = method;
+            this.status = status;
+            this.durationNanos = durationNanos;
+            this.error = error;
+        }
+
+        /**
+         * @return the method
+         */
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the status
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the durationNanos
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return the error
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return method.getDeclaringClass().getName() + "." + method.getName() + " : " + status + " in "
+                    + TimeUnit.NANOSECONDS.toMicros(durationNanos) + "us" + (error == null ? "" : " - " + error);
+        }
+    }
+
+    /**
+     * The structured report of a test run.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class Report {
+
+        private final EnumCounter<Status> statusCounter = new EnumCounter<Status>(Status.class);
+        private final Queue<Result> results = new ConcurrentLinkedQueue<Result>();
+        private final AtomicLong invocationNanos = new AtomicLong();
+        private final AtomicLong wallNanos = new AtomicLong();
+
+        /**
+         * Add a result.
+         *
+         * @param result
+         *            the result
+         */
+        void add(final Result result) {
+            results.add(result);
+            statusCounter.incrementEventCount(result.getStatus());
+            invocationNanos.addAndGet(result.getDurationNanos());
+        }
+
+        /**
+         * @return the statusCounter
+         */
+        public EnumCounter<Status> getStatusCounter() {
+            return statusCounter;
+        }
+
+        /**
+         * @return the results
+         */
+        public List<Result> getResults() {
+            return new ArrayList<Result>(results);
+        }
+
+        /**
+         * @return the results which did not pass
+         */
+        public List<Result> getFailures() {
+            final List<Result> failures = new ArrayList<Result>();
+            for (final Result result : results) {
+                if (result.getStatus() != Status.PASSED) {
+                    failures.add(result);
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * @return the total invocations
+         */
+        public long getTotal() {
+            return getPassed() + getFailed() + getTimedOut();
+        }
+
+        /**
+         * @return the passed count
+         */
+        public long getPassed() {
+            return statusCounter.getValue(Status.PASSED.name());
+        }
+
+        /**
+         * @return the failed count
+         */
+        public long getFailed() {
+            return statusCounter.getValue(Status.FAILED.name());
+        }
+
+        /**
+         * @return the timed out count
+         */
+        public long getTimedOut() {
+            return statusCounter.getValue(Status.TIMED_OUT.name());
+        }
+
+        /**
+         * @return the sum of all the invocation durations in millis
+         */
+        public long getInvocationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(invocationNanos.get());
+        }
+
+        /**
+         * @return the wall clock duration of the runs in millis
+         */
+        public long getWallMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(wallNanos.get());
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "total=" + getTotal() + ", passed=" + getPassed() + ", failed=" + getFailed() + ", timedOut="
+                    + getTimedOut() + ", invocationMillis=" + getInvocationMillis() + ", wallMillis="
+                    + getWallMillis();
+        }
+    }
+
+    /**
+     * Marks the absence of an instance in the param cache.
+     */
+    private static final Object NO_INSTANCE = new Object();
+
     /**
      * The list of the objects to test.
      */
     private final transient Object[] objects;
 
+    private final Map<Class<?>, Constructor<?>> constructorCache = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    private final Map<Class<?>, Object> paramCache = new ConcurrentHashMap<Class<?>, Object>();
+
+    private int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private long invocationTimeoutMillis = 5000;
+
+    private Report report = new Report();
+
     /**
      * Constructs the Tester with supplied list of objects.
      *
@@ -128,14 +357,19 @@ public class SuperTester {
      */
     public void testGetters() throws IllegalAccessException, InvocationTargetException, InstantiationException,
             NoSuchMethodException, NoSuchFieldException, ClassNotFoundException {
+        final List<Object[]> invocations = new ArrayList<Object[]>();
         for (final Object object : objects) {
+            if (object == null) {
+                continue;
+            }
             final Method[] methods = object.getClass().getMethods();
             for (final Method method : methods) {
                 if (method.getName().startsWith("get") && method.getParameterTypes().length == 0) {
-                    invokeMethod(method, object);
+                    addInvocation(invocations, method, object);
                 }
             }
         }
+        invokeAll(invocations);
     }
 
     /**
@@ -156,14 +390,19 @@ public class SuperTester {
      */
     public void testSetters() throws IllegalAccessException, InvocationTargetException, InstantiationException,
             NoSuchMethodException, NoSuchFieldException, ClassNotFoundException {
+        final List<Object[]> invocations = new ArrayList<Object[]>();
         for (final Object object : objects) {
+            if (object == null) {
+                continue;
+            }
             final Method[] methods = object.getClass().getMethods();
             for (final Method method : methods) {
                 if (method.getName().startsWith("set") && method.getParameterTypes().length == 1) {
-                    invokeMethod(method, object);
+                    addInvocation(invocations, method, object);
                 }
             }
         }
+        invokeAll(invocations);
     }
 
     /**
@@ -184,42 +423,129 @@ public class SuperTester {
      */
     public void testPublics() throws IllegalAccessException, InvocationTargetException, InstantiationException,
             NoSuchMethodException, NoSuchFieldException, ClassNotFoundException {
+        final List<Object[]> invocations = new ArrayList<Object[]>();
         for (final Object object : objects) {
+            if (object == null) {
+                continue;
+            }
             final Method[] methods = object.getClass().getMethods();
             for (final Method method : methods) {
-                invokeMethod(method, object);
+                addInvocation(invocations, method, object);
             }
         }
+        invokeAll(invocations);
     }
 
     /**
-     * Invokes the specified method on given object by constructing param
-     * instances as necessary.
+     * Adds the method invocation on given object if it qualifies for testing.
      *
+     * @param invocations
+     *            the invocations
      * @param method
      *            the method
      * @param object
      *            the object
      */
-    private void invokeMethod(final Method method, final Object object) {
-        new Thread(new Runnable() {
+    private void addInvocation(final List<Object[]> invocations, final Method method, final Object object) {
+        if (belogToClass(method, object.getClass()) && !isTestMethod(method)) {
+            invocations.add(new Object[] { method, object });
+        }
+    }
 
-            @Override
-            public void run() {
-                try {
-                    if (belogToClass(method, object.getClass()) && !isTestMethod(method)) {
-                        final Class<?>[] paramTypes = method.getParameterTypes();
-                        final Object[] params = new Object[paramTypes.length];
-                        for (int index = 0; index < params.length; index++) {
-                            params[index] = createInstance(paramTypes[index]);
-                        }
-                        method.invoke(object, params);
+    /**
+     * Invokes all the given methods on their objects on a bounded pool, each
+     * one guarded by the invocation timeout, and waits for them to complete.
+     *
+     * @param invocations
+     *            the method and object pairs
+     */
+    private void invokeAll(final List<Object[]> invocations) {
+        if (invocations.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("super-tester-%d").build());
+        final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("super-tester-watchdog").build());
+        final CountDownLatch latch = new CountDownLatch(invocations.size());
+        final List<AtomicBoolean> doneFlags = new ArrayList<AtomicBoolean>(invocations.size());
+        try {
+            for (final Object[] invocation : invocations) {
+                final AtomicBoolean done = new AtomicBoolean();
+                doneFlags.add(done);
+                executor.execute(() -> invokeMethod((Method) invocation[0], invocation[1], done, latch, watchdog));
+            }
+            final long maxWait = invocationTimeoutMillis * (invocations.size() / parallelism + 1);
+            if (!latch.await(maxWait, TimeUnit.MILLISECONDS)) {
+                for (int index = 0; index < invocations.size(); index++) {
+                    if (doneFlags.get(index).compareAndSet(false, true)) {
+                        report.add(new Result((Method) invocations.get(index)[0], Status.TIMED_OUT,
+                                TimeUnit.MILLISECONDS.toNanos(invocationTimeoutMillis), null));
                     }
-                } catch (final Exception ex) {
-                    // do nothing.
                 }
             }
-        }).start();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+            report.wallNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Invokes the specified method on given object by constructing param
+     * instances as necessary.
+     *
+     * @param method
+     *            the method
+     * @param object
+     *            the object
+     * @param done
+     *            the completion flag shared with the watchdog
+     * @param latch
+     *            the latch to count down on completion
+     * @param watchdog
+     *            the timeout scheduler
+     */
+    private void invokeMethod(final Method method, final Object object, final AtomicBoolean done,
+            final CountDownLatch latch, final ScheduledExecutorService watchdog) {
+        if (done.get()) {
+            return;
+        }
+        Thread.interrupted();
+        final Thread worker = Thread.currentThread();
+        final long start = System.nanoTime();
+        final ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                report.add(new Result(method, Status.TIMED_OUT, System.nanoTime() - start, null));
+                latch.countDown();
+                worker.interrupt();
+            }
+        }, invocationTimeoutMillis, TimeUnit.MILLISECONDS);
+        Status status = Status.PASSED;
+        Throwable error = null;
+        try {
+            final Class<?>[] paramTypes = method.getParameterTypes();
+            final Object[] params = new Object[paramTypes.length];
+            for (int index = 0; index < params.length; index++) {
+                params[index] = paramInstance(paramTypes[index]);
+            }
+            method.invoke(object, params);
+        } catch (final InvocationTargetException ite) {
+            status = Status.FAILED;
+            error = ite.getCause();
+        } catch (final Throwable th) {
+            status = Status.FAILED;
+            error = th;
+        }
+        if (done.compareAndSet(false, true)) {
+            timeout.cancel(false);
+            report.add(new Result(method, status, System.nanoTime() - start, error));
+            latch.countDown();
+        }
     }
 
     /**
@@ -304,21 +630,26 @@ public class SuperTester {
         } else if (classs.isAssignableFrom(Map.class)) {
             obj = new HashMap<Object, Object>();
         } else {
-            Constructor<?> construct = null;
-            try {
-                construct = classs.getConstructor();
-            } catch (final NoSuchMethodException nsme) {
-                // do nothing.
-            }
-            final Constructor<?>[] constructs = classs.getConstructors();
-            if (constructs.length > 0) {
-                if (construct == null) {
+            Constructor<?> construct = constructorCache.get(classs);
+            if (construct == null) {
+                try {
+                    construct = classs.getConstructor();
+                } catch (final NoSuchMethodException nsme) {
+                    // do nothing.
+                }
+                final Constructor<?>[] constructs = classs.getConstructors();
+                if (construct == null && constructs.length > 0) {
                     construct = constructs[0];
                 }
+                if (construct != null) {
+                    constructorCache.put(classs, construct);
+                }
+            }
+            if (construct != null) {
                 final Class<?>[] paramTypes = construct.getParameterTypes();
                 final Object[] params = new Object[paramTypes.length];
                 for (int index = 0; index < params.length; index++) {
-                    params[index] = createInstance(paramTypes[index]);
+                    params[index] = paramInstance(paramTypes[index]);
                 }
                 obj = construct.newInstance(params);
             }
@@ -326,10 +657,45 @@ public class SuperTester {
         return obj;
     }
 
+    /**
+     * Returns the cached param instance of the supplied class, creating it
+     * when not yet present.
+     *
+     * @param classs
+     *            the class
+     * @return the instance / null if none can be created
+     * @throws InvocationTargetException
+     *             implicit
+     * @throws IllegalAccessException
+     *             implicit
+     * @throws InstantiationException
+     *             implicit
+     * @throws NoSuchFieldException
+     *             implicit
+     * @throws NoSuchMethodException
+     *             implicit
+     * @throws ClassNotFoundException
+     *             implicit
+     */
+    private Object paramInstance(final Class<?> classs) throws InstantiationException, IllegalAccessException,
+            InvocationTargetException, NoSuchMethodException, NoSuchFieldException, ClassNotFoundException {
+        Object obj = paramCache.get(classs);
+        if (obj == null) {
+            obj = createInstance(classs);
+            final Object prev = paramCache.putIfAbsent(classs, obj == null ? NO_INSTANCE : obj);
+            if (prev != null) {
+                obj = prev;
+            }
+        }
+        return obj == NO_INSTANCE ? null : obj;
+    }
+
     /**
      * Test all.
+     *
+     * @return the report of all the runs so far
      */
-    public void testAll() {
+    public Report testAll() {
         try {
             testGetters();
         } catch (final Exception ex) {
@@ -345,6 +711,55 @@ public class SuperTester {
         } catch (final Exception ex) {
             // do nothing.
         }
+        return report;
+    }
+
+    /**
+     * @return the report
+     */
+    public Report getReport() {
+        return report;
+    }
+
+    /**
+     * Starts a fresh report.
+     *
+     * @return the previous report
+     */
+    public Report resetReport() {
+        final Report previous = report;
+        report = new Report();
+        return previous;
+    }
+
+    /**
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism
+     *            the parallelism to set
+     */
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the invocationTimeoutMillis
+     */
+    public long getInvocationTimeoutMillis() {
+        return invocationTimeoutMillis;
+    }
+
+    /**
+     * @param invocationTimeoutMillis
+     *            the invocationTimeoutMillis to set
+     */
+    public void setInvocationTimeoutMillis(final long invocationTimeoutMillis) {
+        this.invocationTimeoutMillis = invocationTimeoutMillis;
     }
 
     /**
@@ -353,12 +768,13 @@ public class SuperTester {
      *
      * @param packageName
      *            the package name
+     * @return the report
      * @throws Exception
      *             implicit
      */
-    public static void testAll(final String packageName) throws Exception {
+    public static Report testAll(final String packageName) throws Exception {
         final SuperTester tester = new SuperTester(getClasses(packageName));
-        tester.testAll();
+        return tester.testAll();
     }
 
     /**
@@ -366,12 +782,13 @@ public class SuperTester {
      *
      * @param objects
      *            the objects
+     * @return the report
      * @throws Exception
      *             implicit
      */
-    public static void testObjects(final Object... objects) throws Exception {
+    public static Report testObjects(final Object... objects) throws Exception {
         final SuperTester tester = new SuperTester(objects);
-        tester.testAll();
+        return tester.testAll();
     }
 
     /**
@@ -9,6 +9,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -19,11 +20,21 @@ import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.management.RuntimeMXBean;
 import java.lang.management.ThreadMXBean;
-import java.util.HashMap;
+import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * JVM and OS info
  *
@@ -41,6 +52,190 @@ public class SystemInfo {
      */
     public static final String PROCESS_ID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
 
+    /**
+     * The pool which drains the process output streams.
+     */
+    private static final ExecutorService PUMP_EXECUTOR = Executors
+            .newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("process-pump-%d").build());
+
+    /**
+     * How often a stoppable pump checks for output.
+     */
+    private static final long PUMP_POLL_MILLIS = 10;
+
+    /**
+     * The outcome of a process run.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class ProcessResult {
+
+        private final String command;
+        private final int exitCode;
+        private final String out, err;
+        private final boolean timedOut;
+        private final long droppedBytes;
+
+        /**
+         * @param command
+         *            the command
+         * @param exitCode
+         *            the exit code, -1 if unknown
+         * @param out
+         *            the tail of stdout
+         * @param err
+         *            the tail of stderr
+         * @param timedOut
+         *            if not done by the deadline, killed if destroying
+         * @param droppedBytes
+         *            the output bytes that did not fit the buffers
+         */
+        public ProcessResult(final String command, final int exitCode, final String out, final String err,
+                final boolean timedOut, final long droppedBytes) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.out = out;
+            this.err = err;
+            this.timedOut = timedOut;
+            this.droppedBytes = droppedBytes;
+        }
+
+        /**
+         * @return the command
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return the exitCode
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * @return the out
+         */
+        public String getOut() {
+            return out;
+        }
+
+        /**
+         * @return the err
+         */
+        public String getErr() {
+            return err;
+        }
+
+        /**
+         * @return the timedOut
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return the droppedBytes
+         */
+        public long getDroppedBytes() {
+            return droppedBytes;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(SystemInfo.LINE_SEPARATOR);
+            builder.append(out);
+            if (!err.isEmpty()) {
+                builder.append(SystemInfo.LINE_SEPARATOR).append("[stderr]").append(SystemInfo.LINE_SEPARATOR);
+                builder.append(err);
+            }
+            if (droppedBytes > 0) {
+                builder.append(SystemInfo.LINE_SEPARATOR).append("[dropped " + droppedBytes + " bytes]");
+            }
+            if (timedOut) {
+                builder.append(SystemInfo.LINE_SEPARATOR).append("[timed out, killed]");
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Keeps the last bytes written to it, counting the ones overwritten.
+     *
+     * @author Dinesh Ilindra
+     */
+    static class OutputRing extends OutputStream {
+
+        private final byte[] ring;
+        private long written;
+
+        /**
+         * @param capacity
+         *            the capacity
+         */
+        OutputRing(final int capacity) {
+            ring = new byte[Math.max(1, capacity)];
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public synchronized void write(final int b) {
+            ring[(int) (written++ % ring.length)] = (byte) b;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            int from = off;
+            int length = len;
+            if (length > ring.length) {
+                written += length - ring.length;
+                from += length - ring.length;
+                length = ring.length;
+            }
+            final int pos = (int) (written % ring.length);
+            final int first = Math.min(length, ring.length - pos);
+            System.arraycopy(b, from, ring, pos, first);
+            System.arraycopy(b, from + first, ring, 0, length - first);
+            written += length;
+        }
+
+        /**
+         * @return the bytes overwritten
+         */
+        synchronized long dropped() {
+            return Math.max(0, written - ring.length);
+        }
+
+        /**
+         * @return the retained bytes as string
+         */
+        synchronized String text() {
+            if (written <= ring.length) {
+                return new String(ring, 0, (int) written, Charset.defaultCharset());
+            }
+            final int pos = (int) (written % ring.length);
+            final byte[] ordered = new byte[ring.length];
+            System.arraycopy(ring, pos, ordered, 0, ring.length - pos);
+            System.arraycopy(ring, 0, ordered, ring.length - pos, pos);
+            return new String(ordered, Charset.defaultCharset());
+        }
+    }
+
     /**
      * Returns the JVM runtime.
      *
@@ -104,6 +299,43 @@ public class SystemInfo {
         return ManagementFactory.getCompilationMXBean();
     }
 
+    /**
+     * Returns the process wide system sampler.
+     *
+     * @return the sampler
+     */
+    public SystemSampler getSampler() {
+        return SystemSampler.getInstance();
+    }
+
+    /**
+     * Returns the process wide /proc reader.
+     *
+     * @return the proc stats
+     */
+    public ProcStats getProcStats() {
+        return ProcStats.getInstance();
+    }
+
+    /**
+     * Starts the process wide system sampler if not already running, the /proc stats are read on
+     * its schedule when available.
+     *
+     * @param periodMillis
+     *            the sampling period
+     * @return the sampler
+     */
+    public SystemSampler startSampler(final long periodMillis) {
+        final SystemSampler sampler = SystemSampler.getInstance();
+        final ProcStats procStats = ProcStats.getInstance();
+        if (procStats.isAvailable()) {
+            procStats.detach(sampler);
+            procStats.attach(sampler);
+        }
+        sampler.start(periodMillis);
+        return sampler;
+    }
+
     /**
      * Runs a command from its stream data.
      *
@@ -137,7 +369,13 @@ public class SystemInfo {
         return process;
     }
 
-    private final Map<String, Process> processMap = new HashMap<String, Process>();
+    private final Map<String, Process> processMap = new ConcurrentHashMap<String, Process>();
+
+    private long execTimeoutMillis = 60000;
+
+    private long killGraceMillis = 2000;
+
+    private int maxOutputBytes = 1024 * 1024;
 
     /**
      * Returns the process id.
@@ -275,14 +513,7 @@ public class SystemInfo {
      */
     public String execOut(final String command, final String[] envp, final File dir, final String line,
             final boolean destroy) throws IOException {
-        final Process process = exec(command, envp, dir);
-        writeLine(command, line);
-        final String lines = readLines(process);
-        if (destroy) {
-            process.destroy();
-            processMap.remove(command);
-        }
-        return lines;
+        return lines(execute(command, envp, dir, line, execTimeoutMillis, destroy).getOut());
     }
 
     /**
@@ -332,13 +563,199 @@ public class SystemInfo {
      */
     public String execOut(final String command, final String[] envp, final File dir, final boolean destroy)
             throws IOException {
+        return lines(execute(command, envp, dir, null, execTimeoutMillis, destroy).getOut());
+    }
+
+    /**
+     * Formats the output as {@link #readLines(Process)} does.
+     *
+     * @param out
+     *            the output
+     * @return the output lines
+     */
+    private static String lines(final String out) {
+        final StringBuilder builder = new StringBuilder(SystemInfo.LINE_SEPARATOR);
+        builder.append(out);
+        if (!out.isEmpty() && !out.endsWith("\n")) {
+            builder.append(SystemInfo.LINE_SEPARATOR);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Executes a command, draining its stdout and stderr concurrently into bounded buffers, and
+     * kills it if it does not complete before the deadline.
+     *
+     * @param command
+     *            the command
+     * @param envp
+     *            the environment
+     * @param dir
+     *            the directory
+     * @param input
+     *            the input to send, null for none
+     * @param timeoutMillis
+     *            the deadline in millis, non-positive for none
+     * @return the result
+     * @throws IOException
+     *             implicit
+     */
+    public ProcessResult execute(final String command, final String[] envp, final File dir, final String input,
+            final long timeoutMillis) throws IOException {
+        return execute(command, envp, dir, input, timeoutMillis, true);
+    }
+
+    /**
+     * Executes a command, draining its stdout and stderr concurrently into bounded buffers. When
+     * destroying, the process is killed at the deadline and unregistered once done. Otherwise it
+     * is left running and registered, with its input open, and the output so far is returned at
+     * the deadline, the pumps stopping there to leave the rest to {@link #readLine(String)} and the
+     * like.
+     *
+     * @param command
+     *            the command
+     * @param envp
+     *            the environment
+     * @param dir
+     *            the directory
+     * @param input
+     *            the input to send, null for none
+     * @param timeoutMillis
+     *            the deadline in millis, non-positive for none
+     * @param destroy
+     *            destroy the process after done?
+     * @return the result
+     * @throws IOException
+     *             implicit
+     */
+    public ProcessResult execute(final String command, final String[] envp, final File dir, final String input,
+            final long timeoutMillis, final boolean destroy) throws IOException {
         final Process process = exec(command, envp, dir);
-        final String lines = readLines(process);
-        if (destroy) {
-            process.destroy();
-            processMap.remove(command);
+        final OutputRing out = new OutputRing(maxOutputBytes);
+        final OutputRing err = new OutputRing(maxOutputBytes);
+        final AtomicBoolean stopped = destroy ? null : new AtomicBoolean();
+        final Future<?> outPump = pump(process, process.getInputStream(), out, stopped);
+        final Future<?> errPump = pump(process, process.getErrorStream(), err, stopped);
+        boolean timedOut = false;
+        try {
+            final OutputStream stdin = process.getOutputStream();
+            try {
+                if (input != null) {
+                    stdin.write((input + SystemInfo.LINE_SEPARATOR).getBytes(Charset.defaultCharset()));
+                    stdin.flush();
+                }
+                if (destroy) {
+                    stdin.close();
+                }
+            } catch (final IOException ioe) {
+                // process does not read input
+            }
+            if (timeoutMillis > 0) {
+                timedOut = !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                process.waitFor();
+            }
+        } catch (final InterruptedException ie) {
+            timedOut = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            if (destroy) {
+                if (timedOut) {
+                    kill(process);
+                }
+                awaitPump(outPump, process.getInputStream());
+                awaitPump(errPump, process.getErrorStream());
+                processMap.remove(command, process);
+            } else if (!timedOut) {
+                awaitPump(outPump, process.getInputStream());
+                awaitPump(errPump, process.getErrorStream());
+            } else {
+                // still running, hand the streams back to the readers of the registered process
+                stopped.set(true);
+                awaitPump(outPump, null);
+                awaitPump(errPump, null);
+            }
+        }
+        return new ProcessResult(command, process.isAlive() ? -1 : process.exitValue(), out.text(), err.text(),
+                timedOut, out.dropped() + err.dropped());
+    }
+
+    /**
+     * Destroys the process, forcibly if it is still alive after the grace period.
+     *
+     * @param process
+     *            the process
+     */
+    public void kill(final Process process) {
+        process.destroy();
+        try {
+            if (!process.waitFor(killGraceMillis, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly().waitFor(killGraceMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (final InterruptedException ie) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
         }
-        return lines;
+    }
+
+    /**
+     * Copies the stream into the ring on the pump pool. A stoppable pump reads only what is
+     * available, so it can stop without consuming output it does not keep.
+     *
+     * @param process
+     *            the process
+     * @param stream
+     *            the stream
+     * @param ring
+     *            the ring
+     * @param stopped
+     *            to stop the pump, null to copy till the end
+     * @return the pump future
+     */
+    private Future<?> pump(final Process process, final InputStream stream, final OutputRing ring,
+            final AtomicBoolean stopped) {
+        return PUMP_EXECUTOR.submit(() -> {
+            try {
+                final byte[] buffer = new byte[4096];
+                while (stopped != null && !stopped.get()) {
+                    final int available = stream.available();
+                    if (available > 0) {
+                        ring.write(buffer, 0, stream.read(buffer, 0, Math.min(available, buffer.length)));
+                    } else if (process.isAlive()) {
+                        Thread.sleep(PUMP_POLL_MILLIS);
+                    } else {
+                        break;
+                    }
+                }
+                if (stopped == null || !stopped.get()) {
+                    IOUtils.copy(stream, ring);
+                }
+            } catch (final IOException ioe) {
+                // stream closed
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * Waits for the pump to drain, closing its stream if it does not finish within the grace
+     * period (e.g. a forked child still holds the pipe).
+     *
+     * @param pump
+     *            the pump
+     * @param stream
+     *            the stream, null to leave it open
+     */
+    private void awaitPump(final Future<?> pump, final InputStream stream) {
+        try {
+            pump.get(killGraceMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException ex) {
+            // give up on it
+        }
+        IOUtils.closeQuietly(stream);
     }
 
     /**
@@ -373,4 +790,49 @@ public class SystemInfo {
         return proc;
     }
 
+    /**
+     * @return the execTimeoutMillis
+     */
+    public long getExecTimeoutMillis() {
+        return execTimeoutMillis;
+    }
+
+    /**
+     * @param execTimeoutMillis
+     *            the execTimeoutMillis to set
+     */
+    public void setExecTimeoutMillis(final long execTimeoutMillis) {
+        this.execTimeoutMillis = execTimeoutMillis;
+    }
+
+    /**
+     * @return the killGraceMillis
+     */
+    public long getKillGraceMillis() {
+        return killGraceMillis;
+    }
+
+    /**
+     * @param killGraceMillis
+     *            the killGraceMillis to set
+     */
+    public void setKillGraceMillis(final long killGraceMillis) {
+        this.killGraceMillis = killGraceMillis;
+    }
+
+    /**
+     * @return the maxOutputBytes
+     */
+    public int getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /**
+     * @param maxOutputBytes
+     *            the maxOutputBytes to set
+     */
+    public void setMaxOutputBytes(final int maxOutputBytes) {
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
 }
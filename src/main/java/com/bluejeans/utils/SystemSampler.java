@@ -0,0 +1,550 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the JVM metrics on a fixed schedule into preallocated ring buffers, so that readers get
+ * the precomputed values instead of polling the MX beans themselves.
+ *
+ * @author Dinesh Ilindra
+ */
+public class SystemSampler implements SystemSamplerMXBean {
+
+    /**
+     * The sampled metrics
+     */
+    public static enum Metric {
+
+        /**
+         * heap used bytes
+         */
+        HEAP_USED,
+
+        /**
+         * heap committed bytes
+         */
+        HEAP_COMMITTED,
+
+        /**
+         * non heap used bytes
+         */
+        NON_HEAP_USED,
+
+        /**
+         * non heap committed bytes
+         */
+        NON_HEAP_COMMITTED,
+
+        /**
+         * total gc count across collectors
+         */
+        GC_COUNT,
+
+        /**
+         * total gc time in millis across collectors
+         */
+        GC_TIME,
+
+        /**
+         * live threads
+         */
+        THREAD_COUNT,
+
+        /**
+         * live daemon threads
+         */
+        DAEMON_THREAD_COUNT,
+
+        /**
+         * peak live threads
+         */
+        PEAK_THREAD_COUNT,
+
+        /**
+         * currently loaded classes
+         */
+        LOADED_CLASS_COUNT,
+
+        /**
+         * classes unloaded so far
+         */
+        UNLOADED_CLASS_COUNT,
+
+        /**
+         * total JIT compilation time in millis, -1 if not supported
+         */
+        JIT_TIME,
+    }
+
+    /**
+     * A compact copy of one sample.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class Snapshot {
+
+        private final long timestamp;
+        private final long[] values;
+
+        /**
+         * @param timestamp
+         *            the sample time
+         * @param values
+         *            the values by metric ordinal
+         */
+        public Snapshot(final long timestamp, final long[] values) {
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+
+        /**
+         * @return the timestamp
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * get the metric value
+         *
+         * @param metric
+         *            the metric
+         * @return the value
+         */
+        public long get(final Metric metric) {
+            return values[metric.ordinal()];
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("{\"timestamp\":").append(timestamp);
+            for (final Metric metric : METRICS) {
+                builder.append(",\"").append(metric.name()).append("\":").append(values[metric.ordinal()]);
+            }
+            return builder.append('}').toString();
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(SystemSampler.class);
+
+    private static final Metric[] METRICS = Metric.values();
+
+    private static SystemSampler instance;
+
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final GarbageCollectorMXBean[] gcBeans;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final ClassLoadingMXBean classLoadingBean = ManagementFactory.getClassLoadingMXBean();
+    private final CompilationMXBean compilationBean = ManagementFactory.getCompilationMXBean();
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final long[] values;
+    private volatile long sampleCount;
+
+    private final int topThreads;
+    private final long[] topIds;
+    private final long[] topCpu;
+    private int topSize;
+    private long[] prevIds = new long[0], prevCpu = new long[0];
+    private long[] curIds = new long[0], curCpu = new long[0];
+    private int prevSize;
+
+    private final List<Runnable> sampleListeners = new CopyOnWriteArrayList<Runnable>();
+
+    private Timer timer;
+
+    /**
+     * @param capacity
+     *            the no. of samples to retain
+     * @param topThreads
+     *            the no. of top cpu consuming threads to track
+     */
+    public SystemSampler(final int capacity, final int topThreads) {
+        final List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        gcBeans = gcs.toArray(new GarbageCollectorMXBean[gcs.size()]);
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        values = new long[capacity * METRICS.length];
+        this.topThreads = topThreads;
+        topIds = new long[topThreads];
+        topCpu = new long[topThreads];
+    }
+
+    /**
+     * The process wide sampler retaining an hour of per second samples and top 10 threads.
+     *
+     * @return the sampler
+     */
+    public static synchronized SystemSampler getInstance() {
+        if (instance == null) {
+            instance = new SystemSampler(3600, 10);
+        }
+        return instance;
+    }
+
+    /**
+     * Start sampling at the given period and register as MBean.
+     *
+     * @param periodMillis
+     *            the period
+     */
+    public synchronized void start(final long periodMillis) {
+        if (timer != null) {
+            return;
+        }
+        timer = new Timer("system-sampler", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (final RuntimeException re) {
+                    logger.warn("Problem sampling system metrics", re);
+                }
+            }
+        }, 0, periodMillis);
+        try {
+            MetaUtil.registerAsMBean(this);
+        } catch (final Exception jme) {
+            // already registered
+        }
+    }
+
+    /**
+     * Stop sampling.
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Add a listener to be run after every sample, on the sampler thread.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void addSampleListener(final Runnable listener) {
+        sampleListeners.add(listener);
+    }
+
+    /**
+     * Remove the sample listener.
+     *
+     * @param listener
+     *            the listener
+     */
+    public void removeSampleListener(final Runnable listener) {
+        sampleListeners.remove(listener);
+    }
+
+    /**
+     * Take a sample now.
+     */
+    public void sample() {
+        synchronized (this) {
+            final long count = sampleCount;
+            final int slot = (int) (count % capacity);
+            final int base = slot * METRICS.length;
+            final MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+            final MemoryUsage nonHeap = memoryBean.getNonHeapMemoryUsage();
+            values[base + Metric.HEAP_USED.ordinal()] = heap.getUsed();
+            values[base + Metric.HEAP_COMMITTED.ordinal()] = heap.getCommitted();
+            values[base + Metric.NON_HEAP_USED.ordinal()] = nonHeap.getUsed();
+            values[base + Metric.NON_HEAP_COMMITTED.ordinal()] = nonHeap.getCommitted();
+            long gcCount = 0, gcTime = 0;
+            for (final GarbageCollectorMXBean gcBean : gcBeans) {
+                gcCount += Math.max(0, gcBean.getCollectionCount());
+                gcTime += Math.max(0, gcBean.getCollectionTime());
+            }
+            values[base + Metric.GC_COUNT.ordinal()] = gcCount;
+            values[base + Metric.GC_TIME.ordinal()] = gcTime;
+            values[base + Metric.THREAD_COUNT.ordinal()] = threadBean.getThreadCount();
+            values[base + Metric.DAEMON_THREAD_COUNT.ordinal()] = threadBean.getDaemonThreadCount();
+            values[base + Metric.PEAK_THREAD_COUNT.ordinal()] = threadBean.getPeakThreadCount();
+            values[base + Metric.LOADED_CLASS_COUNT.ordinal()] = classLoadingBean.getLoadedClassCount();
+            values[base + Metric.UNLOADED_CLASS_COUNT.ordinal()] = classLoadingBean.getUnloadedClassCount();
+            values[base + Metric.JIT_TIME.ordinal()] = compilationBean != null
+                    && compilationBean.isCompilationTimeMonitoringSupported()
+                            ? compilationBean.getTotalCompilationTime() : -1;
+            timestamps[slot] = System.currentTimeMillis();
+            sampleTopThreads();
+            sampleCount = count + 1;
+        }
+        for (final Runnable listener : sampleListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Find the threads which used the most cpu since the previous sample.
+     */
+    private void sampleTopThreads() {
+        if (topThreads <= 0 || !threadBean.isThreadCpuTimeSupported() || !threadBean.isThreadCpuTimeEnabled()) {
+            return;
+        }
+        final long[] ids = threadBean.getAllThreadIds();
+        Arrays.sort(ids);
+        if (curIds.length < ids.length) {
+            curIds = new long[ids.length * 2];
+            curCpu = new long[ids.length * 2];
+        }
+        topSize = 0;
+        for (int index = 0; index < ids.length; index++) {
+            final long cpu = threadBean.getThreadCpuTime(ids[index]);
+            curIds[index] = ids[index];
+            curCpu[index] = cpu;
+            if (cpu < 0) {
+                continue;
+            }
+            final int prevIndex = Arrays.binarySearch(prevIds, 0, prevSize, ids[index]);
+            final long delta = prevIndex >= 0 && prevCpu[prevIndex] >= 0 ? cpu - prevCpu[prevIndex] : cpu;
+            int pos = topSize < topThreads ? topSize++ : topThreads;
+            while (pos > 0 && topCpu[pos - 1] < delta) {
+                if (pos < topThreads) {
+                    topIds[pos] = topIds[pos - 1];
+                    topCpu[pos] = topCpu[pos - 1];
+                }
+                pos--;
+            }
+            if (pos < topThreads) {
+                topIds[pos] = ids[index];
+                topCpu[pos] = delta;
+            }
+        }
+        final long[] swapIds = prevIds, swapCpu = prevCpu;
+        prevIds = curIds;
+        prevCpu = curCpu;
+        prevSize = ids.length;
+        curIds = swapIds;
+        curCpu = swapCpu;
+    }
+
+    /**
+     * The latest value of the metric.
+     *
+     * @param metric
+     *            the metric
+     * @return the value / -1 if not yet sampled
+     */
+    public long latest(final Metric metric) {
+        final long count = sampleCount;
+        if (count == 0) {
+            return -1;
+        }
+        return values[(int) ((count - 1) % capacity) * METRICS.length + metric.ordinal()];
+    }
+
+    /**
+     * A copy of the latest sample.
+     *
+     * @return the snapshot / null if not yet sampled
+     */
+    public Snapshot snapshot() {
+        final long count = sampleCount;
+        if (count == 0) {
+            return null;
+        }
+        final int slot = (int) ((count - 1) % capacity);
+        return new Snapshot(timestamps[slot],
+                Arrays.copyOfRange(values, slot * METRICS.length, (slot + 1) * METRICS.length));
+    }
+
+    /**
+     * The retained history of the given metric, oldest first.
+     *
+     * @param metric
+     *            the metric
+     * @return the values
+     */
+    public long[] history(final Metric metric) {
+        final long count = sampleCount;
+        final int size = (int) Math.min(count, capacity);
+        final long[] history = new long[size];
+        for (int index = 0; index < size; index++) {
+            history[index] = values[(int) ((count - size + index) % capacity) * METRICS.length + metric.ordinal()];
+        }
+        return history;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getHistory(java.lang.String)
+     */
+    @Override
+    public long[] getHistory(final String metric) {
+        return history(Metric.valueOf(metric));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getTopThreads()
+     */
+    @Override
+    public synchronized String[] getTopThreads() {
+        final String[] top = new String[topSize];
+        final ThreadInfo[] infos = threadBean.getThreadInfo(Arrays.copyOf(topIds, topSize));
+        for (int index = 0; index < topSize; index++) {
+            top[index] = (infos[index] == null ? "#" + topIds[index] : infos[index].getThreadName()) + " : "
+                    + topCpu[index] / 1000000 + "ms";
+        }
+        return top;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getSampleCount()
+     */
+    @Override
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getLastSampleTime()
+     */
+    @Override
+    public long getLastSampleTime() {
+        final long count = sampleCount;
+        return count == 0 ? -1 : timestamps[(int) ((count - 1) % capacity)];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getHeapUsed()
+     */
+    @Override
+    public long getHeapUsed() {
+        return latest(Metric.HEAP_USED);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getHeapCommitted()
+     */
+    @Override
+    public long getHeapCommitted() {
+        return latest(Metric.HEAP_COMMITTED);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getNonHeapUsed()
+     */
+    @Override
+    public long getNonHeapUsed() {
+        return latest(Metric.NON_HEAP_USED);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getNonHeapCommitted()
+     */
+    @Override
+    public long getNonHeapCommitted() {
+        return latest(Metric.NON_HEAP_COMMITTED);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getGcCount()
+     */
+    @Override
+    public long getGcCount() {
+        return latest(Metric.GC_COUNT);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getGcTime()
+     */
+    @Override
+    public long getGcTime() {
+        return latest(Metric.GC_TIME);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getThreadCount()
+     */
+    @Override
+    public long getThreadCount() {
+        return latest(Metric.THREAD_COUNT);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getDaemonThreadCount()
+     */
+    @Override
+    public long getDaemonThreadCount() {
+        return latest(Metric.DAEMON_THREAD_COUNT);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getLoadedClassCount()
+     */
+    @Override
+    public long getLoadedClassCount() {
+        return latest(Metric.LOADED_CLASS_COUNT);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.SystemSamplerMXBean#getJitTime()
+     */
+    @Override
+    public long getJitTime() {
+        return latest(Metric.JIT_TIME);
+    }
+
+    /**
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+/**
+ * System sampler MBean, all the values are from the latest sample.
+ *
+ * @author Dinesh Ilindra
+ */
+public interface SystemSamplerMXBean {
+
+    /**
+     * @return the no. of samples taken so far
+     */
+    long getSampleCount();
+
+    /**
+     * @return the latest sample time
+     */
+    long getLastSampleTime();
+
+    /**
+     * @return the heap used bytes
+     */
+    long getHeapUsed();
+
+    /**
+     * @return the heap committed bytes
+     */
+    long getHeapCommitted();
+
+    /**
+     * @return the non heap used bytes
+     */
+    long getNonHeapUsed();
+
+    /**
+     * @return the non heap committed bytes
+     */
+    long getNonHeapCommitted();
+
+    /**
+     * @return the total gc count
+     */
+    long getGcCount();
+
+    /**
+     * @return the total gc time in millis
+     */
+    long getGcTime();
+
+    /**
+     * @return the live thread count
+     */
+    long getThreadCount();
+
+    /**
+     * @return the daemon thread count
+     */
+    long getDaemonThreadCount();
+
+    /**
+     * @return the loaded class count
+     */
+    long getLoadedClassCount();
+
+    /**
+     * @return the total JIT compilation time in millis
+     */
+    long getJitTime();
+
+    /**
+     * @return the top threads by cpu time used since the previous sample
+     */
+    String[] getTopThreads();
+
+    /**
+     * The retained history of the given metric, oldest first.
+     *
+     * @param metric
+     *            the metric name
+     * @return the values
+     */
+    long[] getHistory(String metric);
+
+}
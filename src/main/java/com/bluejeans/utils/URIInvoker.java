@@ -4,6 +4,7 @@
 package com.bluejeans.utils;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Array;
@@ -11,15 +12,29 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.beanutils.ConvertUtilsBean;
@@ -29,6 +44,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ClassUtils;
 
 import com.bluejeans.utils.InvokerMXBean.Invoker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.internal.Primitives;
 
 /**
@@ -43,15 +59,147 @@ public class URIInvoker extends Invoker {
      */
     public static final String[] SIZE_STEPS = new String[] { "B", "KB", "MB", "GB" };
 
+    /**
+     * The default no. of compiled scripts cached
+     */
+    public static final int DEFAULT_SCRIPT_CACHE_SIZE = 1000;
+
+    /**
+     * The default max time to wait for one expression in millis
+     */
+    public static final long DEFAULT_EXPRESSION_TIMEOUT = 30000;
+
+    /**
+     * The no. of threads in the shared evaluation pool
+     */
+    public static final int EVALUATION_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * The no. of expressions that can wait in the shared evaluation pool
+     */
+    public static final int EVALUATION_QUEUE_SIZE = 1024;
+
+    private static ThreadPoolExecutor evaluationPool;
+
+    private static ScriptEngineManager engineManager;
+
     private final Map<String, Object> targetMap;
 
-    private final SystemInfo system;
+    private final boolean lightweight;
+
+    private volatile SystemInfo system;
+
+    private volatile MetaUtil metaUtil;
+
+    private volatile ConvertUtilsBean convertUtil;
+
+    private volatile ScriptEngine jsEngine;
+
+    private String engineName = "JavaScript";
+
+    private JsonResultWriter jsonWriter = new JsonResultWriter();
 
-    private final MetaUtil metaUtil;
+    private final ScriptCache scriptCache;
 
-    private final ConvertUtilsBean convertUtil;
+    private boolean concurrentEvaluation = false;
 
-    private ScriptEngine jsEngine;
+    private long expressionTimeout = DEFAULT_EXPRESSION_TIMEOUT;
+
+    private Executor evaluationExecutor;
+
+    /**
+     * One expression evaluation, run by the waiting thread unless submitted. The timeout is
+     * counted from when it starts running.
+     *
+     * @author Dinesh Ilindra
+     */
+    public static class Evaluation extends FutureTask<Object> {
+
+        private final String expression;
+        private volatile long startNanos;
+        private volatile boolean submitted;
+
+        /**
+         * @param expression
+         *            the expression
+         * @param callable
+         *            the evaluation
+         */
+        public Evaluation(final String expression, final Callable<Object> callable) {
+            super(callable);
+            this.expression = expression;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.concurrent.FutureTask#run()
+         */
+        @Override
+        public void run() {
+            startNanos = System.nanoTime();
+            super.run();
+        }
+
+        /**
+         * Submit this to the given executor.
+         *
+         * @param executor
+         *            the executor
+         */
+        public void submit(final Executor executor) {
+            submitted = true;
+            executor.execute(this);
+        }
+
+        /**
+         * Wait for the result, cancelling the evaluation if it runs longer than the timeout. An
+         * evaluation already done returns its result whatever the time taken.
+         *
+         * @param timeoutMillis
+         *            the timeout in millis
+         * @return the result
+         * @throws ExecutionException
+         *             with the evaluation failure as cause
+         * @throws InterruptedException
+         *             if interrupted while waiting
+         * @throws TimeoutException
+         *             if timed out
+         */
+        public Object await(final long timeoutMillis)
+                throws ExecutionException, InterruptedException, TimeoutException {
+            if (!submitted) {
+                run();
+            }
+            final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            final long waitStart = System.nanoTime();
+            while (true) {
+                if (isDone()) {
+                    return get();
+                }
+                final long start = startNanos == 0 ? waitStart : startNanos;
+                final long wait = timeoutNanos - (System.nanoTime() - start);
+                if (wait <= 0) {
+                    if (cancel(true)) {
+                        throw new TimeoutException(expression + " timed out after " + timeoutMillis + " ms");
+                    }
+                    continue;
+                }
+                try {
+                    return get(wait, TimeUnit.NANOSECONDS);
+                } catch (final TimeoutException te) {
+                    // check again, the evaluation may have started late
+                }
+            }
+        }
+
+        /**
+         * @return the expression
+         */
+        public String getExpression() {
+            return expression;
+        }
+    }
 
     /**
      * @param target
@@ -74,15 +222,67 @@ public class URIInvoker extends Invoker {
      *            the target map
      */
     public URIInvoker(final Map<String, Object> targetMap) {
-        system = new SystemInfo();
-        metaUtil = new MetaUtil();
-        this.targetMap = new HashMap<String, Object>();
-        this.targetMap.put("system", system);
-        this.targetMap.put("metaUtil", metaUtil);
-        convertUtil = new ConvertUtilsBean();
+        this(targetMap, false);
+    }
+
+    /**
+     * @param targetMap
+     *            the target map, the entries with a null name or target are skipped
+     * @param lightweight
+     *            if true nothing is registered as MBean, and the system / metaUtil targets, the
+     *            convert util and the JS engine are created only on first use
+     */
+    public URIInvoker(final Map<String, Object> targetMap, final boolean lightweight) {
+        super(!lightweight);
+        this.lightweight = lightweight;
+        this.targetMap = new ConcurrentHashMap<String, Object>();
+        for (final Map.Entry<String, Object> entry : targetMap.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                this.targetMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        scriptCache = new ScriptCache(null, DEFAULT_SCRIPT_CACHE_SIZE);
+        if (!lightweight) {
+            getSystem();
+            getMetaUtil();
+            getConvertUtil();
+            try {
+                MetaUtil.registerAsMBean(scriptCache);
+            } catch (final Exception jme) {
+                // already registered
+            }
+        }
         resetJsEngine();
     }
 
+    /**
+     * The engine manager, discovering the engines once for all the invokers.
+     *
+     * @return the engine manager
+     */
+    private static synchronized ScriptEngineManager engineManager() {
+        if (engineManager == null) {
+            engineManager = new ScriptEngineManager();
+        }
+        return engineManager;
+    }
+
+    /**
+     * The evaluation pool shared by all the invokers, created on first use.
+     *
+     * @return the evaluation pool
+     */
+    private static synchronized ThreadPoolExecutor evaluationPool() {
+        if (evaluationPool == null) {
+            evaluationPool = new ThreadPoolExecutor(EVALUATION_THREADS, EVALUATION_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(EVALUATION_QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("uri-invoker-eval-%d").build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            evaluationPool.allowCoreThreadTimeOut(true);
+        }
+        return evaluationPool;
+    }
+
     /**
      * Reset the JS Engine.
      */
@@ -91,14 +291,20 @@ public class URIInvoker extends Invoker {
     }
 
     /**
-     * Reset the JS Engine with given one.
+     * Reset the JS Engine with given one, created right away unless lightweight.
      *
      * @param engineName
      *            the engine name
      */
     public void resetJsEngine(final String engineName) {
-        jsEngine = new ScriptEngineManager().getEngineByName(engineName);
-        addTargets(targetMap);
+        synchronized (scriptCache) {
+            this.engineName = engineName;
+            jsEngine = null;
+            scriptCache.clear();
+        }
+        if (!lightweight) {
+            getJsEngine();
+        }
     }
 
     /**
@@ -107,11 +313,37 @@ public class URIInvoker extends Invoker {
      * @param name
      *            the taget name
      * @param target
-     *            the target object
+     *            the target object, null removes it
      */
     public void setTarget(final String name, final Object target) {
-        targetMap.put(name, target);
-        jsEngine.put(name, target);
+        if (target == null) {
+            removeTarget(name);
+            return;
+        }
+        synchronized (scriptCache) {
+            targetMap.put(name, target);
+            final ScriptEngine engine = jsEngine;
+            if (engine != null) {
+                engine.put(name, target);
+            }
+        }
+    }
+
+    /**
+     * Remove the target with name.
+     *
+     * @param name
+     *            the target name
+     * @return the removed target / null
+     */
+    public Object removeTarget(final String name) {
+        synchronized (scriptCache) {
+            final ScriptEngine engine = jsEngine;
+            if (engine != null) {
+                engine.getBindings(ScriptContext.ENGINE_SCOPE).remove(name);
+            }
+            return targetMap.remove(name);
+        }
     }
 
     /**
@@ -125,17 +357,18 @@ public class URIInvoker extends Invoker {
     }
 
     /**
-     * Add more targets.
+     * Add more targets, as per {@link #setTarget(String, Object)} each.
      *
      * @param targetMap
-     *            the targets map
+     *            the targets map, a null target removes it, a null name is skipped
      */
     public void addTargets(final Map<String, Object> targetMap) {
-        if (targetMap != this.targetMap) {
-            this.targetMap.putAll(targetMap);
-        }
-        for (final Entry<String, Object> targetEntry : this.targetMap.entrySet()) {
-            jsEngine.put(targetEntry.getKey(), targetEntry.getValue());
+        synchronized (scriptCache) {
+            for (final Map.Entry<String, Object> entry : targetMap.entrySet()) {
+                if (entry.getKey() != null) {
+                    setTarget(entry.getKey(), entry.getValue());
+                }
+            }
         }
     }
 
@@ -162,24 +395,180 @@ public class URIInvoker extends Invoker {
     }
 
     /**
-     * @return the targetMap
+     * @return the read only view of targetMap, changed through setTarget / addTargets /
+     *         removeTarget
      */
     public Map<String, Object> getTargetMap() {
-        return targetMap;
+        return Collections.unmodifiableMap(targetMap);
+    }
+
+    /**
+     * The target by the name, the system and metaUtil ones created on first use.
+     *
+     * @param name
+     *            the target name
+     * @return the target / null
+     */
+    public Object getTarget(final String name) {
+        final Object target = targetMap.get(name);
+        if (target == null) {
+            if ("system".equals(name)) {
+                return getSystem();
+            } else if ("metaUtil".equals(name)) {
+                return getMetaUtil();
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @return the system target
+     */
+    public SystemInfo getSystem() {
+        if (system == null) {
+            synchronized (this) {
+                if (system == null) {
+                    system = new SystemInfo();
+                    setTarget("system", system);
+                }
+            }
+        }
+        return system;
+    }
+
+    /**
+     * @return the metaUtil target
+     */
+    public MetaUtil getMetaUtil() {
+        if (metaUtil == null) {
+            synchronized (this) {
+                if (metaUtil == null) {
+                    metaUtil = new MetaUtil();
+                    setTarget("metaUtil", metaUtil);
+                }
+            }
+        }
+        return metaUtil;
     }
 
     /**
      * @return the convertUtil
      */
     public ConvertUtilsBean getConvertUtil() {
+        if (convertUtil == null) {
+            synchronized (this) {
+                if (convertUtil == null) {
+                    convertUtil = new ConvertUtilsBean();
+                }
+            }
+        }
         return convertUtil;
     }
 
     /**
+     * @return true if lightweight
+     */
+    public boolean isLightweight() {
+        return lightweight;
+    }
+
+    /**
+     * @return the concurrentEvaluation
+     */
+    public boolean isConcurrentEvaluation() {
+        return concurrentEvaluation;
+    }
+
+    /**
+     * @param concurrentEvaluation
+     *            the concurrentEvaluation to set
+     */
+    public void setConcurrentEvaluation(final boolean concurrentEvaluation) {
+        this.concurrentEvaluation = concurrentEvaluation;
+    }
+
+    /**
+     * @return the expressionTimeout
+     */
+    public long getExpressionTimeout() {
+        return expressionTimeout;
+    }
+
+    /**
+     * @param expressionTimeout
+     *            the expressionTimeout to set
+     */
+    public void setExpressionTimeout(final long expressionTimeout) {
+        this.expressionTimeout = expressionTimeout;
+    }
+
+    /**
+     * @return the evaluationExecutor, the shared pool if none set
+     */
+    public Executor getEvaluationExecutor() {
+        return evaluationExecutor == null ? evaluationPool() : evaluationExecutor;
+    }
+
+    /**
+     * @param evaluationExecutor
+     *            the evaluationExecutor to set
+     */
+    public void setEvaluationExecutor(final Executor evaluationExecutor) {
+        this.evaluationExecutor = evaluationExecutor;
+    }
+
+    /**
+     * @return the scriptCache
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * @return the script cache hit ratio
+     */
+    public double getScriptCacheHitRatio() {
+        return scriptCache.getHitRatio();
+    }
+
+    /**
+     * @return the jsonWriter
+     */
+    public JsonResultWriter getJsonWriter() {
+        return jsonWriter;
+    }
+
+    /**
+     * @param jsonWriter
+     *            the jsonWriter to set
+     */
+    public void setJsonWriter(final JsonResultWriter jsonWriter) {
+        this.jsonWriter = jsonWriter;
+    }
+
+    /**
+     * The JS engine, created on first use with all the targets put in, including the system and
+     * metaUtil ones.
+     *
      * @return the jsEngine
      */
     public ScriptEngine getJsEngine() {
-        return jsEngine;
+        ScriptEngine engine = jsEngine;
+        if (engine == null) {
+            getSystem();
+            getMetaUtil();
+            synchronized (scriptCache) {
+                engine = jsEngine;
+                if (engine == null) {
+                    engine = engineManager().getEngineByName(engineName);
+                    engine.setBindings(new SimpleBindings(new ConcurrentHashMap<String, Object>(targetMap)),
+                            ScriptContext.ENGINE_SCOPE);
+                    scriptCache.setEngine(engine);
+                    jsEngine = engine;
+                }
+            }
+        }
+        return engine;
     }
 
     /**
@@ -202,7 +591,7 @@ public class URIInvoker extends Invoker {
     }
 
     /**
-     * Evaluates the given script.
+     * Evaluates the given script, compiled once and cached if the engine can compile.
      *
      * @param script
      *            the script
@@ -211,7 +600,8 @@ public class URIInvoker extends Invoker {
      *             implicit
      */
     public Object run(final String script) throws ScriptException {
-        return jsEngine.eval(script);
+        getJsEngine();
+        return scriptCache.eval(script);
     }
 
     /**
@@ -282,29 +672,46 @@ public class URIInvoker extends Invoker {
         try {
             if (keyArray.length == 1) {
                 if (isProperty) {
-                    value.append(BeanUtils.getProperty(targetMap.get(targetName), keyArray[0]));
+                    value.append(BeanUtils.getProperty(getTarget(targetName), keyArray[0]));
                 } else {
                     appendValue(value, invokeNestedMethod(targetName, keyArray[0]));
                 }
                 return;
             }
-            value.append("{");
-            for (int index = 0; index < keyArray.length; index++) {
-                if (index > 0) {
-                    value.append(",");
+            final List<Evaluation> evaluations = evaluateAll(getTarget(targetName), keyArray, isProperty,
+                    concurrentEvaluation);
+            try {
+                value.append("{");
+                for (int index = 0; index < keyArray.length; index++) {
+                    if (index > 0) {
+                        value.append(",");
+                    }
+                    value.append('\"');
+                    value.append(keyArray[index].replaceAll("\"", "\\\""));
+                    value.append("\":");
+                    value.append('\"');
+                    try {
+                        final Object result = evaluations.get(index).await(expressionTimeout);
+                        if (isProperty) {
+                            value.append((String) result);
+                        } else {
+                            appendValue(value, result);
+                        }
+                    } catch (final ExecutionException ee) {
+                        throw ee.getCause();
+                    } catch (final TimeoutException te) {
+                        value.append("[timed out after " + expressionTimeout + " ms]");
+                    }
+                    value.append('\"');
                 }
-                value.append('\"');
-                value.append(keyArray[index].replaceAll("\"", "\\\""));
-                value.append("\":");
-                value.append('\"');
-                if (isProperty) {
-                    value.append(BeanUtils.getProperty(targetMap.get(targetName), keyArray[index]));
-                } else {
-                    appendValue(value, invokeNestedMethod(targetName, keyArray[index]));
+                value.append("}");
+            } finally {
+                for (final Evaluation evaluation : evaluations) {
+                    if (!evaluation.isDone()) {
+                        evaluation.cancel(true);
+                    }
                 }
-                value.append('\"');
             }
-            value.append("}");
         } catch (final ReflectiveOperationException roe) {
             appendError(value, roe);
         } catch (final RuntimeException re) {
@@ -318,6 +725,35 @@ public class URIInvoker extends Invoker {
         }
     }
 
+    /**
+     * Evaluate the expressions on the target, either one after another in the calling thread as
+     * the results are awaited or all at once in the evaluation executor. The results are to be taken in order through
+     * {@link Evaluation#await(long)}.
+     *
+     * @param target
+     *            the target object
+     * @param expressions
+     *            the nested methods or properties
+     * @param isProperty
+     *            true if properties
+     * @param concurrent
+     *            true to evaluate concurrently
+     * @return the evaluations in the order of expressions
+     */
+    public List<Evaluation> evaluateAll(final Object target, final String[] expressions, final boolean isProperty,
+            final boolean concurrent) {
+        final List<Evaluation> evaluations = new ArrayList<Evaluation>(expressions.length);
+        for (final String expression : expressions) {
+            final Evaluation evaluation = new Evaluation(expression, () -> isProperty
+                    ? BeanUtils.getProperty(target, expression) : invokeNestedMethod(target, expression));
+            evaluations.add(evaluation);
+            if (concurrent && expressions.length > 1) {
+                evaluation.submit(getEvaluationExecutor());
+            }
+        }
+        return evaluations;
+    }
+
     /**
      * Convert an object to string.
      *
@@ -372,11 +808,60 @@ public class URIInvoker extends Invoker {
                     value.append(SystemInfo.LINE_SEPARATOR);
                 }
             } else {
-                value.append(convertUtil.convert(obj).replaceAll("\"", "\\\""));
+                value.append(getConvertUtil().convert(obj));
             }
         }
     }
 
+    /**
+     * Write the value of the supplied keys separated by ";;" as JSON, a JSON object by key if more
+     * than one key, streamed as per the limits of the json writer.
+     *
+     * @param out
+     *            the output stream, left open
+     * @param targetName
+     *            the target name
+     * @param keys
+     *            the keys
+     * @return true if written fully, false if any limit was hit
+     * @throws IOException
+     *             if problem writing
+     */
+    public boolean writeJson(final OutputStream out, final String targetName, final String keys)
+            throws IOException {
+        final String[] keyArray = keys.split(";;");
+        Object result;
+        try {
+            if (keyArray.length == 1) {
+                result = invokeNestedMethod(targetName, keyArray[0]);
+            } else {
+                final Map<String, Object> values = new LinkedHashMap<>();
+                for (final String key : keyArray) {
+                    values.put(key, invokeNestedMethod(targetName, key));
+                }
+                result = values;
+            }
+        } catch (final Exception ex) {
+            result = Collections.singletonMap("error", ex.toString());
+        }
+        return jsonWriter.write(out, result);
+    }
+
+    /**
+     * Write the object as JSON, streamed as per the limits of the json writer.
+     *
+     * @param out
+     *            the output stream, left open
+     * @param obj
+     *            the object
+     * @return true if written fully, false if any limit was hit
+     * @throws IOException
+     *             if problem writing
+     */
+    public boolean writeJson(final OutputStream out, final Object obj) throws IOException {
+        return jsonWriter.write(out, obj);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -403,7 +888,7 @@ public class URIInvoker extends Invoker {
      */
     public Object invokeNestedMethod(final String targetName, final String nestedMethod)
             throws ReflectiveOperationException, ScriptException {
-        return invokeNestedMethod(targetMap.get(targetName), nestedMethod);
+        return invokeNestedMethod(getTarget(targetName), nestedMethod);
     }
 
     /**
@@ -687,7 +1172,7 @@ public class URIInvoker extends Invoker {
      */
     public long sizeofProperty(final String targetName, final String propertyName)
             throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        return URIInvoker.sizeof(PropertyUtils.getProperty(targetMap.get(targetName), propertyName));
+        return URIInvoker.sizeof(PropertyUtils.getProperty(getTarget(targetName), propertyName));
     }
 
     /**
@@ -0,0 +1,310 @@
+package com.bluejeans.utils.javaagent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.bluejeans.utils.MetaUtil;
+
+/**
+ * Sampling allocation profiler, the allocation sites instrumented by the {@link AllocationTransformer} report
+ * one in every sample rate allocations here. The sampled count and bytes per site are kept in a fixed size
+ * off heap table so that the profiler itself adds nothing to the heap it is measuring.
+ *
+ * @author Dinesh Ilindra
+ */
+public class AllocationProfiler implements AllocationProfilerMXBean {
+
+    /**
+     * The max no. of allocation sites
+     */
+    public static final int MAX_SITES = 16384;
+
+    private static final int SLOT_BYTES = 16;
+
+    private static final ByteBuffer table = ByteBuffer.allocateDirect(MAX_SITES * SLOT_BYTES);
+
+    private static final String[] sites = new String[MAX_SITES];
+
+    private static final Map<String, Integer> siteIds = new HashMap<>();
+
+    private static int siteCount, droppedSites;
+
+    private static volatile int sampleRate = 1024;
+
+    private static volatile Instrumentation sizer;
+
+    private static AllocationProfiler instance;
+
+    private final Instrumentation instrumentation;
+
+    private final AllocationTransformer transformer;
+
+    private boolean enabled;
+
+    /**
+     * @param instrumentation
+     *            the instrumentation
+     * @param transformer
+     *            the transformer
+     */
+    public AllocationProfiler(final Instrumentation instrumentation, final AllocationTransformer transformer) {
+        this.instrumentation = instrumentation;
+        this.transformer = transformer;
+        if (instrumentation != null) {
+            sizer = instrumentation;
+        }
+    }
+
+    /**
+     * Sample the allocation, called from the instrumented code right after the allocation.
+     *
+     * @param siteId
+     *            the site id
+     * @param allocated
+     *            the allocated object
+     */
+    public static void sample(final int siteId, final Object allocated) {
+        final int rate = sampleRate;
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0) {
+            return;
+        }
+        final long bytes = sizeOf(allocated);
+        final int offset = siteId * SLOT_BYTES;
+        synchronized (table) {
+            table.putLong(offset, table.getLong(offset) + 1);
+            table.putLong(offset + 8, table.getLong(offset + 8) + bytes);
+        }
+    }
+
+    /**
+     * The shallow size from the instrumentation if available, else estimated.
+     *
+     * @param allocated
+     *            the allocated object
+     * @return the size in bytes
+     */
+    static long sizeOf(final Object allocated) {
+        if (allocated == null) {
+            return 0;
+        }
+        final Instrumentation current = sizer;
+        if (current != null) {
+            return current.getObjectSize(allocated);
+        }
+        final Class<?> type = allocated.getClass();
+        if (type.isArray()) {
+            final Class<?> component = type.getComponentType();
+            final int width = component == long.class || component == double.class ? 8
+                    : component == byte.class || component == boolean.class ? 1
+                            : component == char.class || component == short.class ? 2 : 4;
+            return 16 + (long) Array.getLength(allocated) * width;
+        }
+        return 16;
+    }
+
+    /**
+     * Register the allocation site, the same site always gets the same id.
+     *
+     * @param site
+     *            the site description
+     * @return the site id / -1 if the table is full
+     */
+    public static synchronized int register(final String site) {
+        final Integer id = siteIds.get(site);
+        if (id != null) {
+            return id;
+        }
+        if (siteCount == MAX_SITES) {
+            droppedSites++;
+            return -1;
+        }
+        sites[siteCount] = site;
+        siteIds.put(site, siteCount);
+        return siteCount++;
+    }
+
+    /**
+     * @param site
+     *            the site description
+     * @return the sampled count and bytes / null if not registered
+     */
+    public static synchronized long[] sampled(final String site) {
+        final Integer id = siteIds.get(site);
+        if (id == null) {
+            return null;
+        }
+        synchronized (table) {
+            return new long[] { table.getLong(id * SLOT_BYTES), table.getLong(id * SLOT_BYTES + 8) };
+        }
+    }
+
+    /**
+     * Install the profiler from the agent args - allocInclude, allocExclude as globs separated by ';' and
+     * allocSampleRate. It is enabled right away unless allocProfile=false is given.
+     *
+     * @param instrumentation
+     *            the instrumentation
+     * @param args
+     *            the agent args
+     * @return the profiler
+     */
+    public static synchronized AllocationProfiler install(final Instrumentation instrumentation,
+            final Map<String, String> args) {
+        if (instance == null) {
+            instance = new AllocationProfiler(instrumentation,
+                    new AllocationTransformer(args.get("allocInclude"), args.get("allocExclude")));
+            try {
+                MetaUtil.registerAsMBean(instance);
+            } catch (final Exception jme) {
+                // already registered
+            }
+        }
+        if (args.containsKey("allocSampleRate")) {
+            instance.setSampleRate(Integer.parseInt(args.get("allocSampleRate")));
+        }
+        if (!"false".equalsIgnoreCase(args.get("allocProfile"))) {
+            instance.setEnabled(true);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the installed profiler / null
+     */
+    public static synchronized AllocationProfiler getInstance() {
+        return instance;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#isEnabled()
+     */
+    @Override
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#setEnabled(boolean)
+     */
+    @Override
+    public synchronized void setEnabled(final boolean enabled) {
+        if (this.enabled == enabled) {
+            return;
+        }
+        if (enabled) {
+            instrumentation.addTransformer(transformer, true);
+        } else {
+            instrumentation.removeTransformer(transformer);
+        }
+        this.enabled = enabled;
+        MethodProfiler.retransform(instrumentation, transformer::includesClass);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#getSampleRate()
+     */
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#setSampleRate(int)
+     */
+    @Override
+    public void setSampleRate(final int sampleRate) {
+        AllocationProfiler.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#getSiteCount()
+     */
+    @Override
+    public int getSiteCount() {
+        synchronized (AllocationProfiler.class) {
+            return siteCount;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#getDroppedSites()
+     */
+    @Override
+    public int getDroppedSites() {
+        synchronized (AllocationProfiler.class) {
+            return droppedSites;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#topSites(int)
+     */
+    @Override
+    public String[] topSites(final int count) {
+        final int total = getSiteCount();
+        final long[] counts = new long[total], bytes = new long[total];
+        synchronized (table) {
+            for (int index = 0; index < total; index++) {
+                counts[index] = table.getLong(index * SLOT_BYTES);
+                bytes[index] = table.getLong(index * SLOT_BYTES + 8);
+            }
+        }
+        final List<Integer> ids = new ArrayList<>();
+        for (int index = 0; index < total; index++) {
+            if (counts[index] > 0) {
+                ids.add(index);
+            }
+        }
+        ids.sort((id1, id2) -> Long.compare(bytes[id2], bytes[id1]));
+        final int rate = sampleRate;
+        final String[] top = new String[Math.min(count, ids.size())];
+        for (int index = 0; index < top.length; index++) {
+            final int id = ids.get(index);
+            top[index] = sites[id] + " : samples=" + counts[id] + ", sampledBytes=" + bytes[id]
+                    + ", estimatedBytes=" + bytes[id] * rate;
+        }
+        return top;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.AllocationProfilerMXBean#reset()
+     */
+    @Override
+    public void reset() {
+        synchronized (table) {
+            for (int offset = 0; offset < MAX_SITES * SLOT_BYTES; offset += 8) {
+                table.putLong(offset, 0);
+            }
+        }
+    }
+
+    /**
+     * @return the transformer
+     */
+    public AllocationTransformer getTransformer() {
+        return transformer;
+    }
+
+}
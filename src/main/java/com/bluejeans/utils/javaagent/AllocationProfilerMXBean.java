@@ -0,0 +1,58 @@
+package com.bluejeans.utils.javaagent;
+
+/**
+ * Allocation profiler MBean
+ *
+ * @author Dinesh Ilindra
+ */
+public interface AllocationProfilerMXBean {
+
+    /**
+     * @return true if the allocation sites are instrumented
+     */
+    boolean isEnabled();
+
+    /**
+     * Instrument / restore the matching classes by retransforming them.
+     *
+     * @param enabled
+     *            the enabled
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return one in how many allocations is sampled
+     */
+    int getSampleRate();
+
+    /**
+     * @param sampleRate
+     *            one in how many allocations to sample
+     */
+    void setSampleRate(int sampleRate);
+
+    /**
+     * @return the no. of allocation sites instrumented
+     */
+    int getSiteCount();
+
+    /**
+     * @return the no. of allocation sites left out as the table is full
+     */
+    int getDroppedSites();
+
+    /**
+     * The allocation sites with the most sampled bytes.
+     *
+     * @param count
+     *            the max no. of sites
+     * @return the site stats
+     */
+    String[] topSites(int count);
+
+    /**
+     * Reset the sampled counts.
+     */
+    void reset();
+
+}
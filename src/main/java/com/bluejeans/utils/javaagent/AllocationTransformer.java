@@ -0,0 +1,136 @@
+package com.bluejeans.utils.javaagent;
+
+import java.io.ByteArrayInputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.LoaderClassPath;
+import javassist.expr.Expr;
+import javassist.expr.ExprEditor;
+import javassist.expr.NewArray;
+import javassist.expr.NewExpr;
+
+/**
+ * Reports the object and array creations in the matching classes to the {@link AllocationProfiler}. Only the
+ * existing code is edited, so removing the transformer and retransforming restores the classes.
+ *
+ * @author Dinesh Ilindra
+ */
+public class AllocationTransformer implements ClassFileTransformer {
+
+    private final List<Pattern> classIncludes, classExcludes;
+
+    /**
+     * @param classIncludes
+     *            the class globs to include separated by ';', all if empty
+     * @param classExcludes
+     *            the class globs to exclude separated by ';'
+     */
+    public AllocationTransformer(final String classIncludes, final String classExcludes) {
+        this.classIncludes = ProfilingTransformer.globs(classIncludes);
+        this.classExcludes = ProfilingTransformer
+                .globs(ProfilingTransformer.DEFAULT_EXCLUDES + ";" + (classExcludes == null ? "" : classExcludes));
+    }
+
+    /**
+     * @param className
+     *            the class name with dots
+     * @return true if the class is to be instrumented
+     */
+    public boolean includesClass(final String className) {
+        return ProfilingTransformer.matches(classIncludes, classExcludes, className);
+    }
+
+    /**
+     * Replaces each allocation with itself followed by the sample call.
+     */
+    private static class SiteEditor extends ExprEditor {
+
+        private final String className;
+        private boolean modified;
+
+        SiteEditor(final String className) {
+            this.className = className;
+        }
+
+        private void replace(final int siteId, final Expr expr) throws CannotCompileException {
+            if (siteId >= 0) {
+                expr.replace("{ $_ = $proceed($$); " + AllocationProfiler.class.getName() + ".sample(" + siteId
+                        + ", ($w) $_); }");
+                modified = true;
+            }
+        }
+
+        private String site(final Expr expr, final String type) {
+            return className + "." + expr.where().getName() + "(line " + expr.getLineNumber() + ") new " + type;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javassist.expr.ExprEditor#edit(javassist.expr.NewExpr)
+         */
+        @Override
+        public void edit(final NewExpr expr) throws CannotCompileException {
+            replace(AllocationProfiler.register(site(expr, expr.getClassName())), expr);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see javassist.expr.ExprEditor#edit(javassist.expr.NewArray)
+         */
+        @Override
+        public void edit(final NewArray expr) throws CannotCompileException {
+            String type;
+            try {
+                type = expr.getComponentType().getName();
+            } catch (final Exception ex) {
+                type = "?";
+            }
+            final StringBuilder dims = new StringBuilder(type);
+            for (int index = 0; index < expr.getDimension(); index++) {
+                dims.append("[]");
+            }
+            replace(AllocationProfiler.register(site(expr, dims.toString())), expr);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.instrument.ClassFileTransformer#transform(java.lang.ClassLoader, java.lang.String,
+     * java.lang.Class, java.security.ProtectionDomain, byte[])
+     */
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
+        if (className == null || !includesClass(className.replace('/', '.'))) {
+            return null;
+        }
+        try {
+            final ClassPool classPool = new ClassPool(true);
+            if (loader != null) {
+                classPool.appendClassPath(new LoaderClassPath(loader));
+            }
+            final CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(classfileBuffer));
+            if (ctClass.isInterface()) {
+                return null;
+            }
+            final SiteEditor editor = new SiteEditor(ctClass.getName());
+            ctClass.instrument(editor);
+            final byte[] byteCode = editor.modified ? ctClass.toBytecode() : null;
+            ctClass.detach();
+            return byteCode;
+        } catch (final Exception ex) {
+            return null;
+        }
+    }
+
+}
@@ -69,9 +69,19 @@ public class BootstrapAgent {
     public static void agentmain(final String agentArgs, final Instrumentation inst) {
         instrumentation = inst;
         final Map<String, String> argProps = new HashMap<>();
-        for (final String prop : agentArgs.split(",")) {
-            final String[] info = prop.split("=");
-            argProps.put(info[0], info[1]);
+        if (agentArgs != null) {
+            for (final String prop : agentArgs.split(",")) {
+                final String[] info = prop.split("=", 2);
+                if (info.length == 2) {
+                    argProps.put(info[0], info[1]);
+                }
+            }
+        }
+        if ("true".equalsIgnoreCase(argProps.get("profile")) || argProps.containsKey("profileInclude")) {
+            MethodProfiler.install(inst, argProps);
+        }
+        if ("true".equalsIgnoreCase(argProps.get("allocProfile")) || argProps.containsKey("allocInclude")) {
+            AllocationProfiler.install(inst, argProps);
         }
         if ("true".equalsIgnoreCase(argProps.get("startAsync"))) {
             new Timer().schedule(new TimerTask() {
@@ -0,0 +1,122 @@
+package com.bluejeans.utils.javaagent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with power of two nano second buckets
+ *
+ * @author Dinesh Ilindra
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param name
+     *            the name
+     */
+    public LatencyHistogram(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos
+     *            the duration in nanos
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value) - (value == 0 ? 0 : 1));
+        count.increment();
+        totalNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Estimate the percentile as the upper bound of the bucket it falls in.
+     *
+     * @param percentile
+     *            the percentile between 0 and 100
+     * @return the nanos
+     */
+    public long percentile(final double percentile) {
+        final long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += buckets.get(index);
+            if (seen >= rank) {
+                return Math.min(index == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (index + 1)) - 1, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * Reset all the values.
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKETS; index++) {
+            buckets.set(index, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the totalNanos
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return the maxNanos
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final long total = getCount();
+        return name + " : count=" + total + ", avgNanos=" + (total == 0 ? 0 : getTotalNanos() / total) + ", p50="
+                + percentile(50) + ", p99=" + percentile(99) + ", maxNanos=" + getMaxNanos();
+    }
+
+}
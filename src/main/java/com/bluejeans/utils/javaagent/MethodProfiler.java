@@ -0,0 +1,263 @@
+package com.bluejeans.utils.javaagent;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import com.bluejeans.utils.MetaUtil;
+
+/**
+ * Method level latency profiler, the methods instrumented by the {@link ProfilingTransformer} record
+ * their durations here into per method histograms.
+ *
+ * @author Dinesh Ilindra
+ */
+public class MethodProfiler implements MethodProfilerMXBean {
+
+    private static volatile LatencyHistogram[] histograms = new LatencyHistogram[64];
+
+    private static final Map<String, Integer> methodIds = new ConcurrentHashMap<>();
+
+    private static int methodCount;
+
+    private static MethodProfiler instance;
+
+    private final Instrumentation instrumentation;
+
+    private final ProfilingTransformer transformer;
+
+    private boolean enabled;
+
+    /**
+     * @param instrumentation
+     *            the instrumentation
+     * @param transformer
+     *            the transformer
+     */
+    public MethodProfiler(final Instrumentation instrumentation, final ProfilingTransformer transformer) {
+        this.instrumentation = instrumentation;
+        this.transformer = transformer;
+    }
+
+    /**
+     * Record the duration of the method, called from the instrumented code.
+     *
+     * @param methodId
+     *            the method id
+     * @param nanos
+     *            the duration
+     */
+    public static void record(final int methodId, final long nanos) {
+        final LatencyHistogram histogram = histograms[methodId];
+        if (histogram != null) {
+            histogram.record(nanos);
+        }
+    }
+
+    /**
+     * Register the method, the same name always gets the same id.
+     *
+     * @param method
+     *            the method name
+     * @return the method id
+     */
+    public static synchronized int register(final String method) {
+        Integer id = methodIds.get(method);
+        if (id == null) {
+            id = methodCount++;
+            LatencyHistogram[] current = histograms;
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[id] = new LatencyHistogram(method);
+            histograms = current;
+            methodIds.put(method, id);
+        }
+        return id;
+    }
+
+    /**
+     * The histogram of the method.
+     *
+     * @param method
+     *            the method name
+     * @return the histogram / null if not profiled
+     */
+    public static LatencyHistogram histogram(final String method) {
+        final Integer id = methodIds.get(method);
+        return id == null ? null : histograms[id];
+    }
+
+    /**
+     * Install the profiler from the agent args - profileInclude, profileExclude,
+     * profileMethodInclude and profileMethodExclude, each a list of globs separated by ';'. It is
+     * enabled right away unless profile=false is given.
+     *
+     * @param instrumentation
+     *            the instrumentation
+     * @param args
+     *            the agent args
+     * @return the profiler
+     */
+    public static synchronized MethodProfiler install(final Instrumentation instrumentation,
+            final Map<String, String> args) {
+        if (instance == null) {
+            instance = new MethodProfiler(instrumentation,
+                    new ProfilingTransformer(args.get("profileInclude"), args.get("profileExclude"),
+                            args.get("profileMethodInclude"), args.get("profileMethodExclude")));
+            try {
+                MetaUtil.registerAsMBean(instance);
+            } catch (final Exception jme) {
+                // already registered
+            }
+        }
+        if (!"false".equalsIgnoreCase(args.get("profile"))) {
+            instance.setEnabled(true);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the installed profiler / null
+     */
+    public static synchronized MethodProfiler getInstance() {
+        return instance;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.MethodProfilerMXBean#isEnabled()
+     */
+    @Override
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.MethodProfilerMXBean#setEnabled(boolean)
+     */
+    @Override
+    public synchronized void setEnabled(final boolean enabled) {
+        if (this.enabled == enabled) {
+            return;
+        }
+        if (enabled) {
+            instrumentation.addTransformer(transformer, true);
+        } else {
+            instrumentation.removeTransformer(transformer);
+        }
+        this.enabled = enabled;
+        retransform(instrumentation, transformer::includesClass);
+    }
+
+    /**
+     * Retransform the loaded classes matching the filter, one by one if the batch fails.
+     *
+     * @param instrumentation
+     *            the instrumentation
+     * @param filter
+     *            the class name filter
+     */
+    static void retransform(final Instrumentation instrumentation, final Predicate<String> filter) {
+        final List<Class<?>> classes = new ArrayList<>();
+        for (final Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            if (instrumentation.isModifiableClass(clazz) && filter.test(clazz.getName())) {
+                classes.add(clazz);
+            }
+        }
+        try {
+            instrumentation.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+        } catch (final Throwable th) {
+            for (final Class<?> clazz : classes) {
+                try {
+                    instrumentation.retransformClasses(clazz);
+                } catch (final Throwable th1) {
+                    // leave this one as is
+                }
+            }
+        }
+    }
+
+    private static List<LatencyHistogram> histograms() {
+        final LatencyHistogram[] current = histograms;
+        final List<LatencyHistogram> list = new ArrayList<>();
+        for (final LatencyHistogram histogram : current) {
+            if (histogram != null && histogram.getCount() > 0) {
+                list.add(histogram);
+            }
+        }
+        return list;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.MethodProfilerMXBean#getMethodCount()
+     */
+    @Override
+    public int getMethodCount() {
+        return methodIds.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.MethodProfilerMXBean#topMethods(int)
+     */
+    @Override
+    public String[] topMethods(final int count) {
+        final List<LatencyHistogram> list = histograms();
+        list.sort(Comparator.comparingLong(LatencyHistogram::getTotalNanos).reversed());
+        final String[] top = new String[Math.min(count, list.size())];
+        for (int index = 0; index < top.length; index++) {
+            top[index] = list.get(index).toString();
+        }
+        return top;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.MethodProfilerMXBean#findMethods(java.lang.String)
+     */
+    @Override
+    public String[] findMethods(final String text) {
+        final List<String> found = new ArrayList<>();
+        for (final LatencyHistogram histogram : histograms()) {
+            if (histogram.getName().contains(text)) {
+                found.add(histogram.toString());
+            }
+        }
+        return found.toArray(new String[found.size()]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.bluejeans.utils.javaagent.MethodProfilerMXBean#reset()
+     */
+    @Override
+    public void reset() {
+        for (final LatencyHistogram histogram : histograms) {
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+    }
+
+    /**
+     * @return the transformer
+     */
+    public ProfilingTransformer getTransformer() {
+        return transformer;
+    }
+
+}
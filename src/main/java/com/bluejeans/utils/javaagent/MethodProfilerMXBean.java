@@ -0,0 +1,51 @@
+package com.bluejeans.utils.javaagent;
+
+/**
+ * Method profiler MBean
+ *
+ * @author Dinesh Ilindra
+ */
+public interface MethodProfilerMXBean {
+
+    /**
+     * @return true if the methods are instrumented
+     */
+    boolean isEnabled();
+
+    /**
+     * Instrument / restore the matching classes by retransforming them.
+     *
+     * @param enabled
+     *            the enabled
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the no. of methods profiled
+     */
+    int getMethodCount();
+
+    /**
+     * The methods which took the most total time.
+     *
+     * @param count
+     *            the max no. of methods
+     * @return the method stats
+     */
+    String[] topMethods(int count);
+
+    /**
+     * The stats of the methods whose name contains the given text.
+     *
+     * @param text
+     *            the text
+     * @return the method stats
+     */
+    String[] findMethods(String text);
+
+    /**
+     * Reset all the histograms.
+     */
+    void reset();
+
+}
@@ -0,0 +1,172 @@
+package com.bluejeans.utils.javaagent;
+
+import java.io.ByteArrayInputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+
+/**
+ * Wraps the matching methods to record their durations into the {@link MethodProfiler}. Only the normal
+ * returns are recorded, and no members are added so that the loaded classes can be retransformed.
+ *
+ * @author Dinesh Ilindra
+ */
+public class ProfilingTransformer implements ClassFileTransformer {
+
+    /**
+     * The classes never instrumented
+     */
+    public static final String DEFAULT_EXCLUDES = "java.*;javax.*;jdk.*;sun.*;com.sun.*;javassist.*;"
+            + MethodProfiler.class.getName() + ";" + LatencyHistogram.class.getName() + ";"
+            + ProfilingTransformer.class.getName() + ";" + AllocationProfiler.class.getName() + ";"
+            + AllocationTransformer.class.getName();
+
+    private static final String START_VAR = "__profStartNanos";
+
+    private final List<Pattern> classIncludes, classExcludes, methodIncludes, methodExcludes;
+
+    /**
+     * @param classIncludes
+     *            the class globs to include separated by ';', all if empty
+     * @param classExcludes
+     *            the class globs to exclude separated by ';'
+     * @param methodIncludes
+     *            the method name globs to include separated by ';', all if empty
+     * @param methodExcludes
+     *            the method name globs to exclude separated by ';'
+     */
+    public ProfilingTransformer(final String classIncludes, final String classExcludes, final String methodIncludes,
+            final String methodExcludes) {
+        this.classIncludes = globs(classIncludes);
+        this.classExcludes = globs(DEFAULT_EXCLUDES + ";" + (classExcludes == null ? "" : classExcludes));
+        this.methodIncludes = globs(methodIncludes);
+        this.methodExcludes = globs(methodExcludes);
+    }
+
+    /**
+     * Compile the globs separated by ';', where '*' matches anything.
+     *
+     * @param globs
+     *            the globs
+     * @return the patterns
+     */
+    public static List<Pattern> globs(final String globs) {
+        final List<Pattern> patterns = new ArrayList<>();
+        if (globs != null) {
+            for (final String glob : globs.split(";")) {
+                if (!glob.trim().isEmpty()) {
+                    final StringBuilder regex = new StringBuilder();
+                    for (final String part : glob.trim().split("\\*", -1)) {
+                        if (regex.length() > 0) {
+                            regex.append(".*");
+                        }
+                        regex.append(Pattern.quote(part));
+                    }
+                    patterns.add(Pattern.compile(regex.toString()));
+                }
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * @param includes
+     *            the includes, all if empty
+     * @param excludes
+     *            the excludes
+     * @param name
+     *            the name
+     * @return true if included and not excluded
+     */
+    static boolean matches(final List<Pattern> includes, final List<Pattern> excludes, final String name) {
+        boolean included = includes.isEmpty();
+        for (final Pattern include : includes) {
+            if (include.matcher(name).matches()) {
+                included = true;
+                break;
+            }
+        }
+        if (included) {
+            for (final Pattern exclude : excludes) {
+                if (exclude.matcher(name).matches()) {
+                    return false;
+                }
+            }
+        }
+        return included;
+    }
+
+    /**
+     * @param className
+     *            the class name with dots
+     * @return true if the class is to be instrumented
+     */
+    public boolean includesClass(final String className) {
+        return matches(classIncludes, classExcludes, className);
+    }
+
+    /**
+     * @param methodName
+     *            the method name
+     * @return true if the method is to be instrumented
+     */
+    public boolean includesMethod(final String methodName) {
+        return matches(methodIncludes, methodExcludes, methodName);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.instrument.ClassFileTransformer#transform(java.lang.ClassLoader, java.lang.String,
+     * java.lang.Class, java.security.ProtectionDomain, byte[])
+     */
+    @Override
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws IllegalClassFormatException {
+        if (className == null || !includesClass(className.replace('/', '.'))) {
+            return null;
+        }
+        try {
+            final ClassPool classPool = new ClassPool(true);
+            if (loader != null) {
+                classPool.appendClassPath(new LoaderClassPath(loader));
+            }
+            final CtClass ctClass = classPool.makeClass(new ByteArrayInputStream(classfileBuffer));
+            if (ctClass.isInterface()) {
+                return null;
+            }
+            boolean modified = false;
+            for (final CtMethod method : ctClass.getDeclaredMethods()) {
+                if (Modifier.isAbstract(method.getModifiers()) || Modifier.isNative(method.getModifiers())
+                        || !includesMethod(method.getName())) {
+                    continue;
+                }
+                try {
+                    final int methodId = MethodProfiler.register(method.getLongName());
+                    method.addLocalVariable(START_VAR, CtClass.longType);
+                    method.insertBefore(START_VAR + " = System.nanoTime();");
+                    method.insertAfter(MethodProfiler.class.getName() + ".record(" + methodId
+                            + ", System.nanoTime() - " + START_VAR + ");");
+                    modified = true;
+                } catch (final Exception ex) {
+                    // leave this method as is
+                }
+            }
+            final byte[] byteCode = modified ? ctClass.toBytecode() : null;
+            ctClass.detach();
+            return byteCode;
+        } catch (final Exception ex) {
+            return null;
+        }
+    }
+
+}
@@ -13,9 +13,16 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -23,6 +30,7 @@ import javax.net.ssl.SSLContext;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.Consts;
+import org.apache.http.HttpStatus;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.config.RequestConfig;
@@ -47,9 +55,16 @@ import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.bluejeans.bigqueue.BigArray;
+import com.bluejeans.utils.BatchAccumulator;
+import com.bluejeans.utils.BigQueue.Compression;
 import com.bluejeans.utils.BulkOperationUtil;
+import com.bluejeans.utils.BulkOperationUtil.BulkFailureException;
 import com.bluejeans.utils.BulkOperationUtil.BulkOperation;
 import com.bluejeans.utils.EnumCounter;
+import com.bluejeans.utils.MetricRegistry;
+import com.bluejeans.utils.MetricRegistry.LabeledMetric;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Theon client to post using bulk operations
@@ -99,6 +114,36 @@ public class TheonClient<E extends Serializable> {
 
     }
 
+    /**
+     * Result of posting messages, ordered from the best to the worst
+     */
+    public static enum PostResult {
+
+        /**
+         * all posted
+         */
+        SUCCESS,
+
+        /**
+         * could be posted on retry
+         */
+        TRANSIENT_FAILURE,
+
+        /**
+         * rejected, would be rejected again
+         */
+        PERMANENT_FAILURE;
+
+        /**
+         * @param other
+         *            the other result
+         * @return the worse of this and other
+         */
+        public PostResult and(final PostResult other) {
+            return compareTo(other) >= 0 ? this : other;
+        }
+    }
+
     /**
      * Encapsulates a theon message with topic and key
      *
@@ -112,6 +157,7 @@ public class TheonClient<E extends Serializable> {
 
         private final String topic, key;
         private final E message;
+        private transient int size;
 
         /**
          * Construct with topic and message, key will be empty string
@@ -162,6 +208,18 @@ public class TheonClient<E extends Serializable> {
             return message;
         }
 
+        /**
+         * The size of this in the post body, the key, separator, message and line end.
+         *
+         * @return the size
+         */
+        public int size() {
+            if (size == 0) {
+                size = (key == null ? 0 : key.length()) + String.valueOf(message).length() + 3;
+            }
+            return size;
+        }
+
     }
 
     private String theonUrl;
@@ -179,35 +237,44 @@ public class TheonClient<E extends Serializable> {
     private String defaultKey = "";
 
     private final BulkOperation<TheonMessage<E>> bulkOperation = coll -> {
-        final Map<String, Map<String, List<E>>> messageMap = new HashMap<String, Map<String, List<E>>>();
-        boolean status = true;
+        final Map<String, List<TheonMessage<E>>> groups = new HashMap<String, List<TheonMessage<E>>>();
         for (final TheonMessage<E> tm : coll) {
             if (tm.topic != null) {
-                if (!messageMap.containsKey(tm.topic)) {
-                    messageMap.put(tm.topic, new HashMap<String, List<E>>());
-                }
-                if (!messageMap.get(tm.topic).containsKey(tm.key)) {
-                    messageMap.get(tm.topic).put(tm.key, new ArrayList<E>());
-                }
-                messageMap.get(tm.topic).get(tm.key).add(tm.message);
+                groups.computeIfAbsent(groupOf(tm), group -> new ArrayList<TheonMessage<E>>()).add(tm);
             }
         }
-        if (postPerKey) {
-            for (final String topic1 : messageMap.keySet()) {
-                for (final String key : messageMap.get(topic1).keySet()) {
-                    status &= postMessagesNow(topic1, key, messageMap.get(topic1).get(key));
-                }
-            }
-        } else {
-            for (final String topic2 : messageMap.keySet()) {
-                status = postMessagesNow(topic2, defaultKey, messageMap.get(topic2));
+        final List<List<TheonMessage<E>>> groupList = new ArrayList<List<TheonMessage<E>>>(groups.values());
+        final List<List<TheonMessage<E>>> groupFailedList = new ArrayList<List<TheonMessage<E>>>();
+        final List<Callable<PostResult>> posts = new ArrayList<Callable<PostResult>>();
+        for (final List<TheonMessage<E>> group : groupList) {
+            final List<TheonMessage<E>> groupFailed = new ArrayList<TheonMessage<E>>();
+            groupFailedList.add(groupFailed);
+            posts.add(() -> postGroup(group, groupFailed));
+        }
+        final List<PostResult> results = postAll(posts);
+        final List<TheonMessage<E>> failed = new ArrayList<TheonMessage<E>>();
+        boolean permanent = false;
+        for (int index = 0; index < results.size(); index++) {
+            if (results.get(index) != PostResult.SUCCESS) {
+                // the whole group if it failed before any of its chunks was posted
+                failed.addAll(groupFailedList.get(index).isEmpty() ? groupList.get(index)
+                        : groupFailedList.get(index));
+                permanent |= results.get(index) == PostResult.PERMANENT_FAILURE;
             }
         }
-        if (!status) {
-            throw new RuntimeException("Error in posting messages");
+        if (!failed.isEmpty()) {
+            throw new BulkFailureException("Error in posting messages", failed, permanent);
         }
     };
 
+    private BatchAccumulator<TheonMessage<E>> accumulator;
+
+    private ThreadPoolExecutor postExecutor;
+
+    private boolean accumulatorEnabled = false;
+
+    private long lingerMillis = 1000;
+
     private BulkOperationUtil<TheonMessage<E>> bulkOperationUtil;
 
     private BulkOperationUtil<TheonMessage<E>> parallelBulkOperationUtil;
@@ -224,6 +291,18 @@ public class TheonClient<E extends Serializable> {
 
     private long bigQueueTimerInterval = 30000;
 
+    private int queuePageSize = BigArray.MINIMUM_DATA_PAGE_SIZE;
+
+    private boolean queuePagePrepare = false;
+
+    private boolean queuePageTouch = false;
+
+    private Compression queueCompression = Compression.NONE;
+
+    private int queueFrameRecords = 64;
+
+    private boolean queueRecordHeader = true;
+
     private boolean parallelEnabled = false;
 
     private int queueCapacity = 5000;
@@ -240,6 +319,10 @@ public class TheonClient<E extends Serializable> {
 
     private EnumCounter<TheonStatus> theonCounter;
 
+    private MetricRegistry metricRegistry;
+
+    private LabeledMetric topicMetric;
+
     private int bulkMessageSize = 200;
 
     private int httpConnPoolSize = 10;
@@ -328,17 +411,39 @@ public class TheonClient<E extends Serializable> {
         config.setSocketTimeout(60000);
         requestConfig = config.build();
         bulkOperationUtil = BulkOperationUtil.create(bulkPollIntervalSecs, queueCapacity, queueDir, queueName,
-                bigQueueTimerInterval, bulkOperation, bulkMessageSize, 1, 1, false);
+                bigQueueTimerInterval, bulkOperation, bulkMessageSize, 1, 1, queuePageSize, false);
         parallelBulkOperationUtil = BulkOperationUtil.create(bulkPollIntervalSecs, queueCapacity, queueDir, queueName,
-                bigQueueTimerInterval, bulkOperation, bulkMessageSize, httpConnPoolSize, httpConnPoolSize, false);
+                bigQueueTimerInterval, bulkOperation, bulkMessageSize, httpConnPoolSize, httpConnPoolSize,
+                queuePageSize, false);
         bulkOperationUtil.setFileBased(fileBasedQueue);
         parallelBulkOperationUtil.setFileBased(fileBasedQueue);
+        if (fileBasedQueue && !queueRecordHeader && bulkOperationUtil.getBigQueue() != null) {
+            bulkOperationUtil.getBigQueue().setRecordHeader(false);
+            parallelBulkOperationUtil.getBigQueue().setRecordHeader(false);
+        }
+        if (fileBasedQueue && queueCompression != Compression.NONE) {
+            bulkOperationUtil.compressionIs(queueCompression, queueFrameRecords);
+            parallelBulkOperationUtil.compressionIs(queueCompression, queueFrameRecords);
+        }
+        if (fileBasedQueue && queuePagePrepare) {
+            bulkOperationUtil.preparePages(queuePageTouch, 1000);
+            parallelBulkOperationUtil.preparePages(queuePageTouch, 1000);
+        }
         bulkOperationUtil.setPeekEnabled(peekEnabled);
         parallelBulkOperationUtil.setPeekEnabled(peekEnabled);
         bulkOperationUtil.setWaitEnabled(waitEnabled);
         parallelBulkOperationUtil.setWaitEnabled(waitEnabled);
         parallelBulkOperationUtil.setParallel(true);
+        bulkOperationUtil.weighWith(TheonMessage::size, maxPostEntitySize);
+        parallelBulkOperationUtil.weighWith(TheonMessage::size, maxPostEntitySize);
         theonCounter = new EnumCounter<TheonStatus>(TheonStatus.class);
+        if (metricRegistry == null) {
+            metricRegistry = MetricRegistry.getInstance();
+        }
+        topicMetric = metricRegistry.counter("theon.messages", "topic", "status");
+        bulkOperationUtil.setMetricRegistry(metricRegistry);
+        parallelBulkOperationUtil.setMetricRegistry(metricRegistry);
+        parallelBulkOperationUtil.setMetricLabel(parallelBulkOperationUtil.getMetricLabel() + "-parallel");
         final TheonMessage<E> tm = new TheonMessage<E>(null, null);
         bulkOperationUtil.dummyElementIs(tm);
         parallelBulkOperationUtil.dummyElementIs(tm);
@@ -350,6 +455,25 @@ public class TheonClient<E extends Serializable> {
             bulkOperationUtil.entityTypeIs((Class<TheonMessage<E>>) tm.getClass());
             parallelBulkOperationUtil.entityTypeIs((Class<TheonMessage<E>>) tm.getClass());
         }
+        postExecutor = new ThreadPoolExecutor(httpConnPoolSize, httpConnPoolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(httpConnPoolSize * 16),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("theon-post-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        postExecutor.allowCoreThreadTimeOut(true);
+        if (accumulatorEnabled) {
+            accumulator = new BatchAccumulator<TheonMessage<E>>(coll -> {
+                try {
+                    bulkOperation.doBulk(coll);
+                } catch (final BulkFailureException bfe) {
+                    // the bulk util retries or isolates them
+                    ((Collection<TheonMessage<E>>) bfe.getFailed()).forEach(bulkOperationUtil::add);
+                    throw bfe;
+                } catch (final RuntimeException ex) {
+                    coll.forEach(bulkOperationUtil::add);
+                    throw ex;
+                }
+            }, TheonMessage::size, bulkMessageSize, maxPostEntitySize, lingerMillis, postExecutor);
+        }
         bulkOperationUtil.start();
         parallelBulkOperationUtil.start();
         initialized = true;
@@ -363,6 +487,15 @@ public class TheonClient<E extends Serializable> {
         if (!initialized) {
             return;
         }
+        if (accumulator != null) {
+            accumulator.close();
+        }
+        postExecutor.shutdown();
+        try {
+            postExecutor.awaitTermination(60, TimeUnit.SECONDS);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
         bulkOperationUtil.stop();
         parallelBulkOperationUtil.stop();
         try {
@@ -372,6 +505,126 @@ public class TheonClient<E extends Serializable> {
         }
     }
 
+    /**
+     * The group a message is posted in, the topic or the topic and key if postPerKey.
+     *
+     * @param tm
+     *            the message
+     * @return the group name
+     */
+    private String groupOf(final TheonMessage<E> tm) {
+        return postPerKey ? tm.topic + '\n' + tm.key : tm.topic;
+    }
+
+    /**
+     * Post the messages of one group, in chunks bounded by the max post entity size.
+     *
+     * @param group
+     *            the messages of the same topic, and key if postPerKey
+     * @param failed
+     *            the messages of the chunks not posted, added to
+     * @return the worst result of the chunks
+     */
+    private PostResult postGroup(final List<TheonMessage<E>> group, final List<TheonMessage<E>> failed) {
+        PostResult result = PostResult.SUCCESS;
+        List<TheonMessage<E>> chunk = new ArrayList<TheonMessage<E>>();
+        long bytes = 0;
+        for (final TheonMessage<E> tm : group) {
+            if (!chunk.isEmpty() && bytes + tm.size() > maxPostEntitySize) {
+                result = result.and(postChunk(chunk, failed));
+                chunk = new ArrayList<TheonMessage<E>>();
+                bytes = 0;
+            }
+            chunk.add(tm);
+            bytes += tm.size();
+        }
+        return result.and(postChunk(chunk, failed));
+    }
+
+    /**
+     * Post one chunk of a group.
+     *
+     * @param chunk
+     *            the messages of the same topic, and key if postPerKey
+     * @param failed
+     *            the messages of the chunk if not posted, added to
+     * @return the result
+     */
+    private PostResult postChunk(final List<TheonMessage<E>> chunk, final List<TheonMessage<E>> failed) {
+        final String topic = chunk.get(0).topic;
+        PostResult result;
+        if (postPerKey) {
+            final List<E> messages = new ArrayList<E>(chunk.size());
+            for (final TheonMessage<E> tm : chunk) {
+                messages.add(tm.message);
+            }
+            result = postMessages(topic, chunk.get(0).key, messages);
+        } else {
+            final Map<String, List<E>> messagesMap = new HashMap<String, List<E>>();
+            for (final TheonMessage<E> tm : chunk) {
+                messagesMap.computeIfAbsent(tm.key, key -> new ArrayList<E>()).add(tm.message);
+            }
+            result = postMessages(topic, defaultKey, messagesMap);
+        }
+        if (result != PostResult.SUCCESS) {
+            failed.addAll(chunk);
+        }
+        return result;
+    }
+
+    /**
+     * Run the posts, concurrently in the post executor if more than one.
+     *
+     * @param posts
+     *            the posts
+     * @return the results in order
+     */
+    private List<PostResult> postAll(final List<Callable<PostResult>> posts) {
+        final List<PostResult> results = new ArrayList<PostResult>(posts.size());
+        if (posts.size() == 1 || postExecutor == null) {
+            for (final Callable<PostResult> post : posts) {
+                try {
+                    results.add(post.call());
+                } catch (final Exception ex) {
+                    logger.error("Problem in posting messages", ex);
+                    results.add(PostResult.TRANSIENT_FAILURE);
+                }
+            }
+            return results;
+        }
+        final List<Future<PostResult>> futures = new ArrayList<Future<PostResult>>(posts.size());
+        for (final Callable<PostResult> post : posts) {
+            futures.add(postExecutor.submit(post));
+        }
+        for (final Future<PostResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (final ExecutionException ee) {
+                logger.error("Problem in posting messages", ee.getCause());
+                results.add(PostResult.TRANSIENT_FAILURE);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                results.add(PostResult.TRANSIENT_FAILURE);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Count the messages of the topic, in total and per topic.
+     *
+     * @param topic
+     *            the topic
+     * @param status
+     *            the status
+     * @param count
+     *            the no. of messages
+     */
+    private void countMessages(final String topic, final TheonStatus status, final int count) {
+        theonCounter.incrementEventCount(status, count);
+        topicMetric.update(count, topic, status.name());
+    }
+
     /**
      * Post the given list of messages now
      *
@@ -384,10 +637,26 @@ public class TheonClient<E extends Serializable> {
      */
     public boolean postMessagesNow(final String topic, final String defaultKey,
             final Map<String, List<E>> messagesMap) {
+        return postMessages(topic, defaultKey, messagesMap) == PostResult.SUCCESS;
+    }
+
+    /**
+     * Post the given list of messages now
+     *
+     * @param topic
+     *            the topic
+     * @param defaultKey
+     *            the defaultKey
+     * @param messagesMap
+     *            the key messages map
+     * @return the worst result of the posts made
+     */
+    public PostResult postMessages(final String topic, final String defaultKey,
+            final Map<String, List<E>> messagesMap) {
         if (!initialized) {
-            return false;
+            return PostResult.TRANSIENT_FAILURE;
         }
-        boolean status = true;
+        PostResult result = PostResult.SUCCESS;
         StringBuilder builder = new StringBuilder();
         int count = 0;
         int total = 0;
@@ -418,37 +687,13 @@ public class TheonClient<E extends Serializable> {
                     if (StringUtils.isNotBlank(defaultKey)) {
                         url += "/" + defaultKey;
                     }
-                    final HttpPost post = new HttpPost(url);
-                    post.setConfig(requestConfig);
-                    CloseableHttpResponse response = null;
-                    try {
-                        if (gzipEnabled) {
-                            post.setEntity(new GzipCompressingEntity(new StringEntity(builder.toString())));
-                        } else {
-                            post.setEntity(new StringEntity(builder.toString(), charset));
-                        }
-                        response = httpClient.execute(post);
-                        theonCounter.incrementEventCount(TheonStatus.HTTP_POST_SUCCESS);
-                        theonCounter.incrementEventCount(TheonStatus.MESSAGE_SEND_SUCCESS, count);
-                    } catch (final Exception ex) {
-                        theonCounter.incrementEventCount(TheonStatus.HTTP_POST_FAILURE);
-                        theonCounter.incrementEventCount(TheonStatus.MESSAGE_SEND_FAILURE, count);
-                        logger.error("Could not bulk post with length " + builder.length() + " to - "
-                                + post.getRequestLine(), ex);
-                        status = false;
-                    } finally {
-                        try {
-                            response.close();
-                        } catch (final Exception ex) {
-                            // do nothing
-                        }
-                    }
+                    result = result.and(post(url, builder.toString(), gzipEnabled, topic, count));
                     builder = new StringBuilder();
                     count = 0;
                 }
             }
         }
-        return status;
+        return result;
     }
 
     /**
@@ -477,10 +722,25 @@ public class TheonClient<E extends Serializable> {
      *            the message list
      */
     public boolean postMessagesNow(final String topic, final String key, final List<E> messages) {
+        return postMessages(topic, key, messages) == PostResult.SUCCESS;
+    }
+
+    /**
+     * Post the given list of messages now for specific key
+     *
+     * @param topic
+     *            the topic
+     * @param key
+     *            the key
+     * @param messages
+     *            the message list
+     * @return the worst result of the posts made
+     */
+    public PostResult postMessages(final String topic, final String key, final List<E> messages) {
         if (!initialized) {
-            return false;
+            return PostResult.TRANSIENT_FAILURE;
         }
-        boolean status = true;
+        PostResult result = PostResult.SUCCESS;
         StringBuilder builder = new StringBuilder();
         int count = 0;
         int total = 0;
@@ -497,35 +757,70 @@ public class TheonClient<E extends Serializable> {
                 if (StringUtils.isNotBlank(key)) {
                     url += "/" + key;
                 }
-                final HttpPost post = new HttpPost(url);
-                post.setConfig(requestConfig);
-                CloseableHttpResponse response = null;
-                try {
-                    post.setEntity(new StringEntity(builder.toString(), charset));
-                    response = httpClient.execute(post);
-                    theonCounter.incrementEventCount(TheonStatus.HTTP_POST_SUCCESS);
-                    theonCounter.incrementEventCount(TheonStatus.MESSAGE_SEND_SUCCESS, count);
-                } catch (final Exception ex) {
-                    theonCounter.incrementEventCount(TheonStatus.HTTP_POST_FAILURE);
-                    theonCounter.incrementEventCount(TheonStatus.MESSAGE_SEND_FAILURE, count);
-                    logger.error(
-                            "Could not bulk post with length " + builder.length() + " to - " + post.getRequestLine(),
-                            ex);
-                    status = false;
-                } finally {
-                    try {
-                        response.close();
-                    } catch (final Exception ex) {
-                        // do nothing
-                    }
-                }
+                result = result.and(post(url, builder.toString(), false, topic, count));
                 builder = new StringBuilder();
                 count = 0;
             } else {
                 builder.append("\r\n");
             }
         }
-        return status;
+        return result;
+    }
+
+    /**
+     * Post the body, only a response rejecting the payload itself (400, 413 or 422) is a permanent
+     * failure, the others (auth, not found, throttling, server errors) could pass on retry.
+     *
+     * @param url
+     *            the url
+     * @param body
+     *            the body
+     * @param gzip
+     *            true to compress
+     * @param topic
+     *            the topic
+     * @param count
+     *            the no. of messages in body
+     * @return the result
+     */
+    private PostResult post(final String url, final String body, final boolean gzip, final String topic,
+            final int count) {
+        final HttpPost post = new HttpPost(url);
+        post.setConfig(requestConfig);
+        CloseableHttpResponse response = null;
+        try {
+            if (gzip) {
+                post.setEntity(new GzipCompressingEntity(new StringEntity(body)));
+            } else {
+                post.setEntity(new StringEntity(body, charset));
+            }
+            response = httpClient.execute(post);
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode >= 300) {
+                theonCounter.incrementEventCount(TheonStatus.HTTP_POST_FAILURE);
+                countMessages(topic, TheonStatus.MESSAGE_SEND_FAILURE, count);
+                logger.error("Could not bulk post with length " + body.length() + " to - " + post.getRequestLine()
+                        + ", got " + response.getStatusLine());
+                return statusCode == HttpStatus.SC_BAD_REQUEST
+                        || statusCode == HttpStatus.SC_REQUEST_TOO_LONG
+                        || statusCode == HttpStatus.SC_UNPROCESSABLE_ENTITY ? PostResult.PERMANENT_FAILURE
+                                : PostResult.TRANSIENT_FAILURE;
+            }
+            theonCounter.incrementEventCount(TheonStatus.HTTP_POST_SUCCESS);
+            countMessages(topic, TheonStatus.MESSAGE_SEND_SUCCESS, count);
+            return PostResult.SUCCESS;
+        } catch (final Exception ex) {
+            theonCounter.incrementEventCount(TheonStatus.HTTP_POST_FAILURE);
+            countMessages(topic, TheonStatus.MESSAGE_SEND_FAILURE, count);
+            logger.error("Could not bulk post with length " + body.length() + " to - " + post.getRequestLine(), ex);
+            return PostResult.TRANSIENT_FAILURE;
+        } finally {
+            try {
+                response.close();
+            } catch (final Exception ex) {
+                // do nothing
+            }
+        }
     }
 
     /**
@@ -549,10 +844,10 @@ public class TheonClient<E extends Serializable> {
             post.setEntity(new StringEntity(':' + message.toString(), charset));
             response = httpClient.execute(post);
             theonCounter.incrementEventCount(TheonStatus.HTTP_POST_SUCCESS);
-            theonCounter.incrementEventCount(TheonStatus.MESSAGE_SEND_SUCCESS);
+            countMessages(topic, TheonStatus.MESSAGE_SEND_SUCCESS, 1);
         } catch (final IOException ioe) {
             theonCounter.incrementEventCount(TheonStatus.HTTP_POST_FAILURE);
-            theonCounter.incrementEventCount(TheonStatus.MESSAGE_SEND_FAILURE);
+            countMessages(topic, TheonStatus.MESSAGE_SEND_FAILURE, 1);
             logger.error("Could not post to - " + post.getRequestLine(), ioe);
         } finally {
             try {
@@ -587,18 +882,23 @@ public class TheonClient<E extends Serializable> {
      * @param message
      *            the message
      * @param parallel
-     *            is message posted to parallel bulk op / not
+     *            is message posted to parallel bulk op / not, not used when accumulating
      */
     public void postMessage(final String topic, final String key, final E message, final boolean parallel) {
         if (!initialized) {
             return;
         }
-        if (parallel) {
+        if (accumulator != null) {
+            final TheonMessage<E> tm = new TheonMessage<E>(topic, key, message);
+            if (!accumulator.add(groupOf(tm), tm)) {
+                bulkOperationUtil.add(tm);
+            }
+        } else if (parallel) {
             parallelBulkOperationUtil.add(new TheonMessage<E>(topic, key, message));
         } else {
             bulkOperationUtil.add(new TheonMessage<E>(topic, key, message));
         }
-        theonCounter.incrementEventCount(TheonStatus.MESSAGE_ADDED);
+        countMessages(topic, TheonStatus.MESSAGE_ADDED, 1);
     }
 
     /**
@@ -721,10 +1021,14 @@ public class TheonClient<E extends Serializable> {
 
     /**
      * @param maxPostEntitySize
-     *            the maxPostEntitySize to set
+     *            the maxPostEntitySize to set, the bulk batches are bounded by it as well
      */
     public void setMaxPostEntitySize(final int maxPostEntitySize) {
         this.maxPostEntitySize = maxPostEntitySize;
+        if (initialized) {
+            bulkOperationUtil.setMaxBatchBytes(maxPostEntitySize);
+            parallelBulkOperationUtil.setMaxBatchBytes(maxPostEntitySize);
+        }
     }
 
     /**
@@ -784,6 +1088,21 @@ public class TheonClient<E extends Serializable> {
         return theonCounter;
     }
 
+    /**
+     * @return the metricRegistry
+     */
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * @param metricRegistry
+     *            the metricRegistry to set, before init
+     */
+    public void setMetricRegistry(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
     /**
      * @return the httpConnPoolSize
      */
@@ -814,6 +1133,142 @@ public class TheonClient<E extends Serializable> {
         this.bulkMessageSize = bulkMessageSize;
     }
 
+    /**
+     * @return the accumulator
+     */
+    public BatchAccumulator<TheonMessage<E>> getAccumulator() {
+        return accumulator;
+    }
+
+    /**
+     * @return the postExecutor
+     */
+    public ThreadPoolExecutor getPostExecutor() {
+        return postExecutor;
+    }
+
+    /**
+     * @return the queuePageSize
+     */
+    public int getQueuePageSize() {
+        return queuePageSize;
+    }
+
+    /**
+     * @param queuePageSize
+     *            the big queue data page size, set before init
+     */
+    public void setQueuePageSize(final int queuePageSize) {
+        this.queuePageSize = queuePageSize;
+    }
+
+    /**
+     * @return the queuePagePrepare
+     */
+    public boolean isQueuePagePrepare() {
+        return queuePagePrepare;
+    }
+
+    /**
+     * @param queuePagePrepare
+     *            if true the next big queue page is prepared in the background, set before init
+     */
+    public void setQueuePagePrepare(final boolean queuePagePrepare) {
+        this.queuePagePrepare = queuePagePrepare;
+    }
+
+    /**
+     * @return the queuePageTouch
+     */
+    public boolean isQueuePageTouch() {
+        return queuePageTouch;
+    }
+
+    /**
+     * @param queuePageTouch
+     *            if true the prepared page is pre-touched too, set before init
+     */
+    public void setQueuePageTouch(final boolean queuePageTouch) {
+        this.queuePageTouch = queuePageTouch;
+    }
+
+    /**
+     * @return the queueCompression
+     */
+    public Compression getQueueCompression() {
+        return queueCompression;
+    }
+
+    /**
+     * @param queueCompression
+     *            the compression of the big queue frames, set before init
+     */
+    public void setQueueCompression(final Compression queueCompression) {
+        this.queueCompression = queueCompression;
+    }
+
+    /**
+     * @return the queueFrameRecords
+     */
+    public int getQueueFrameRecords() {
+        return queueFrameRecords;
+    }
+
+    /**
+     * @param queueFrameRecords
+     *            the max messages in a big queue frame, set before init
+     */
+    public void setQueueFrameRecords(final int queueFrameRecords) {
+        this.queueFrameRecords = queueFrameRecords;
+    }
+
+    /**
+     * @return the queueRecordHeader
+     */
+    public boolean isQueueRecordHeader() {
+        return queueRecordHeader;
+    }
+
+    /**
+     * @param queueRecordHeader
+     *            false to write the big queue records without the header, while older clients
+     *            still read the queue, set before init
+     */
+    public void setQueueRecordHeader(final boolean queueRecordHeader) {
+        this.queueRecordHeader = queueRecordHeader;
+    }
+
+    /**
+     * @return the accumulatorEnabled
+     */
+    public boolean isAccumulatorEnabled() {
+        return accumulatorEnabled;
+    }
+
+    /**
+     * @param accumulatorEnabled
+     *            if true the messages are accumulated per topic (per key if postPerKey) and
+     *            flushed on their own, set before init
+     */
+    public void setAccumulatorEnabled(final boolean accumulatorEnabled) {
+        this.accumulatorEnabled = accumulatorEnabled;
+    }
+
+    /**
+     * @return the lingerMillis
+     */
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * @param lingerMillis
+     *            the max time a message is accumulated, set before init
+     */
+    public void setLingerMillis(final long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
     /**
      * @return the postPerKey
      */
@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class BatchAccumulatorTest {
+
+    @Test
+    public void testFlushes() throws Exception {
+        final List<List<String>> flushed = Collections.synchronizedList(new ArrayList<List<String>>());
+        final BatchAccumulator<String> accumulator = new BatchAccumulator<String>(
+                c -> flushed.add(new ArrayList<String>(c)), String::length, 3, 10, 200, Runnable::run);
+        accumulator.add("a", "a1");
+        accumulator.add("b", "b1");
+        accumulator.add("a", "a2");
+        accumulator.add("a", "a3");
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a1", "a2", "a3")), flushed);
+        accumulator.add("b", "b2-long-one");
+        Assert.assertEquals(Arrays.asList("b1"), flushed.get(1));
+        Assert.assertEquals(Arrays.asList("b2-long-one"), flushed.get(2));
+        accumulator.add("c", "c1");
+        Assert.assertEquals(1, accumulator.getPendingCount());
+        Thread.sleep(600);
+        Assert.assertEquals(Arrays.asList("c1"), flushed.get(3));
+        accumulator.add("c", "c2");
+        accumulator.close();
+        Assert.assertEquals(Arrays.asList("c2"), flushed.get(4));
+        Assert.assertFalse(accumulator.add("c", "c3"));
+        Assert.assertEquals(5, accumulator.getFlushCount());
+        Assert.assertEquals(0, accumulator.getBucketCount());
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        final List<List<String>> flushed = Collections.synchronizedList(new ArrayList<List<String>>());
+        final BatchAccumulator<String> accumulator = new BatchAccumulator<String>(
+                c -> flushed.add(new ArrayList<String>(c)), String::length, 10, 10, 60000, Runnable::run);
+        accumulator.add("a", "a1234");
+        accumulator.add("a", "a123");
+        accumulator.add("a", "a12");
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a1234", "a123")), flushed);
+        accumulator.add("a", "a-very-long-one");
+        Assert.assertEquals(Arrays.asList("a12"), flushed.get(1));
+        Assert.assertEquals(Arrays.asList("a-very-long-one"), flushed.get(2));
+        Assert.assertEquals(0, accumulator.getBucketCount());
+        accumulator.add("b", "b1");
+        Assert.assertEquals(1, accumulator.getBucketCount());
+        accumulator.close();
+        Assert.assertEquals(0, accumulator.getBucketCount());
+    }
+
+    @Test
+    public void testCloseWhileAdding() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final AtomicInteger flushedCount = new AtomicInteger();
+            final AtomicInteger addedCount = new AtomicInteger();
+            final BatchAccumulator<String> accumulator = new BatchAccumulator<String>(
+                    c -> flushedCount.addAndGet(c.size()), null, 100, Long.MAX_VALUE, 60000, Runnable::run);
+            final List<Thread> adders = new ArrayList<Thread>();
+            for (int index = 0; index < 4; index++) {
+                final String bucketName = "b" + index;
+                final Thread adder = new Thread(() -> {
+                    while (accumulator.add(bucketName, "e")) {
+                        addedCount.incrementAndGet();
+                    }
+                });
+                adder.start();
+                adders.add(adder);
+            }
+            Thread.sleep(5);
+            accumulator.close();
+            for (final Thread adder : adders) {
+                adder.join();
+            }
+            Assert.assertEquals(addedCount.get(), flushedCount.get());
+        }
+    }
+
+}
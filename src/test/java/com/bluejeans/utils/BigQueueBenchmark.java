@@ -0,0 +1,69 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.nio.file.Files;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.bluejeans.bigqueue.BigArray;
+import com.bluejeans.utils.BigQueue.Compression;
+
+/**
+ * Big queue ingest benchmark across page sizes, with and without the next page prepared in the
+ * background. Run with the no. of messages, the message size and the compression as the optional
+ * args.
+ *
+ * @author Dinesh Ilindra
+ */
+public class BigQueueBenchmark {
+
+    private static final int[] PAGE_SIZES = new int[] { BigArray.MINIMUM_DATA_PAGE_SIZE,
+            BigArray.MINIMUM_DATA_PAGE_SIZE * 2, BigArray.DEFAULT_DATA_PAGE_SIZE };
+
+    private static long run(final int pageSize, final boolean prepare, final int count, final byte[] message,
+            final Compression compression) throws Exception {
+        final String queueDir = Files.createTempDirectory("bigqueue-bench").toString();
+        final BigQueue<byte[]> queue = new BigQueue<byte[]>(queueDir, "bench", pageSize, byte[].class);
+        queue.setCompression(compression);
+        final Timer timer = new Timer(true);
+        if (prepare) {
+            timer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    queue.prepareNextPage(true);
+                }
+            }, 0, 10);
+        }
+        long maxLatency = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final long before = System.nanoTime();
+            queue.push(message);
+            maxLatency = Math.max(maxLatency, System.nanoTime() - before);
+        }
+        queue.flushFrame();
+        final long elapsed = System.nanoTime() - start;
+        timer.cancel();
+        System.out.println(String.format("page %10d prepare %-5s : %8d msgs/sec, max enqueue %6d us, %3d%% size",
+                pageSize, prepare, count * 1000000000L / elapsed, maxLatency / 1000, queue.getCompressionPercent()));
+        queue.removeAll();
+        queue.close();
+        return elapsed;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final byte[] message = new byte[args.length > 1 ? Integer.parseInt(args[1]) : 1024];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) ('a' + i % 16);
+        }
+        final Compression compression = args.length > 2 ? Compression.valueOf(args[2]) : Compression.NONE;
+        for (final int pageSize : PAGE_SIZES) {
+            run(pageSize, false, count, message, compression);
+            run(pageSize, true, count, message, compression);
+        }
+    }
+
+}
@@ -3,11 +3,19 @@
  */
 package com.bluejeans.utils;
 
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import com.bluejeans.utils.BigQueue;
+import org.apache.commons.lang.SerializationUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.utils.BigQueue.Compression;
+import com.bluejeans.utils.BigQueue.FrameStat;
+import com.bluejeans.utils.BigQueue.RecordCodec;
 
 /**
  * Big Queue test
@@ -56,6 +64,92 @@ public class BigQueueTest {
         queue.close();
     }
 
+    @Test
+    public void testRecordHeader() throws Exception {
+        final String queueDir = Files.createTempDirectory("bigqueue-header").toString();
+        final BigQueue<Object> mixed = new BigQueue<Object>(queueDir, "mixed");
+        mixed.push("text");
+        mixed.push(42L);
+        mixed.push(new byte[] { 1, 2 });
+        Assert.assertEquals(RecordCodec.STRING, BigQueue.recordCodec(mixed.peek()));
+        Assert.assertEquals("text", mixed.pop());
+        Assert.assertEquals(42L, mixed.pop());
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, (byte[]) mixed.pop());
+        mixed.enqueue("old text".getBytes());
+        mixed.enqueue(SerializationUtils.serialize(7L));
+        mixed.setRecordHeader(false);
+        mixed.push("compat");
+        Assert.assertNull(BigQueue.recordCodec(mixed.peek()));
+        Assert.assertEquals("old text", mixed.pop());
+        Assert.assertEquals(7L, mixed.pop());
+        Assert.assertEquals("compat", mixed.pop());
+        mixed.close();
+    }
+
+    @Test
+    public void testRecordSize() throws Exception {
+        final String queueDir = Files.createTempDirectory("bigqueue-records").toString();
+        final BigQueue<String> framed = new BigQueue<String>(queueDir, "framed", String.class);
+        framed.setCompression(Compression.DEFLATE);
+        framed.setFrameRecords(10);
+        for (int i = 0; i < 25; i++) {
+            framed.push("r" + i);
+        }
+        framed.flushFrame();
+        Assert.assertEquals(3, framed.size());
+        Assert.assertEquals(25, framed.recordSize());
+        framed.dequeueMulti(1);
+        Assert.assertEquals(15, framed.recordSize());
+        framed.close();
+        final BigQueue<String> reopened = new BigQueue<String>(queueDir, "framed", String.class);
+        Assert.assertEquals(15, reopened.recordSize());
+        reopened.close();
+        Files.delete(Paths.get(queueDir, "framed", "record_size"));
+        final BigQueue<String> counted = new BigQueue<String>(queueDir, "framed", String.class);
+        Assert.assertEquals(15, counted.recordSize());
+        counted.removeAll();
+        Assert.assertEquals(0, counted.recordSize());
+        counted.close();
+    }
+
+    @Test
+    public void testFramedDrain() throws Exception {
+        final String queueDir = Files.createTempDirectory("bigqueue-drain").toString();
+        final BigQueue<String> framed = new BigQueue<String>(queueDir, "framed", String.class);
+        framed.setCompression(Compression.DEFLATE);
+        framed.setFrameRecords(10);
+        for (int i = 0; i < 25; i++) {
+            framed.push("r" + i);
+        }
+        framed.flushFrame();
+        final List<List<String>> entries = framed.peekEntries(5);
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(10, entries.get(0).size());
+        Assert.assertEquals(1, framed.getFrameStat(FrameStat.FRAMES_READ));
+        final List<String> drained = new ArrayList<String>();
+        Assert.assertEquals(1, framed.drainTo(drained, 5));
+        Assert.assertEquals(10, drained.size());
+        Assert.assertEquals(15, framed.recordSize());
+        Assert.assertEquals(2, framed.drainTo(drained, 11));
+        Assert.assertEquals(25, drained.size());
+        Assert.assertEquals("r24", drained.get(24));
+        framed.close();
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        final String queueDir = Files.createTempDirectory("bigqueue-commit").toString();
+        final BigQueue<String> committed = new BigQueue<String>(queueDir, "committed", String.class);
+        for (int i = 0; i < 2500; i++) {
+            committed.push("c" + i);
+        }
+        Assert.assertEquals(2400, committed.commit(committed.getFrontIndex() + 2400));
+        Assert.assertEquals(0, committed.commit(committed.getFrontIndex() - 1));
+        Assert.assertEquals(100, committed.recordSize());
+        Assert.assertEquals("c2400", committed.pop());
+        committed.close();
+    }
+
     public static void main(final String args[]) throws Exception {
         new BigQueueTest().testBigQueue();
     }
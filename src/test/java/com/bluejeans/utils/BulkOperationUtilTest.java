@@ -3,12 +3,28 @@
  */
 package com.bluejeans.utils;
 
+import java.io.File;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.bigqueue.BigArray;
+import com.bluejeans.utils.BigQueue.Compression;
+import com.bluejeans.utils.BigQueue.FrameStat;
+import com.bluejeans.utils.BulkOperationUtil.BulkFailureException;
+import com.bluejeans.utils.BulkOperationUtil.BulkStatus;
+import com.bluejeans.utils.BulkOperationUtil.DeadLetter;
 import com.bluejeans.utils.BulkOperationUtil.BulkOperation;
 
 /**
@@ -111,6 +127,363 @@ public class BulkOperationUtilTest {
         }
     }
 
+    @Test
+    public void testWeighedBatches() {
+        final List<Integer> batches = new ArrayList<Integer>();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, null, null, 300000,
+                c -> batches.add(c.size()), 100, 1, 1, false);
+        util.weighWith(String::length, 10);
+        for (int i = 0; i < 5; i++) {
+            util.add("four");
+        }
+        util.add("way too long");
+        util.add("two");
+        Assert.assertEquals(35, util.getQueuedBytes());
+        while (util.getQueueSize() > 0) {
+            util.doBulk();
+        }
+        Assert.assertEquals(Arrays.asList(2, 2, 1, 1, 1), batches);
+        Assert.assertEquals(0, util.getQueuedBytes());
+    }
+
+    @Test
+    public void testBisection() throws Exception {
+        final List<String> delivered = new ArrayList<String>();
+        final List<Integer> attempts = new ArrayList<Integer>();
+        final boolean[] flakyFailed = new boolean[1];
+        final boolean[] poisonAccepted = new boolean[1];
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, null, null, 300000, c -> {
+            attempts.add(c.size());
+            if (c.contains("poison") && !poisonAccepted[0]) {
+                throw new BulkFailureException("rejected", null, true);
+            }
+            if (c.contains("flaky") && !flakyFailed[0]) {
+                flakyFailed[0] = true;
+                throw new BulkFailureException("unavailable", Arrays.asList("flaky"), false);
+            }
+            delivered.addAll(c);
+        }, 100, 1, 1, false);
+        final File deadDir = Files.createTempDirectory("bulk-dead").toFile();
+        util.setDeadLetterQueue(new BigQueue<DeadLetter>(deadDir.getPath(), "dead", DeadLetter.class));
+        for (int i = 0; i < 6; i++) {
+            util.add("m" + i);
+        }
+        util.add("poison");
+        util.add("flaky");
+        util.doBulk();
+        Assert.assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5", "flaky"), delivered);
+        Assert.assertEquals(Arrays.asList(8, 4, 4, 2, 2, 1, 1, 1), attempts);
+        Assert.assertEquals(1, util.getDeadLetterQueue().size());
+        poisonAccepted[0] = true;
+        Assert.assertEquals(1, util.replayDeadLetters(10, 5, 0));
+        Assert.assertEquals(0, util.getDeadLetterQueue().size());
+        util.doBulk();
+        Assert.assertEquals("poison", delivered.get(delivered.size() - 1));
+        Assert.assertEquals(1, util.getBulkStatusCounter().getValue(BulkStatus.DEAD_LETTER_REPLAY.name()));
+        util.getDeadLetterQueue().close();
+    }
+
+    @Test
+    public void testReplayIntoFullQueue() throws Exception {
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 2, null, null, 300000, c -> {
+        }, 100, 1, 1, false);
+        final File deadDir = Files.createTempDirectory("bulk-replay").toFile();
+        util.setDeadLetterQueue(new BigQueue<DeadLetter>(deadDir.getPath(), "dead", DeadLetter.class));
+        for (int i = 0; i < 4; i++) {
+            util.getDeadLetterQueue().push(new DeadLetter("d" + i, null, "replay", "failed"));
+        }
+        Assert.assertEquals(2, util.replayDeadLetters(10, 3, 0));
+        Assert.assertEquals(2, util.getQueueSize());
+        Assert.assertEquals(2, util.getDeadLetterQueue().size());
+        Assert.assertEquals(2, util.getBulkStatusCounter().getValue(BulkStatus.DEAD_LETTER_REPLAY.name()));
+        util.getDeadLetterQueue().close();
+    }
+
+    @Test
+    public void testUndecodable() throws Exception {
+        final List<Node> delivered = new ArrayList<Node>();
+        final File queueDir = Files.createTempDirectory("bulk-undecodable").toFile();
+        final BulkOperationUtil<Node> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "nodes", 300000,
+                c -> delivered.addAll(c), 100, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(Node.class);
+        util.add(new Node());
+        util.getBigQueue().enqueue("garbage".getBytes());
+        util.add(new Node());
+        util.doBulk();
+        Assert.assertEquals(2, delivered.size());
+        Assert.assertEquals(1, util.getDeadLetterQueue().size());
+        Assert.assertEquals(1, util.getBulkStatusCounter().getValue(BulkStatus.DEAD_LETTER_UNDECODABLE.name()));
+        Assert.assertEquals(0, util.replayDeadLetters(10, 5, 0));
+        Assert.assertEquals(0, util.replayDeadLetters(10, 5, 0));
+        Assert.assertEquals(1, util.getDeadLetterQueue().size());
+        Assert.assertEquals(1, util.getBulkStatusCounter().getValue(BulkStatus.DEAD_LETTER_UNDECODABLE.name()));
+        final DeadLetter deadLetter = util.getDeadLetterQueue().pop();
+        Assert.assertEquals("garbage", new String(deadLetter.getData()));
+        Assert.assertEquals("nodes", deadLetter.getQueueName());
+        util.stop();
+    }
+
+    @Test
+    public void testCatchUp() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final File queueDir = Files.createTempDirectory("bulk-catch-up").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "backlog",
+                300000, c -> {
+                    if (c.contains("m25")) {
+                        throw new RuntimeException("unavailable");
+                    }
+                    delivered.addAll(c);
+                }, 10, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        util.setBulkRetryEnabled(false);
+        util.setCatchUpConsumers(4);
+        util.setCatchUpThreshold(10);
+        for (int i = 0; i < 100; i++) {
+            util.add("m" + i);
+        }
+        Assert.assertEquals(100, util.catchUp());
+        Assert.assertEquals(0, util.getQueueSize());
+        Assert.assertEquals(90, delivered.size());
+        Assert.assertTrue(delivered.containsAll(Arrays.asList("m0", "m19", "m30", "m99")));
+        Assert.assertFalse(delivered.contains("m20"));
+        Assert.assertEquals(10, util.getDeadLetterQueue().size());
+        util.stop();
+    }
+
+    @Test
+    public void testCatchUpRetries() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final int[] failures = new int[1];
+        final File queueDir = Files.createTempDirectory("bulk-catch-up-retries").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "retries",
+                300000, c -> {
+                    if (c.contains("m25") && failures[0]++ < 1) {
+                        throw new AssertionError("broken");
+                    }
+                    if (c.contains("m45")) {
+                        throw new AssertionError("always broken");
+                    }
+                    delivered.addAll(c);
+                }, 10, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        util.setCatchUpConsumers(4);
+        util.setCatchUpThreshold(10);
+        util.setCatchUpRetryCount(2);
+        for (int i = 0; i < 100; i++) {
+            util.add("m" + i);
+        }
+        Assert.assertEquals(100, util.catchUp());
+        Assert.assertEquals(0, util.getQueueSize());
+        Assert.assertEquals(90, delivered.size());
+        Assert.assertEquals(90, new HashSet<String>(delivered).size());
+        Assert.assertFalse(delivered.contains("m45"));
+        Assert.assertEquals(10, util.getDeadLetterQueue().size());
+        util.stop();
+    }
+
+    @Test
+    public void testCursor() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final boolean[] failedOnce = new boolean[1];
+        final File queueDir = Files.createTempDirectory("bulk-cursor").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "cursor",
+                300000, c -> {
+                    if (c.contains("m2") && !failedOnce[0]) {
+                        failedOnce[0] = true;
+                        final List<String> ok = new ArrayList<String>(c);
+                        ok.remove("m2");
+                        delivered.addAll(ok);
+                        throw new BulkFailureException("unavailable", Arrays.asList("m2"), false);
+                    }
+                    delivered.addAll(c);
+                }, 4, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        util.setBulkRetryEnabled(false);
+        util.enableCursor();
+        for (int i = 0; i < 10; i++) {
+            util.add("m" + i);
+        }
+        util.doBulk();
+        Assert.assertEquals(Arrays.asList("m0", "m1", "m3"), delivered);
+        Assert.assertEquals(2, util.getCursor().getCommitted());
+        Assert.assertEquals(7, util.getQueueSize());
+        util.doBulk();
+        Assert.assertEquals("m2", delivered.get(3));
+        Assert.assertEquals(4, util.getCursor().getCommitted());
+        util.doBulk();
+        util.stop();
+        final BulkOperationUtil<String> reopened = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "cursor",
+                300000, c -> delivered.addAll(c), 4, 1, 1, false);
+        reopened.setFileBased(true);
+        reopened.entityTypeIs(String.class);
+        reopened.enableCursor();
+        Assert.assertEquals(8, reopened.getCursor().getCommitted());
+        reopened.doBulk();
+        Assert.assertEquals(Arrays.asList("m8", "m9"), delivered.subList(8, 10));
+        reopened.stop();
+    }
+
+    @Test
+    public void testCursorRedeliveries() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final File queueDir = Files.createTempDirectory("bulk-cursor-redeliveries").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "redeliveries",
+                300000, c -> {
+                    final List<String> ok = new ArrayList<String>(c);
+                    ok.remove("m2");
+                    delivered.addAll(ok);
+                    if (c.contains("m2")) {
+                        throw new BulkFailureException("unavailable", Arrays.asList("m2"), false);
+                    }
+                }, 4, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        util.setBulkRetryEnabled(false);
+        util.setBulkRetryCount(2);
+        util.enableCursor();
+        for (int i = 0; i < 4; i++) {
+            util.add("m" + i);
+        }
+        util.doBulk();
+        util.doBulk();
+        Assert.assertEquals(2, util.getCursor().getCommitted());
+        Assert.assertEquals(0, util.getDeadLetterQueue().size());
+        util.doBulk();
+        Assert.assertEquals(4, util.getCursor().getCommitted());
+        Assert.assertEquals(1, util.getDeadLetterQueue().size());
+        Assert.assertEquals(Arrays.asList("m0", "m1", "m3"), delivered);
+        util.stop();
+    }
+
+    @Test
+    public void testPreparePages() throws Exception {
+        final File queueDir = Files.createTempDirectory("bulk-pages").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "pages", 300000,
+                c -> {
+                }, 100, 1, 1, BigArray.MINIMUM_DATA_PAGE_SIZE * 2, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        Assert.assertTrue(util.getBigQueue().prepareNextPage(true));
+        Assert.assertFalse(util.getBigQueue().prepareNextPage(true));
+        final File nextPage = new File(queueDir, "pages/data/page-1.dat");
+        Assert.assertTrue(nextPage.exists());
+        Assert.assertEquals(BigArray.MINIMUM_DATA_PAGE_SIZE * 2, nextPage.length());
+        util.stop();
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final File queueDir = Files.createTempDirectory("bulk-compressed").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "compressed",
+                300000, c -> delivered.addAll(c), 25, 1, 1, false);
+        util.setFileBased(true);
+        util.setPeekEnabled(true);
+        util.entityTypeIs(String.class);
+        util.compressionIs(Compression.DEFLATE, 10);
+        for (int i = 0; i < 45; i++) {
+            util.add("{\"topic\":\"events\",\"message\":\"the same old message " + i + "\"}");
+        }
+        Assert.assertEquals(40, util.getQueueSize());
+        util.doBulk();
+        Assert.assertEquals(30, delivered.size());
+        Assert.assertEquals(15, util.getQueueSize());
+        util.doBulk();
+        Assert.assertEquals(45, delivered.size());
+        Assert.assertTrue(delivered.get(44).endsWith("message 44\"}"));
+        Assert.assertTrue(util.getBigQueue().getCompressionPercent() < 50);
+        Assert.assertEquals(5, util.getBigQueue().getFrameStat(FrameStat.FRAMES_READ));
+        final BigQueue<String> queue = util.getBigQueue();
+        queue.push("a");
+        queue.push("b");
+        queue.setCompression(Compression.NONE);
+        queue.push("c");
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals("a", queue.pop());
+        Assert.assertEquals("b", queue.pop());
+        Assert.assertEquals("c", queue.pop());
+        util.stop();
+    }
+
+    @Test
+    public void testCompressedDrain() throws Exception {
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        final File queueDir = Files.createTempDirectory("bulk-compressed-drain").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "drained",
+                300000, c -> batches.add(c.size()), 25, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        util.compressionIs(Compression.DEFLATE, 10);
+        for (int i = 0; i < 45; i++) {
+            util.add("m" + i);
+        }
+        util.doBulk();
+        Assert.assertEquals(Arrays.asList(30), batches);
+        Assert.assertEquals(15, util.getQueueSize());
+        util.doBulk();
+        Assert.assertEquals(Arrays.asList(30, 15), batches);
+        Assert.assertEquals(0, util.getQueueSize());
+        util.stop();
+    }
+
+    @Test
+    public void testCompressedBacklog() throws Exception {
+        final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        final File queueDir = Files.createTempDirectory("bulk-compressed-backlog").toFile();
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir.getPath(), "backlog",
+                300000, c -> batches.add(c.size()), 25, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        util.compressionIs(Compression.DEFLATE, 10);
+        util.setCatchUpConsumers(2);
+        util.setCatchUpThreshold(50);
+        for (int i = 0; i < 100; i++) {
+            util.add("m" + i);
+        }
+        Assert.assertEquals(100, util.getQueueSize());
+        Assert.assertTrue(util.isCatchUpNeeded());
+        Assert.assertEquals(100, util.catchUp());
+        Collections.sort(batches);
+        Assert.assertEquals(Arrays.asList(10, 30, 30, 30), batches);
+        Assert.assertEquals(0, util.getQueueSize());
+        util.stop();
+        final File cursorDir = Files.createTempDirectory("bulk-compressed-cursor").toFile();
+        final BulkOperationUtil<String> cursorUtil = BulkOperationUtil.create(1, 1000, cursorDir.getPath(),
+                "cursor", 300000, c -> batches.add(c.size()), 25, 1, 1, false);
+        cursorUtil.setFileBased(true);
+        cursorUtil.entityTypeIs(String.class);
+        cursorUtil.compressionIs(Compression.DEFLATE, 10);
+        cursorUtil.enableCursor();
+        for (int i = 0; i < 100; i++) {
+            cursorUtil.add("m" + i);
+        }
+        cursorUtil.doBulk();
+        Assert.assertEquals(Integer.valueOf(30), batches.get(batches.size() - 1));
+        Assert.assertEquals(70, cursorUtil.getQueueSize());
+        cursorUtil.stop();
+    }
+
+    @Test
+    public void testMetricLabels() throws Exception {
+        final BulkOperationUtil<String> first = BulkOperationUtil.create(1, 1000, c -> {
+        }, 100, 1, 1);
+        final BulkOperationUtil<String> second = BulkOperationUtil.create(1, 1000, c -> {
+        }, 100, 1, 1);
+        Assert.assertFalse(first.getMetricLabel().equals(second.getMetricLabel()));
+        first.add("a");
+        first.doBulk();
+        second.doBulk();
+        final Map<String, Long> series = MetricRegistry.getInstance().getMetric("bulk.queue.size").series();
+        Assert.assertTrue(series.containsKey("bulk.queue.size{queueName=" + first.getMetricLabel() + "}"));
+        Assert.assertTrue(series.containsKey("bulk.queue.size{queueName=" + second.getMetricLabel() + "}"));
+        first.stop();
+        second.stop();
+    }
+
     public static void main(final String[] args) throws Exception {
         // new BulkOperationUtilTest().testBulkOperationUtils();
         new BulkOperationUtilTest().testRetry();
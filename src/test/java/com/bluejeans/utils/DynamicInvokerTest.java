@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class DynamicInvokerTest {
+
+    /**
+     * Sample operations
+     */
+    public static class Ops extends DynamicInvoker {
+        public int add(final int first, final long second) {
+            return (int) (first + second);
+        }
+
+        public String echo(final String text, final Boolean upper) {
+            return upper ? text.toUpperCase() : text;
+        }
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        final Ops ops = new Ops();
+        Assert.assertEquals(5, ops.runThis("add", "2", "3"));
+        Assert.assertEquals("HI", ops.runThis("echo", "hi", "true"));
+        Assert.assertEquals(2, ops.getMBeanInfo().getOperations().length);
+        final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(Ops.class.getPackage().getName() + ":type=Ops");
+        Assert.assertEquals(7, mbs.invoke(name, "add", new Object[] { 3, 4L }, new String[] { "int", "long" }));
+        Assert.assertEquals("x", mbs.invoke(name, "echo", new Object[] { "x", "false" },
+                new String[] { String.class.getName(), Boolean.class.getName() }));
+        try {
+            ops.runThis("missing");
+            Assert.fail("missing method invoked");
+        } catch (final NoSuchMethodException nsme) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class EnumCounterTest {
+
+    enum Event {
+        START, STOP
+    }
+
+    enum MoreEvent {
+        STOP, START, PAUSE
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        final File file = File.createTempFile("counters", ".cnt");
+        file.deleteOnExit();
+        file.delete();
+        final EnumCounter<Event> counter = new EnumCounter<>(Event.class, file);
+        counter.incrementEventCount(Event.START, 5);
+        counter.incrementEventCount(Event.STOP);
+        counter.resetSecEventCounts();
+        counter.incrementEventCount(Event.STOP);
+        try (MappedCounterFile reader = new MappedCounterFile(file)) {
+            Assert.assertEquals(Event.class.getName(), reader.getType());
+            Assert.assertEquals(5, reader.get(Event.START.ordinal(), MappedCounterFile.PRIMARY));
+            Assert.assertEquals(2, reader.get(Event.STOP.ordinal(), MappedCounterFile.PRIMARY));
+            Assert.assertEquals(1, reader.get(Event.STOP.ordinal(), MappedCounterFile.SECONDARY));
+        }
+        counter.getCounterFile().close();
+        final EnumCounter<Event> restarted = new EnumCounter<>(Event.class, file);
+        Assert.assertEquals(5, restarted.getValue("START"));
+        Assert.assertEquals(2, restarted.getValue("STOP"));
+        final EnumCounter<MoreEvent> changed = new EnumCounter<>(MoreEvent.class, file);
+        Assert.assertEquals(5, changed.getValue("START"));
+        Assert.assertEquals(2, changed.getValue("STOP"));
+        Assert.assertEquals(0, changed.getValue("PAUSE"));
+    }
+
+}
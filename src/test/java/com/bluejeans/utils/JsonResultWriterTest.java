@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class JsonResultWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testWrite() throws Exception {
+        final JsonResultWriter writer = new JsonResultWriter();
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("text", "say \"hi\"");
+        map.put("numbers", new int[] { 1, 2 });
+        map.put("list", Arrays.asList(true, null, 1.5));
+        map.put("nested", Collections.singletonMap("k", Collections.singletonMap("k", "v")));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(writer.write(out, map));
+        final JsonNode node = mapper.readTree(out.toByteArray());
+        Assert.assertEquals("say \"hi\"", node.get("text").asText());
+        Assert.assertEquals(2, node.get("numbers").get(1).asInt());
+        Assert.assertTrue(node.get("list").get(1).isNull());
+        Assert.assertEquals("v", node.get("nested").get("k").get("k").asText());
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        final JsonResultWriter writer = new JsonResultWriter();
+        writer.setMaxDepth(2);
+        writer.setMaxElements(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertFalse(writer.write(out, Arrays.asList(1, Arrays.asList(Arrays.asList(1)), 3, 4, 5)));
+        JsonNode node = mapper.readTree(out.toByteArray());
+        Assert.assertEquals(4, node.size());
+        Assert.assertEquals(JsonResultWriter.TRUNCATED, node.get(1).get(0).asText());
+        Assert.assertEquals(JsonResultWriter.TRUNCATED, node.get(3).asText());
+        writer.setMaxElements(Integer.MAX_VALUE);
+        writer.setMaxBytes(100000);
+        out = new ByteArrayOutputStream();
+        Assert.assertFalse(writer.write(out, IntStream.range(0, 1000000).iterator()));
+        Assert.assertTrue(out.size() < 200000);
+        node = mapper.readTree(out.toByteArray());
+        Assert.assertTrue(node.isArray());
+    }
+
+}
@@ -4,9 +4,22 @@
 package com.bluejeans.utils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import javax.script.ScriptEngineManager;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.bluejeans.utils.MetaUtil.LogicEdit;
+import com.bluejeans.utils.MetaUtil.LogicTransformer;
 import com.bluejeans.utils.javaagent.AgentTest;
 import com.bluejeans.utils.javaagent.DurationTransformer;
 import com.bluejeans.utils.javaagent.InstrumentationAgent;
@@ -41,6 +54,81 @@ public class MetaUtilTest {
         System.out.println(MetaUtil.decompileClass("java.lang.Appendable"));
     }
 
+    /**
+     * Edited sample
+     */
+    public static class Sample {
+        public int value(final int base) {
+            return base;
+        }
+    }
+
+    @Test
+    public void testLogicEdits() throws Exception {
+        final String name = Sample.class.getName();
+        final List<LogicEdit> edits = Arrays.asList(new LogicEdit(name, "value", 1, "prepend", "$1 = $1 + 1;"),
+                new LogicEdit(name, "value", 1, "append", "$_ = $_ * 2;"),
+                new LogicEdit(name, "value", 1, "append", "not java;"), new LogicEdit(name, "missing", 0,
+                        "prepend", "System.out.println();"));
+        final byte[] byteCode;
+        try (InputStream in = Sample.class.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+            byteCode = IOUtils.toByteArray(in);
+        }
+        final byte[] transformed = new LogicTransformer(edits).transform(getClass().getClassLoader(),
+                name.replace('.', '/'), null, null, byteCode);
+        Assert.assertNotNull(transformed);
+        Assert.assertTrue(edits.get(0).isSuccess());
+        Assert.assertTrue(edits.get(1).isSuccess());
+        Assert.assertFalse(edits.get(2).isSuccess());
+        Assert.assertEquals("no matching method", edits.get(3).getError());
+        final Class<?> clazz = new ClassLoader(getClass().getClassLoader()) {
+            Class<?> define() {
+                return defineClass(name, transformed, 0, transformed.length);
+            }
+        }.define();
+        Assert.assertEquals(8, clazz.getMethod("value", int.class).invoke(clazz.newInstance(), 3));
+    }
+
+    @Test
+    public void testSharedInvoker() throws Exception {
+        Assert.assertEquals(4, MetaUtil.runNestedMethod(new Sample(), "value~~4"));
+        Assert.assertEquals(7, MetaUtil.runNestedMethodsSilently(new Sample(), "value~~7;;nothing").get("value~~7"));
+        Assert.assertSame(MetaUtil.sharedInvoker(), MetaUtil.sharedInvoker());
+        Assert.assertTrue(MetaUtil.sharedInvoker().isLightweight());
+    }
+
+    @Test
+    public void testScriptedNestedMethods() throws Exception {
+        Assume.assumeNotNull(new ScriptEngineManager().getEngineByName("JavaScript"));
+        Assert.assertEquals(4, MetaUtil.runNestedMethod(new Sample(), "value~~$target.value(4)"));
+        Assert.assertEquals(6, MetaUtil.runNestedMethod(new Sample(), "~value~~$target.value(6)"));
+        Assert.assertNotNull(new URIInvoker(new HashMap<String, Object>(), true).run("metaUtil"));
+        Assert.assertNotNull(new URIInvoker(new HashMap<String, Object>(), true).run("system"));
+    }
+
+    /**
+     * Slow sample
+     */
+    public static class Slow {
+        public int value(final int millis) throws InterruptedException {
+            Thread.sleep(millis);
+            return millis;
+        }
+    }
+
+    @Test
+    public void testConcurrentNestedMethods() {
+        final long start = System.currentTimeMillis();
+        final Map<String, Object> values = MetaUtil.runNestedMethodsSilently(new Slow(),
+                "value~~300;;value~~200;;value~~5000;;value~~100", true, 1000);
+        Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+        Assert.assertEquals(Arrays.asList("value~~300", "value~~200", "value~~5000", "value~~100"),
+                new ArrayList<String>(values.keySet()));
+        Assert.assertEquals(Arrays.asList(300, 200, null, 100), new ArrayList<Object>(values.values()));
+        Assert.assertEquals(Arrays.asList(300, 200), new ArrayList<Object>(
+                MetaUtil.runNestedMethodsSilently(new Slow(), "value~~300;;value~~200", false, 250).values()));
+    }
+
     /**
      * @param args
      * @throws Exception
@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.utils.MetricRegistry.LabeledMetric;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class MetricRegistryTest {
+
+    @Test
+    public void testSeries() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.setMaxSeries(3);
+        final LabeledMetric counter = registry.counter("messages", "topic", "status");
+        for (int index = 0; index < 10; index++) {
+            counter.increment("topic" + index % 2, "SENT");
+        }
+        counter.update(5, "topic0", "FAILED");
+        Assert.assertEquals(5, counter.get("topic0", "SENT"));
+        Assert.assertEquals(5, counter.get("topic0", "FAILED"));
+        Assert.assertEquals(0, counter.get("topic9", "SENT"));
+        Assert.assertEquals(3, counter.getSize());
+        counter.increment("topic2", "SENT");
+        counter.increment("topic3", "SENT");
+        Assert.assertEquals(3, counter.getSize());
+        Assert.assertEquals(2, registry.getOverflowCount());
+        Assert.assertEquals(2, counter.get(MetricRegistry.OVERFLOW_LABEL, MetricRegistry.OVERFLOW_LABEL));
+        Assert.assertSame(counter, registry.counter("messages", "topic", "status"));
+        final LabeledMetric gauge = registry.gauge("size", "queueName");
+        gauge.update(7, "q1");
+        gauge.update(3, "q1");
+        Assert.assertEquals(3, gauge.get("q1"));
+        Assert.assertEquals(5, registry.getSeries().length);
+        try {
+            counter.increment("only-one");
+            Assert.fail("label arity not checked");
+        } catch (final IllegalArgumentException iae) {
+            // expected
+        }
+        registry.reset();
+        Assert.assertEquals(0, counter.get("topic1", "SENT"));
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.utils.ProcStats.DiskStat;
+import com.bluejeans.utils.ProcStats.IoStat;
+import com.bluejeans.utils.ProcStats.MemStat;
+import com.bluejeans.utils.ProcStats.NetStat;
+import com.bluejeans.utils.ProcStats.ProcessStat;
+
+/**
+ * Test for proc stats, reads the fixtures under test resources
+ *
+ * @author Dinesh Ilindra
+ */
+public class ProcStatsTest {
+
+    private final ProcStats procStats = new ProcStats(
+            new File(ProcStatsTest.class.getResource("/proc/meminfo").getFile()).getParent());
+
+    @Test
+    public void testFixtures() {
+        Assert.assertTrue(procStats.isAvailable());
+        procStats.read();
+        procStats.read();
+        Assert.assertEquals(2, procStats.getReadCount());
+        Assert.assertEquals(1500, procStats.get(ProcessStat.USER_TICKS));
+        Assert.assertEquals(320, procStats.get(ProcessStat.SYSTEM_TICKS));
+        Assert.assertEquals(57, procStats.get(ProcessStat.THREADS));
+        Assert.assertEquals(6442450944L, procStats.get(ProcessStat.VIRTUAL_BYTES));
+        Assert.assertEquals(131072, procStats.get(ProcessStat.RESIDENT_PAGES));
+        Assert.assertEquals(1048576, procStats.get(IoStat.RCHAR));
+        Assert.assertEquals(8192, procStats.get(IoStat.WRITE_BYTES));
+        Assert.assertEquals(16318412, procStats.get(MemStat.MEM_TOTAL));
+        Assert.assertEquals(9876543, procStats.get(MemStat.MEM_AVAILABLE));
+        Assert.assertEquals(2097000, procStats.get(MemStat.SWAP_FREE));
+        Assert.assertEquals(3, procStats.getNetStats().size());
+        Assert.assertEquals(5000000, procStats.getNetStats().get("eth0", NetStat.RX_BYTES));
+        Assert.assertEquals(4, procStats.getNetStats().get("eth0", NetStat.TX_DROPPED));
+        Assert.assertEquals(800, procStats.getNetStats().get("eth1", NetStat.TX_BYTES));
+        Assert.assertEquals(2000800, procStats.getNetStats().total(NetStat.TX_BYTES, "lo"));
+        Assert.assertEquals(2, procStats.getDiskStats().size());
+        Assert.assertEquals(30000, procStats.getDiskStats().get("sda", DiskStat.SECTORS_READ));
+        Assert.assertEquals(1050, procStats.getDiskStats().get("sda1", DiskStat.WEIGHTED_IO_MILLIS));
+        procStats.close();
+    }
+
+    @Test
+    public void testMissingRoot() {
+        final ProcStats missing = new ProcStats("/nonexistent/proc");
+        Assert.assertFalse(missing.isAvailable());
+        missing.read();
+        Assert.assertEquals(0, missing.get(MemStat.MEM_TOTAL));
+    }
+
+}
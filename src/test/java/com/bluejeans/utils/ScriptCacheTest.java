@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class ScriptCacheTest {
+
+    /**
+     * Engine where a script "name=value" sets the name in engine scope and any other script reads
+     * the name.
+     */
+    private static class MapEngine extends AbstractScriptEngine implements Compilable {
+
+        private final AtomicInteger compiles = new AtomicInteger();
+
+        @Override
+        public CompiledScript compile(final String script) {
+            compiles.incrementAndGet();
+            final String[] parts = script.split("=", 2);
+            final MapEngine engine = this;
+            return new CompiledScript() {
+                @Override
+                public Object eval(final ScriptContext context) {
+                    if (parts.length == 2) {
+                        context.setAttribute(parts[0], parts[1], ScriptContext.ENGINE_SCOPE);
+                        return parts[1];
+                    }
+                    return context.getAttribute(parts[0]);
+                }
+
+                @Override
+                public ScriptEngine getEngine() {
+                    return engine;
+                }
+            };
+        }
+
+        @Override
+        public CompiledScript compile(final Reader script) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object eval(final String script, final ScriptContext context) throws ScriptException {
+            return compile(script).eval(context);
+        }
+
+        @Override
+        public Object eval(final Reader reader, final ScriptContext context) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Bindings createBindings() {
+            return new SimpleBindings();
+        }
+
+        @Override
+        public ScriptEngineFactory getFactory() {
+            return null;
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        final MapEngine engine = new MapEngine();
+        engine.put("shared", "yes");
+        final ScriptCache cache = new ScriptCache(engine, 2);
+        Assert.assertEquals("1", cache.eval("x=1"));
+        Assert.assertEquals("1", cache.eval("x"));
+        Assert.assertEquals("1", cache.eval("x"));
+        Assert.assertEquals("yes", cache.eval("shared"));
+        Assert.assertEquals(3, engine.compiles.get());
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(1.0 / 4, cache.getHitRatio(), 0.001);
+        final Object[] other = new Object[2];
+        final Thread thread = new Thread(() -> {
+            try {
+                other[0] = cache.eval("x");
+                other[1] = cache.eval("shared");
+            } catch (final ScriptException se) {
+                other[0] = se;
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertNull(other[0]);
+        Assert.assertEquals("yes", other[1]);
+        cache.setMaxSize(0);
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+}
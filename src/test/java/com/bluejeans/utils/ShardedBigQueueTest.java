@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.bigqueue.BigArray;
+import com.bluejeans.utils.BigQueue.Compression;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class ShardedBigQueueTest {
+
+    @Test
+    public void testShards() throws Exception {
+        final String[] queueDirs = new String[] { Files.createTempDirectory("shard-a").toString(),
+                Files.createTempDirectory("shard-b").toString() };
+        final ShardedBigQueue<String> queue = new ShardedBigQueue<String>(queueDirs, "sharded", 3,
+                BigArray.MINIMUM_DATA_PAGE_SIZE, String.class);
+        for (int i = 0; i < 30; i++) {
+            queue.push("m" + i);
+        }
+        Assert.assertEquals(30, queue.size());
+        for (int shard = 0; shard < 3; shard++) {
+            Assert.assertEquals(10, queue.shardSize(shard));
+        }
+        Assert.assertTrue(new File(queueDirs[1], "sharded-1").isDirectory());
+        queue.setKeyFunction(e -> e.substring(0, 1));
+        queue.push("k1");
+        queue.push("k2");
+        final List<String> peeked = new ArrayList<String>();
+        queue.peekTo(peeked, 12);
+        final List<String> drained = new ArrayList<String>();
+        queue.drainTo(drained, 12);
+        Assert.assertEquals(new HashSet<String>(peeked), new HashSet<String>(drained));
+        Assert.assertEquals(20, queue.size());
+        final Set<String> consumed = Collections.synchronizedSet(new HashSet<String>(drained));
+        final List<Thread> consumers = new ArrayList<Thread>();
+        for (int shard = 0; shard < 3; shard++) {
+            final int current = shard;
+            final Thread consumer = new Thread(() -> {
+                final List<String> batch = new ArrayList<String>();
+                while (queue.drainShardTo(current, batch, 3) > 0) {
+                    consumed.addAll(batch);
+                    batch.clear();
+                }
+            });
+            consumer.start();
+            consumers.add(consumer);
+        }
+        for (final Thread consumer : consumers) {
+            consumer.join();
+        }
+        Assert.assertEquals(32, consumed.size());
+        Assert.assertTrue(queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void testPushBetweenPeekAndDequeue() throws Exception {
+        final String[] queueDirs = new String[] { Files.createTempDirectory("shard-a").toString(),
+                Files.createTempDirectory("shard-b").toString() };
+        final ShardedBigQueue<String> queue = new ShardedBigQueue<String>(queueDirs, "peeked", 2,
+                BigArray.MINIMUM_DATA_PAGE_SIZE, String.class);
+        for (final String e : new String[] { "a", "b", "c", "d" }) {
+            queue.push(e);
+        }
+        final List<String> peeked = new ArrayList<String>();
+        for (final byte[] data : queue.peekMulti(4)) {
+            peeked.add(queue.element(data));
+        }
+        // lands on the shard the peek started at
+        queue.push("e");
+        queue.push("f");
+        final List<String> dequeued = new ArrayList<String>();
+        for (final byte[] data : queue.dequeueMulti(3)) {
+            dequeued.add(queue.element(data));
+        }
+        Assert.assertEquals(peeked.subList(0, 3), dequeued);
+        Assert.assertEquals(peeked.get(3), queue.element(queue.dequeue()));
+        final Set<String> rest = new HashSet<String>();
+        queue.drainTo(rest, 10);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("e", "f")), rest);
+        queue.close();
+    }
+
+    @Test
+    public void testFramedShardDrain() throws Exception {
+        final String[] queueDirs = new String[] { Files.createTempDirectory("shard-a").toString(),
+                Files.createTempDirectory("shard-b").toString() };
+        final ShardedBigQueue<String> queue = new ShardedBigQueue<String>(queueDirs, "framed", 2,
+                BigArray.MINIMUM_DATA_PAGE_SIZE, String.class);
+        queue.setCompression(Compression.DEFLATE);
+        queue.setFrameRecords(4);
+        for (int i = 0; i < 8; i++) {
+            queue.push("m" + i);
+        }
+        final List<String> drained = new ArrayList<String>();
+        Assert.assertEquals(4, queue.drainShardTo(0, drained, 1));
+        Assert.assertEquals(Arrays.asList("m0", "m1", "m2", "m3"), drained);
+        Assert.assertEquals(4, queue.recordSize());
+        queue.close();
+    }
+
+    @Test
+    public void testBulkOperationUtil() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final String queueDir = Files.createTempDirectory("shard-a") + "," + Files.createTempDirectory("shard-b");
+        final BulkOperationUtil<String> util = BulkOperationUtil.create(1, 1000, queueDir, "bulk", 300000,
+                c -> delivered.addAll(c), 100, 1, 1, false);
+        util.setFileBased(true);
+        util.entityTypeIs(String.class);
+        Assert.assertTrue(util.getBigQueue() instanceof ShardedBigQueue);
+        for (int i = 0; i < 10; i++) {
+            util.add("m" + i);
+        }
+        Assert.assertEquals(5, ((ShardedBigQueue<String>) util.getBigQueue()).shardSize(1));
+        util.doBulk();
+        Assert.assertEquals(10, delivered.size());
+        Assert.assertEquals(0, util.getQueueSize());
+        util.stop();
+    }
+
+}
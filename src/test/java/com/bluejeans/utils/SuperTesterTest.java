@@ -0,0 +1,53 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.utils.SuperTester.Report;
+
+/**
+ * Test for super tester
+ *
+ * @author Dinesh Ilindra
+ */
+public class SuperTesterTest {
+
+    public static class Bean {
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException("broken");
+        }
+
+        public String getSlow() throws InterruptedException {
+            Thread.sleep(60000);
+            return "slow";
+        }
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        final SuperTester tester = new SuperTester(Bean.class);
+        tester.setParallelism(2);
+        tester.setInvocationTimeoutMillis(500);
+        tester.testGetters();
+        final Report report = tester.getReport();
+        Assert.assertEquals(3, report.getTotal());
+        Assert.assertEquals(1, report.getPassed());
+        Assert.assertEquals(1, report.getFailed());
+        Assert.assertEquals(1, report.getTimedOut());
+        Assert.assertTrue(report.getWallMillis() < 5000);
+    }
+
+}
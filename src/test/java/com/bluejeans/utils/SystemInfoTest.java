@@ -0,0 +1,88 @@
+/*
+ * Copyright Blue Jeans Network.
+ */
+package com.bluejeans.utils;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.bluejeans.utils.SystemInfo.ProcessResult;
+import com.bluejeans.utils.SystemSampler.Metric;
+
+/**
+ * Test for system info
+ *
+ * @author Dinesh Ilindra
+ */
+public class SystemInfoTest {
+
+    private final SystemInfo systemInfo = new SystemInfo();
+
+    @Test
+    public void testChattyStderr() throws Exception {
+        final File script = File.createTempFile("chatty", ".sh");
+        script.deleteOnExit();
+        FileUtils.writeStringToFile(script, "yes error | head -c 1000000 >&2; echo done");
+        systemInfo.setMaxOutputBytes(1024);
+        final ProcessResult result = systemInfo.execute("sh " + script.getAbsolutePath(), null, null, null, 10000);
+        Assert.assertFalse(result.isTimedOut());
+        Assert.assertEquals(0, result.getExitCode());
+        Assert.assertEquals("done\n", result.getOut());
+        Assert.assertEquals(1024, result.getErr().length());
+        Assert.assertEquals(1000000 - 1024, result.getDroppedBytes());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final long start = System.currentTimeMillis();
+        final ProcessResult result = systemInfo.execute("sleep 30", null, null, null, 200);
+        Assert.assertTrue(result.isTimedOut());
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        Assert.assertTrue(systemInfo.getProcessMap().isEmpty());
+    }
+
+    @Test
+    public void testExecOut() throws Exception {
+        final File script = File.createTempFile("outerr", ".sh");
+        script.deleteOnExit();
+        FileUtils.writeStringToFile(script, "echo out; echo err >&2");
+        final String command = "sh " + script.getAbsolutePath();
+        Assert.assertEquals(SystemInfo.LINE_SEPARATOR + "out\n", systemInfo.execOut(command));
+        Assert.assertTrue(systemInfo.getProcessMap().isEmpty());
+        Assert.assertEquals(SystemInfo.LINE_SEPARATOR + "out\n", systemInfo.execOut(command, null, null, false));
+        Assert.assertTrue(systemInfo.getProcessMap().containsKey(command));
+        final ProcessResult result = systemInfo.execute(command, null, null, null, 10000);
+        Assert.assertEquals("err\n", result.getErr());
+    }
+
+    @Test
+    public void testInteractive() throws Exception {
+        final File script = File.createTempFile("interactive", ".sh");
+        script.deleteOnExit();
+        FileUtils.writeStringToFile(script, "echo one; sleep 1; echo two; sleep 30");
+        final String command = "sh " + script.getAbsolutePath();
+        final ProcessResult result = systemInfo.execute(command, null, null, null, 300, false);
+        Assert.assertTrue(result.isTimedOut());
+        Assert.assertEquals("one\n", result.getOut());
+        Assert.assertEquals("two", systemInfo.readLine(command));
+        systemInfo.kill(systemInfo.getProcessMap().remove(command));
+    }
+
+    @Test
+    public void testSampler() {
+        final SystemSampler sampler = new SystemSampler(4, 3);
+        for (int i = 0; i < 6; i++) {
+            sampler.sample();
+        }
+        Assert.assertEquals(6, sampler.getSampleCount());
+        Assert.assertEquals(4, sampler.history(Metric.HEAP_USED).length);
+        Assert.assertTrue(sampler.getHeapUsed() > 0);
+        Assert.assertTrue(sampler.getThreadCount() > 0);
+        Assert.assertEquals(sampler.getHeapUsed(), sampler.snapshot().get(Metric.HEAP_USED));
+        Assert.assertTrue(sampler.getTopThreads().length <= 3);
+    }
+
+}
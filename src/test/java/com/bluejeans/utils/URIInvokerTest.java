@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package com.bluejeans.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class URIInvokerTest {
+
+    @Test
+    public void testConcurrentTargets() throws Exception {
+        final URIInvoker invoker = new URIInvoker(new HashMap<String, Object>(), true);
+        invoker.setTarget("fixed", "fixed-value");
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicInteger misses = new AtomicInteger();
+        final List<Thread> readers = new ArrayList<Thread>();
+        for (int index = 0; index < 4; index++) {
+            final Thread reader = new Thread(() -> {
+                while (running.get()) {
+                    try {
+                        if (!"11".equals(invoker.invokeNestedMethod("fixed", "length").toString())) {
+                            misses.incrementAndGet();
+                        }
+                    } catch (final Exception ex) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int index = 0; index < 10000; index++) {
+            invoker.setTarget("t" + index, index);
+            if (index % 2 == 0) {
+                invoker.setTarget("t" + index, null);
+            }
+        }
+        running.set(false);
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        Assert.assertEquals(0, misses.get());
+        Assert.assertEquals(5001, invoker.getTargetMap().size());
+        Assert.assertEquals(9999, invoker.getTarget("t9999"));
+        Assert.assertNull(invoker.getTarget("t9998"));
+        Assert.assertNotNull(invoker.getTarget("system"));
+        try {
+            invoker.getTargetMap().put("other", "value");
+            Assert.fail("target map should be read only");
+        } catch (final UnsupportedOperationException uoe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNullTargets() throws Exception {
+        final Map<String, Object> targetMap = new HashMap<String, Object>();
+        targetMap.put("present", "value");
+        targetMap.put("absent", null);
+        targetMap.put(null, "nameless");
+        final URIInvoker invoker = new URIInvoker(targetMap, true);
+        Assert.assertEquals("value", invoker.getTarget("present"));
+        Assert.assertFalse(invoker.getTargetMap().containsKey("absent"));
+        targetMap.put("present", null);
+        targetMap.put("added", "other");
+        invoker.addTargets(targetMap);
+        Assert.assertEquals("other", invoker.getTarget("added"));
+        Assert.assertFalse(invoker.getTargetMap().containsKey("present"));
+    }
+
+}
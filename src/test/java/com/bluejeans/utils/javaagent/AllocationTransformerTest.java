@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.bluejeans.utils.javaagent;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class AllocationTransformerTest {
+
+    /**
+     * Allocating sample
+     */
+    public static class Sample implements Runnable {
+        @Override
+        public void run() {
+            final List<long[]> list = new ArrayList<>();
+            for (int index = 0; index < 10; index++) {
+                list.add(new long[100]);
+            }
+        }
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+        final String name = Sample.class.getName();
+        final AllocationTransformer transformer = new AllocationTransformer(name, null);
+        Assert.assertTrue(transformer.includesClass(name));
+        Assert.assertFalse(transformer.includesClass(AllocationProfiler.class.getName()));
+        final byte[] byteCode;
+        try (InputStream in = Sample.class.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+            byteCode = IOUtils.toByteArray(in);
+        }
+        final byte[] transformed = transformer.transform(getClass().getClassLoader(), name.replace('.', '/'), null,
+                null, byteCode);
+        Assert.assertNotNull(transformed);
+        final ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(final String className, final boolean resolve) throws ClassNotFoundException {
+                if (className.equals(name)) {
+                    synchronized (this) {
+                        Class<?> clazz = findLoadedClass(className);
+                        if (clazz == null) {
+                            clazz = defineClass(className, transformed, 0, transformed.length);
+                        }
+                        return clazz;
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        };
+        final AllocationProfiler profiler = new AllocationProfiler(null, transformer);
+        profiler.setSampleRate(1);
+        ((Runnable) loader.loadClass(name).newInstance()).run();
+        Assert.assertEquals(2, profiler.getSiteCount());
+        final String[] top = profiler.topSites(5);
+        Assert.assertEquals(2, top.length);
+        Assert.assertTrue(top[0], top[0].contains("new long[]") && top[0].contains("samples=10"));
+        Assert.assertTrue(top[1], top[1].contains("new java.util.ArrayList") && top[1].contains("samples=1"));
+        profiler.reset();
+        Assert.assertEquals(0, profiler.topSites(5).length);
+    }
+
+}
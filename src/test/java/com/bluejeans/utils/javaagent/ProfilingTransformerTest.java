@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package com.bluejeans.utils.javaagent;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Dinesh Ilindra
+ *
+ */
+public class ProfilingTransformerTest {
+
+    /**
+     * Profiled sample
+     */
+    public static class Sample implements Runnable {
+        @Override
+        public void run() {
+            work(3);
+        }
+
+        public long work(final int times) {
+            long sum = 0;
+            for (int index = 0; index < times; index++) {
+                sum += System.nanoTime();
+            }
+            return sum;
+        }
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+        final String name = Sample.class.getName();
+        final ProfilingTransformer transformer = new ProfilingTransformer(name, null, "*", "run");
+        Assert.assertTrue(transformer.includesClass(name));
+        Assert.assertFalse(transformer.includesClass(MethodProfiler.class.getName()));
+        Assert.assertFalse(transformer.includesMethod("run"));
+        final byte[] byteCode;
+        try (InputStream in = Sample.class.getResourceAsStream("/" + name.replace('.', '/') + ".class")) {
+            byteCode = IOUtils.toByteArray(in);
+        }
+        final byte[] transformed = transformer.transform(getClass().getClassLoader(), name.replace('.', '/'), null,
+                null, byteCode);
+        Assert.assertNotNull(transformed);
+        final ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(final String className, final boolean resolve) throws ClassNotFoundException {
+                if (className.equals(name)) {
+                    synchronized (this) {
+                        Class<?> clazz = findLoadedClass(className);
+                        if (clazz == null) {
+                            clazz = defineClass(className, transformed, 0, transformed.length);
+                        }
+                        return clazz;
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        };
+        final Runnable sample = (Runnable) loader.loadClass(name).newInstance();
+        sample.run();
+        sample.run();
+        final LatencyHistogram histogram = MethodProfiler.histogram(name + ".work(int)");
+        Assert.assertNotNull(histogram);
+        Assert.assertEquals(2, histogram.getCount());
+        Assert.assertNull(MethodProfiler.histogram(name + ".run()"));
+    }
+
+}